@@ -0,0 +1,1578 @@
+package bufmgr;
+
+import diskmgr.IOStats;
+import global.GlobalConst;
+import global.Minibase;
+import global.Page;
+import global.PageId;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+import wal.LogMgr;
+
+/**
+ * <h3>Minibase Buffer Manager</h3>
+ * The buffer manager reads disk pages into a main memory page as needed. The
+ * collection of main memory pages (called frames) used by the buffer manager
+ * for this purpose is called the buffer pool. This is just an array of Page
+ * objects. The buffer manager is used by access methods, heap files, and
+ * relational operators to read, write, allocate, and de-allocate pages.
+ * <p>
+ * The buffer manager is safe for use by many threads at once. The page table
+ * is lock-striped, pin counts are atomic, and each frame has its own latch
+ * that is held only while the frame is loaded or written; replacement uses a
+ * shared clock hand, so eviction never blocks unrelated pins. Callers are
+ * still responsible for coordinating updates to the contents of a page.
+ * <p>
+ * Frames are slices of direct (off-heap) memory, so the size of the pool adds
+ * nothing for the garbage collector to trace or copy.
+ * <p>
+ * A background writer keeps the share of dirty frames below a configurable
+ * dirty ratio, writing them in page id order and coalescing adjacent pages,
+ * so that eviction seldom has to wait on a write.
+ * <p>
+ * The pool can be grown or shrunk at run time with resize, either directly or
+ * through the memory-pressure hook (see watchMemory).
+ * <p>
+ * The frames may be split into named pools, each with its own size and
+ * replacement policy. Every pin names the role of its page (ROLE_DATA unless
+ * given), and each role is routed to one pool; so a small pool for directory
+ * and space-map pages stays resident while a large data pool churns under
+ * scans. All roles start out routed to the default pool.
+ * <p>
+ * When the disk manager keeps a write-ahead log, each frame unpinned dirty
+ * has its changes since it was last logged appended to the log, as the byte
+ * ranges its page recorded as changed (see global.ChangedRanges);
+ * and the log is flushed up to a page's last record before the page is
+ * written, so the data files never hold a change the log could lose.
+ * <p>
+ * A checkpoint brings the data files up to date without stopping the world:
+ * it snapshots the set of dirty frames, writes them out in page id order at a
+ * configurable rate while other threads carry on, and then has the disk
+ * manager record a checkpoint marker on the first page (letting it drop the
+ * log records before the checkpoint began). Checkpoints may be taken on
+ * demand or by a background thread at a fixed interval.
+ */
+public class BufMgr implements GlobalConst {
+
+  /** Name of the pool created with the buffer manager. */
+  public static final String DEFAULT_POOL = "default";
+
+  /** Clock replacement, giving recently used frames a second chance. */
+  public static final int POLICY_CLOCK = 0;
+
+  /** First-in first-out replacement, for pools that mostly see scans. */
+  public static final int POLICY_FIFO = 1;
+
+  /** Fewest frames a pool is shrunk to under memory pressure. */
+  public static final int MIN_POOL_FRAMES = 8;
+
+  /** Number of page roles (see GlobalConst). */
+  protected static final int NUM_ROLES = 4;
+
+  /** Maximum number of adjacent pages combined into a single write. */
+  protected static final int MAX_WRITE_RUN = 64;
+
+  /** Maximum number of adjacent pages combined into a single read. */
+  protected static final int MAX_READ_RUN = 64;
+
+  /** Unchanged bytes between two changes below which one record logs both. */
+  protected static final int LOG_RUN_GAP = 16;
+
+  /** Writer batches a pin waits for when every unpinned frame is latched. */
+  protected static final int MAX_VICTIM_WAITS = 10;
+
+  // --------------------------------------------------------------------------
+
+  /** All pools, the default one first; replaced when a pool is added. */
+  protected volatile BufPool[] pools;
+
+  /** The pool serving each page role; replaced when a route changes. */
+  protected volatile BufPool[] routes;
+
+  /** Maps current page numbers to frames; used for efficient lookups. */
+  protected PageTable pagemap;
+
+  /** Background writer that cleans frames ahead of eviction. */
+  protected PageWriter writer;
+
+  /** Background watcher keeping the pools in budget, while one is set. */
+  protected MemoryWatcher watcher;
+
+  /** Background loader warming up the pool, once warmUp is used. */
+  protected PageLoader loader;
+
+  /** Background checkpointer, while setCheckpointInterval has one running. */
+  protected Checkpointer checkpointer;
+
+  /** Pages per second a checkpoint may write, or 0 for no limit. */
+  protected volatile int checkpointRate;
+
+  /** Held while a checkpoint is in progress, so only one runs at a time. */
+  protected final Object checkpointLock = new Object();
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Constructs a buffer manager with the given settings.
+   *
+   * @param numbufs number of buffers in the buffer pool
+   */
+  public BufMgr(int numbufs) {
+
+    // initialize the default pool, serving every role
+    BufPool pool = new BufPool(this, DEFAULT_POOL, numbufs, POLICY_CLOCK);
+    pools = new BufPool[] { pool };
+    routes = new BufPool[NUM_ROLES];
+    Arrays.fill(routes, pool);
+
+    // initialize the specialized page map
+    pagemap = new PageTable(numbufs);
+
+    // start the background writer
+    writer = new PageWriter(this);
+    writer.start();
+
+  } // public BufMgr(int numbufs)
+
+  /**
+   * Creates a new pool and routes the given page roles to it. Pages already
+   * resident elsewhere stay there until they are evicted.
+   *
+   * @param name name of the new pool
+   * @param numbufs number of buffers in the new pool
+   * @param policy POLICY_CLOCK or POLICY_FIFO
+   * @param roles page roles (i.e. ROLE_DIRECTORY) the pool will serve
+   * @throws IllegalArgumentException if the name is taken or a setting is
+   * invalid
+   */
+  public synchronized void createPool(String name, int numbufs, int policy,
+      int... roles) {
+
+    // validate the settings
+    for (BufPool pool : pools) {
+      if (pool.name.equals(name)) {
+        throw new IllegalArgumentException("Buffer pool " + name
+            + " already exists");
+      }
+    }
+    if (numbufs < 1) {
+      throw new IllegalArgumentException("Invalid buffer pool size");
+    }
+    if ((policy != POLICY_CLOCK) && (policy != POLICY_FIFO)) {
+      throw new IllegalArgumentException("Invalid replacement policy");
+    }
+    for (int role : roles) {
+      if ((role < 0) || (role >= NUM_ROLES)) {
+        throw new IllegalArgumentException("Invalid page role");
+      }
+    }
+
+    // publish the pool, then route the roles to it
+    BufPool pool = new BufPool(this, name, numbufs, policy);
+    BufPool[] newpools = Arrays.copyOf(pools, pools.length + 1);
+    newpools[pools.length] = pool;
+    pools = newpools;
+    BufPool[] newroutes = routes.clone();
+    for (int role : roles) {
+      newroutes[role] = pool;
+    }
+    routes = newroutes;
+
+  } // public synchronized void createPool(String name, int numbufs, ...)
+
+  /**
+   * Allocates a set of new pages, and pins the first one in an appropriate
+   * frame in the buffer pool.
+   *
+   * @param firstpg holds the contents of the first page
+   * @param run_size number of pages to allocate
+   * @return page id of the first new page
+   * @throws IllegalArgumentException if PIN_MEMCPY and the page is pinned
+   * @throws IllegalStateException if all pages are pinned (i.e. pool exceeded)
+   */
+  public PageId newPage(Page firstpg, int run_size) {
+
+    // allocate the run
+    PageId firstid = Minibase.DiskManager.allocate_page(run_size);
+
+    // try to pin the first page, and give the run back if that fails
+    try {
+      pinPage(firstid, firstpg, PIN_MEMCPY);
+    } catch (RuntimeException exc) {
+      Minibase.DiskManager.deallocate_page(firstid, run_size);
+      throw exc;
+    }
+
+    // return the first page id
+    return firstid;
+
+  } // public PageId newPage(Page firstpg, int run_size)
+
+  /**
+   * Deallocates a single page from disk, freeing it from the pool if needed.
+   *
+   * @param pageno identifies the page to remove
+   * @throws IllegalArgumentException if the page is pinned
+   */
+  public void freePage(PageId pageno) {
+
+    // take the frame out of the page table, if the page is resident
+    FrameDesc fdesc;
+    HashMap<Integer, FrameDesc> stripe = pagemap.stripe(pageno.pid);
+    synchronized (stripe) {
+      fdesc = stripe.get(pageno.pid);
+      if (fdesc != null) {
+        if (!fdesc.pincnt.compareAndSet(0, 1)) {
+          throw new IllegalArgumentException("Page currently pinned");
+        }
+        stripe.remove(pageno.pid);
+      }
+    }
+
+    // wait out any write in progress, then reset the frame
+    if (fdesc != null) {
+      fdesc.latch.lock();
+      fdesc.pid = INVALID_PAGEID;
+      fdesc.markClean();
+      fdesc.pincnt.set(0);
+      fdesc.pool.replacer.freePage(fdesc);
+      fdesc.latch.unlock();
+    }
+
+    // deallocate the page from disk
+    Minibase.DiskManager.deallocate_page(pageno);
+
+  } // public void freePage(PageId firstid)
+
+  /**
+   * Drops every resident page from the given page id on, without writing it
+   * back; used when the database shrinks, so those pages must all be free.
+   *
+   * @throws IllegalStateException if one of the pages is pinned
+   */
+  public void discardPages(int firstpid) {
+    for (FrameDesc fdesc : getFrames()) {
+
+      // take the frame out of the page table
+      int pid = fdesc.pid;
+      if (pid < firstpid) {
+        continue;
+      }
+      HashMap<Integer, FrameDesc> stripe = pagemap.stripe(pid);
+      synchronized (stripe) {
+        if ((fdesc.pid != pid) || (stripe.get(pid) != fdesc)) {
+          continue;
+        }
+        if (!fdesc.pincnt.compareAndSet(0, 1)) {
+          throw new IllegalStateException("Page currently pinned");
+        }
+        stripe.remove(pid);
+      }
+
+      // wait out any write in progress, then reset the frame
+      fdesc.latch.lock();
+      fdesc.pid = INVALID_PAGEID;
+      fdesc.markClean();
+      fdesc.pincnt.set(0);
+      fdesc.pool.replacer.freePage(fdesc);
+      fdesc.latch.unlock();
+
+    } // for
+  } // public void discardPages(int firstpid)
+
+  /**
+   * Pins a disk page into the buffer pool. If the page is already pinned, this
+   * simply increments the pin count. Otherwise, this selects another page in
+   * the pool to replace, flushing it to disk if dirty.
+   *
+   * @param pageno identifies the page to pin
+   * @param mempage An output parameter referring to the pinned page in the
+   * buffer pool
+   * @param contents what to do with the page's contents: PIN_MEMCPY to copy
+   * mempage into the frame, PIN_DISKIO to read the page from disk, or PIN_NOOP
+   * to leave the frame alone
+   * @throws IllegalArgumentException if PIN_MEMCPY and the page is pinned
+   * @throws IllegalStateException if all pages are pinned (i.e. pool exceeded)
+   */
+  public void pinPage(PageId pageno, Page mempage, int contents) {
+    pinPage(pageno, mempage, contents, ROLE_DATA);
+  }
+
+  /**
+   * Pins a disk page into the pool serving the given page role, as described
+   * for pinPage.
+   */
+  public void pinPage(PageId pageno, Page mempage, int contents, int role) {
+    FrameDesc fdesc = pinFrame(pageno, mempage, contents, role);
+    mempage.setPage(fdesc.page);
+  }
+
+  /**
+   * Pins a data page, as described for pin(PageId, int).
+   */
+  public PageHandle pin(PageId pageno) {
+    return pin(pageno, ROLE_DATA);
+  }
+
+  /**
+   * Pins a disk page into the buffer pool, reading it from disk if needed, and
+   * returns the frame's handle; no page memory is allocated or copied.
+   *
+   * @param pageno identifies the page to pin
+   * @param role the page's role, which selects the pool
+   * @return the handle of the frame holding the page
+   * @throws IllegalStateException if all pages are pinned (i.e. pool exceeded)
+   */
+  public PageHandle pin(PageId pageno, int role) {
+    return pinFrame(pageno, null, PIN_DISKIO, role).handle;
+  }
+
+  /**
+   * Allocates data pages, as described for newPage(int, int).
+   */
+  public PageHandle newPage(int run_size) {
+    return newPage(run_size, ROLE_DATA);
+  }
+
+  /**
+   * Allocates a set of new pages, and pins the first one without reading or
+   * clearing it; the caller must initialize the frame through the handle.
+   *
+   * @param run_size number of pages to allocate
+   * @param role the first page's role, which selects the pool
+   * @return the handle of the frame holding the first new page
+   * @throws IllegalStateException if all pages are pinned (i.e. pool exceeded)
+   */
+  public PageHandle newPage(int run_size, int role) {
+
+    // allocate the run
+    PageId firstid = Minibase.DiskManager.allocate_page(run_size);
+
+    // try to pin the first page, and give the run back if that fails
+    try {
+      return pinFrame(firstid, null, PIN_NOOP, role).handle;
+    } catch (RuntimeException exc) {
+      Minibase.DiskManager.deallocate_page(firstid, run_size);
+      throw exc;
+    }
+
+  } // public PageHandle newPage(int run_size, int role)
+
+  /**
+   * Pins a page the caller has already allocated (e.g. the next page of a
+   * run from newPage or DiskMgr.allocate_page) without reading or clearing
+   * it; the caller must initialize the frame through the handle.
+   *
+   * @param pageno identifies the page to pin
+   * @param role the page's role, which selects the pool
+   * @return the handle of the frame holding the page
+   * @throws IllegalStateException if all pages are pinned (i.e. pool exceeded)
+   */
+  public PageHandle pinNew(PageId pageno, int role) {
+    return pinFrame(pageno, null, PIN_NOOP, role).handle;
+  }
+
+  /**
+   * Pins a disk page into a frame, as described for pinPage.
+   *
+   * @return the descriptor of the pinned frame
+   */
+  protected FrameDesc pinFrame(PageId pageno, Page mempage, int contents,
+      int role) {
+
+    int pid = pageno.pid;
+    HashMap<Integer, FrameDesc> stripe = pagemap.stripe(pid);
+    int waits = 0;
+    while (true) {
+
+      // first check if the page is already resident
+      FrameDesc fdesc;
+      synchronized (stripe) {
+        fdesc = stripe.get(pid);
+        if (fdesc != null) {
+          pinResident(fdesc, contents);
+        }
+      }
+      if (fdesc != null) {
+        if (awaitLoaded(fdesc, pid)) {
+          fdesc.pool.hits.incrementAndGet();
+          return fdesc;
+        }
+        continue;
+      }
+
+      // validate the contents and role before choosing a victim
+      if ((contents != PIN_MEMCPY) && (contents != PIN_DISKIO)
+          && (contents != PIN_NOOP)) {
+        throw new IllegalArgumentException(
+            "Illegal parameter value for contents");
+      }
+      if ((role < 0) || (role >= NUM_ROLES)) {
+        throw new IllegalArgumentException("Invalid page role");
+      }
+
+      // select and claim an available frame from the role's pool
+      BufPool pool = routes[role];
+      FrameDesc victim = pool.replacer.pickVictim();
+      if (victim == null) {
+        if (!pool.hasUnpinned() || (++waits > MAX_VICTIM_WAITS)) {
+          throw new IllegalStateException("Buffer pool exceeded");
+        }
+
+        // the unpinned frames are only latched while being written (e.g. by
+        // the background writer), so wait for a batch to finish and try again
+        writer.awaitBatch(PageWriter.INTERVAL_MILLIS);
+        continue;
+      }
+
+      // install the frame, unless another thread loaded the page meanwhile
+      synchronized (stripe) {
+        fdesc = stripe.get(pid);
+        if (fdesc == null) {
+          installFrame(victim, pid, role);
+          stripe.put(pid, victim);
+        } else {
+          try {
+            pinResident(fdesc, contents);
+          } catch (RuntimeException exc) {
+            releaseFrame(victim);
+            throw exc;
+          }
+        }
+      }
+      if (fdesc != null) {
+        releaseFrame(victim);
+        if (awaitLoaded(fdesc, pid)) {
+          fdesc.pool.hits.incrementAndGet();
+          return fdesc;
+        }
+        continue;
+      }
+
+      // load the page while holding the frame's latch
+      IOStats.Context prev = IOStats.attribute(victim.file, role);
+      try {
+        if (contents == PIN_MEMCPY) {
+          victim.page.copyPage(mempage);
+        } else if (contents == PIN_DISKIO) {
+          Minibase.DiskManager.read_page(pageno, victim.page);
+          loggedFrame(victim);
+        }
+      } catch (RuntimeException exc) {
+        synchronized (stripe) {
+          stripe.remove(pid);
+        }
+        victim.pid = INVALID_PAGEID;
+        victim.loading = false;
+        victim.unpin();
+        victim.latch.unlock();
+        throw exc;
+      } finally {
+        IOStats.restore(prev);
+      }
+      victim.loading = false;
+      victim.latch.unlock();
+      pool.misses.incrementAndGet();
+
+      // finally, return the frame to the caller
+      return victim;
+
+    } // while
+
+  } // protected FrameDesc pinFrame(PageId pageno, Page mempage, ...)
+
+  /**
+   * Unpins a disk page from the buffer pool, decreasing its pin count.
+   *
+   * @param pageno identifies the page to unpin
+   * @param dirty UNPIN_DIRTY if the page was modified, UNPIN_CLEAN otherrwise
+   * @throws IllegalArgumentException if the page is not present or not pinned
+   */
+  public void unpinPage(PageId pageno, boolean dirty) {
+
+    // find the frame
+    FrameDesc fdesc;
+    HashMap<Integer, FrameDesc> stripe = pagemap.stripe(pageno.pid);
+    synchronized (stripe) {
+      fdesc = stripe.get(pageno.pid);
+    }
+    if (fdesc == null) {
+      throw new IllegalArgumentException("Page not in buffer pool");
+    }
+    unpinFrame(fdesc, dirty);
+
+  } // public void unpinPage(PageId pageno, boolean dirty)
+
+  /**
+   * Unpins a frame directly, as described for unpinPage.
+   *
+   * @throws IllegalArgumentException if the frame is not pinned
+   */
+  protected void unpinFrame(FrameDesc fdesc, boolean dirty) {
+
+    if (fdesc.pincnt.get() == 0) {
+      throw new IllegalArgumentException("Page not pinned");
+    }
+
+    // mark it dirty and log its changes before the last unpin makes it a
+    // candidate for eviction
+    if (dirty) {
+      fdesc.markDirty();
+      LogMgr log = Minibase.DiskManager.getLog();
+      if (log != null) {
+        logFrame(fdesc, log);
+      }
+    }
+    fdesc.unpin();
+    fdesc.pool.replacer.unpinPage(fdesc);
+
+  } // protected void unpinFrame(FrameDesc fdesc, boolean dirty)
+
+  /**
+   * Reads a run of adjacent pages into the pool serving the given role ahead
+   * of their use, without pinning them. Pages already resident are skipped,
+   * the rest are read with as few disk reads as possible, and read-ahead never
+   * takes more than a quarter of the pool or waits for a frame.
+   *
+   * @return the number of pages read
+   * @throws IllegalArgumentException if the run is invalid
+   */
+  public int readAhead(PageId firstid, int count, int role) {
+
+    // validate the arguments
+    if ((firstid.pid < 0) || (count < 1)) {
+      throw new IllegalArgumentException("Invalid read-ahead run");
+    }
+    if ((role < 0) || (role >= NUM_ROLES)) {
+      throw new IllegalArgumentException("Invalid page role");
+    }
+
+    // read at most a quarter of the pool, in runs of up to MAX_READ_RUN pages
+    count = Math.min(count, routes[role].getReadAheadLimit());
+    int loaded = 0;
+    for (int i = 0; i < count; i += MAX_READ_RUN) {
+      int runlen = Math.min(MAX_READ_RUN, count - i);
+      int n = prefetch(firstid.pid + i, runlen, role);
+      loaded += n;
+      if (n < runlen) {
+        break;
+      }
+    }
+    return loaded;
+
+  } // public int readAhead(PageId firstid, int count, int role)
+
+  /**
+   * Reads a run of adjacent pages ahead of their use, as readAhead does, but
+   * on the disk manager's I/O threads; the caller does not wait. Reads in
+   * flight together hold at most a quarter of the pool; a run that would
+   * exceed that is dropped.
+   *
+   * @return a future completed with the number of pages read
+   * @throws IllegalArgumentException if the run is invalid
+   */
+  public CompletableFuture<Integer> readAheadAsync(final PageId firstid,
+      final int count, final int role) {
+
+    // validate the arguments now, rather than in the future
+    if ((firstid.pid < 0) || (count < 1)) {
+      throw new IllegalArgumentException("Invalid read-ahead run");
+    }
+    if ((role < 0) || (role >= NUM_ROLES)) {
+      throw new IllegalArgumentException("Invalid page role");
+    }
+    int runlen = Math.min(count, routes[role].getReadAheadLimit());
+    CompletableFuture<Integer> future =
+        prefetchAsync(firstid.pid, runlen, role);
+    return (future != null) ? future : CompletableFuture.completedFuture(0);
+
+  } // public CompletableFuture<Integer> readAheadAsync(PageId firstid, ...)
+
+  /**
+   * Immediately writes a page in the buffer pool to disk, if dirty.
+   *
+   * @throws IllegalArgumentException if the page is not in the pool
+   */
+  public void flushPage(PageId pageno) {
+
+    // find the frame
+    FrameDesc fdesc;
+    HashMap<Integer, FrameDesc> stripe = pagemap.stripe(pageno.pid);
+    synchronized (stripe) {
+      fdesc = stripe.get(pageno.pid);
+    }
+    if (fdesc == null) {
+      throw new IllegalArgumentException("Page " + pageno.pid
+          + " not in buffer pool");
+    }
+
+    // write it out
+    writeFrame(fdesc, pageno.pid);
+
+  } // public void flushPage(PageId pageno)
+
+  /**
+   * Writes all valid and dirty frames to disk.
+   */
+  public void flushAllFrames() {
+    writeDirty(true);
+  }
+
+  /**
+   * Stops the background writer and writes all dirty frames to disk; called
+   * when the database is closed.
+   */
+  public void shutdown() {
+    Checkpointer stopping;
+    MemoryWatcher unwatched;
+    synchronized (this) {
+      stopping = checkpointer;
+      checkpointer = null;
+      unwatched = watcher;
+      watcher = null;
+      if (loader != null) {
+        loader.shutdown();
+        loader = null;
+      }
+    }
+    if (stopping != null) {
+      stopping.shutdown();
+    }
+    if (unwatched != null) {
+      unwatched.shutdown();
+    }
+    writer.shutdown();
+    flushAllFrames();
+  }
+
+  /**
+   * Saves the ids of the resident pages, hottest first, so that a later
+   * warmUp can reload them.
+   */
+  public void saveHotPages(File file) {
+
+    // sort the resident frames by heat, as (heat, frame index) keys
+    FrameDesc[] frames = getFrames();
+    long[] keys = new long[frames.length];
+    int numkeys = 0;
+    for (int i = 0; i < frames.length; i++) {
+      if (frames[i].pid != INVALID_PAGEID) {
+        keys[numkeys++] = ((long) frames[i].heat << 32) | i;
+      }
+    }
+    Arrays.sort(keys, 0, numkeys);
+
+    // write them out, hottest first, with the roles they were loaded for
+    try {
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+          new FileOutputStream(file)));
+      try {
+        out.writeInt(numkeys);
+        for (int i = numkeys - 1; i >= 0; i--) {
+          FrameDesc fdesc = frames[(int) keys[i]];
+          out.writeInt(fdesc.pid);
+          out.writeByte(fdesc.role);
+        }
+      } finally {
+        out.close();
+      }
+    } catch (IOException exc) {
+      Minibase.haltSystem(exc);
+    }
+
+  } // public void saveHotPages(File file)
+
+  /**
+   * Starts reloading the pages saved by saveHotPages in the background, using
+   * sorted, coalesced reads; does nothing if there is no saved list.
+   */
+  public synchronized void warmUp(File file) {
+    if (file.exists() && (loader == null)) {
+      loader = new PageLoader(this, file);
+      loader.start();
+    }
+  }
+
+  /**
+   * Returns true while pages saved by saveHotPages are still being reloaded.
+   */
+  public synchronized boolean isWarmingUp() {
+    return (loader != null) && loader.isAlive();
+  }
+
+  /**
+   * Sets the share of the pool (between 0 and 1) that may be dirty before the
+   * background writer starts cleaning frames.
+   *
+   * @throws IllegalArgumentException if the ratio is out of range
+   */
+  public void setDirtyRatio(double ratio) {
+    if ((ratio < 0) || (ratio > 1)) {
+      throw new IllegalArgumentException("Invalid dirty ratio");
+    }
+    writer.dirtyRatio = ratio;
+  }
+
+  /**
+   * Sets how many pages per second a checkpoint may write, so it leaves most
+   * of the disk to foreground work; 0 (the default) means no limit.
+   *
+   * @throws IllegalArgumentException if the rate is negative
+   */
+  public void setCheckpointRate(int pages_per_sec) {
+    if (pages_per_sec < 0) {
+      throw new IllegalArgumentException("Invalid checkpoint rate");
+    }
+    checkpointRate = pages_per_sec;
+  }
+
+  /**
+   * Starts taking checkpoints in the background, waiting the given time
+   * between the end of one and the start of the next; 0 stops them, cutting
+   * short the one in progress.
+   *
+   * @throws IllegalArgumentException if the interval is negative
+   */
+  public void setCheckpointInterval(long millis) {
+    if (millis < 0) {
+      throw new IllegalArgumentException("Invalid checkpoint interval");
+    }
+    Checkpointer stopping;
+    synchronized (this) {
+      stopping = checkpointer;
+      checkpointer = null;
+      if (millis > 0) {
+        checkpointer = new Checkpointer(this, millis);
+        checkpointer.start();
+      }
+    }
+    if (stopping != null) {
+      stopping.shutdown();
+    }
+  } // public void setCheckpointInterval(long millis)
+
+  /**
+   * Takes a checkpoint on the calling thread: writes every frame dirty when
+   * it begins, in page id order and at the checkpoint rate, while other
+   * threads go on using the pool, then records the checkpoint on disk.
+   *
+   * @return the number of pages written
+   */
+  public int checkpoint() {
+    return checkpoint(null);
+  }
+
+  /**
+   * Resizes the default pool, as described for resize(String, int).
+   */
+  public int resize(int numbufs) {
+    return resize(DEFAULT_POOL, numbufs);
+  }
+
+  /**
+   * Resizes a pool while it is in use. Growing adds new frames; shrinking
+   * evicts unpinned frames (writing them first if dirty), starting with the
+   * most recently added ones, and releases each chunk of memory once none of
+   * its frames are left. Pinned frames are never evicted, so the pool may end up larger than
+   * requested.
+   *
+   * @param name name of the pool
+   * @param numbufs the desired number of frames
+   * @return the actual number of frames
+   * @throws IllegalArgumentException if the pool is unknown or numbufs is not
+   * positive
+   */
+  public int resize(String name, int numbufs) {
+    return getPool(name).resize(numbufs);
+  }
+
+  /**
+   * Memory-pressure hook; shrinks each pool by half, down to MIN_POOL_FRAMES
+   * (a pool created smaller is left as it is). The memory of frames evicted
+   * this way is released a whole chunk at a time (see BufPool.resize).
+   *
+   * @return the actual total number of frames
+   */
+  public int onMemoryPressure() {
+    int total = 0;
+    for (BufPool pool : pools) {
+      int size = pool.frametab.length;
+      int want = Math.min(size, Math.max(MIN_POOL_FRAMES, size / 2));
+      total += pool.resize(want);
+    }
+    return total;
+  }
+
+  /**
+   * Shrinks the pools until at least the given number of bytes of frame
+   * memory is released, largest pool first; pools give memory back a whole
+   * chunk at a time, and keep at least MIN_POOL_FRAMES frames each.
+   *
+   * @return the number of bytes actually released
+   */
+  public long shrinkMemory(long bytes) {
+    BufPool[] order = pools.clone();
+    Arrays.sort(order, new Comparator<BufPool>() {
+      public int compare(BufPool a, BufPool b) {
+        return Long.compare(b.memory, a.memory);
+      }
+    });
+    long released = 0;
+    for (BufPool pool : order) {
+      if (released >= bytes) {
+        break;
+      }
+      released += pool.shrinkMemory(bytes - released);
+    }
+    return released;
+  }
+
+  /**
+   * Gets the bytes of off-heap memory held by the pools' frames.
+   */
+  public long getMemoryUsed() {
+    long used = 0;
+    for (BufPool pool : pools) {
+      used += pool.memory;
+    }
+    return used;
+  }
+
+  /**
+   * Keeps the pools' frame memory within the given budget from now on: a
+   * background watcher shrinks the pools back under it whenever they go
+   * over, leaving some headroom (see MemoryWatcher); 0 stops watching.
+   *
+   * @param budget bytes of frame memory allowed
+   * @throws IllegalArgumentException if the budget is negative
+   */
+  public void watchMemory(long budget) {
+    if (budget < 0) {
+      throw new IllegalArgumentException("Invalid memory budget");
+    }
+    MemoryWatcher stopping;
+    synchronized (this) {
+      stopping = watcher;
+      watcher = null;
+      if (budget > 0) {
+        watcher = new MemoryWatcher(this, budget);
+        watcher.start();
+      }
+    }
+    if (stopping != null) {
+      stopping.shutdown();
+    }
+  } // public void watchMemory(long budget)
+
+  /**
+   * Gets the number of frames modified since they were last written.
+   */
+  public int getNumDirty() {
+    int cnt = 0;
+    for (BufPool pool : pools) {
+      cnt += pool.numdirty.get();
+    }
+    return cnt;
+  }
+
+  /**
+   * Gets the total number of buffer frames.
+   */
+  public int getNumFrames() {
+    int cnt = 0;
+    for (BufPool pool : pools) {
+      cnt += pool.frametab.length;
+    }
+    return cnt;
+  }
+
+  /**
+   * Gets the number of buffer frames in the given pool.
+   *
+   * @throws IllegalArgumentException if the pool is unknown
+   */
+  public int getNumFrames(String name) {
+    return getPool(name).frametab.length;
+  }
+
+  /**
+   * Gets the share of pins that found their page in the given pool.
+   *
+   * @throws IllegalArgumentException if the pool is unknown
+   */
+  public double getHitRatio(String name) {
+    return getPool(name).getHitRatio();
+  }
+
+  /**
+   * Gets the names of all pools, the default one first.
+   */
+  public String[] getPoolNames() {
+    BufPool[] all = pools;
+    String[] names = new String[all.length];
+    for (int i = 0; i < all.length; i++) {
+      names[i] = all[i].name;
+    }
+    return names;
+  }
+
+  /**
+   * Gets the total number of unpinned buffer frames.
+   */
+  public int getNumUnpinned() {
+    int cnt = 0;
+    for (FrameDesc fdesc : getFrames()) {
+      if (fdesc.pincnt.get() == 0) {
+        cnt++;
+      }
+    }
+    return cnt;
+  }
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Gets the named pool.
+   *
+   * @throws IllegalArgumentException if the pool is unknown
+   */
+  protected BufPool getPool(String name) {
+    for (BufPool pool : pools) {
+      if (pool.name.equals(name)) {
+        return pool;
+      }
+    }
+    throw new IllegalArgumentException("Unknown buffer pool " + name);
+  }
+
+  /**
+   * Gets a snapshot of the frames of all pools.
+   */
+  protected FrameDesc[] getFrames() {
+    BufPool[] all = pools;
+    if (all.length == 1) {
+      return all[0].frametab;
+    }
+    FrameDesc[] frames = new FrameDesc[0];
+    for (BufPool pool : all) {
+      FrameDesc[] more = pool.frametab;
+      frames = Arrays.copyOf(frames, frames.length + more.length);
+      System.arraycopy(more, 0, frames, frames.length - more.length,
+          more.length);
+    }
+    return frames;
+  }
+
+  /**
+   * Pins a frame found in the page table; the caller holds the stripe's lock.
+   *
+   * @throws IllegalArgumentException if PIN_MEMCPY and the page is pinned
+   */
+  protected void pinResident(FrameDesc fdesc, int contents) {
+    if ((contents == PIN_MEMCPY) && (fdesc.pincnt.get() > 0)) {
+      throw new IllegalArgumentException(
+          "Page pinned; PIN_MEMCPY not allowed");
+    }
+    fdesc.pincnt.incrementAndGet();
+    fdesc.heat++;
+  }
+
+  /**
+   * Assigns a claimed frame to the given page, ready to be loaded; the caller
+   * holds the stripe's lock.
+   */
+  protected void installFrame(FrameDesc fdesc, int pid, int role) {
+    fdesc.pid = pid;
+    fdesc.markClean();
+    fdesc.loading = true;
+    fdesc.heat = 1;
+    fdesc.role = role;
+    fdesc.file = IOStats.getFile();
+    fdesc.changes.reset(Minibase.DiskManager.getLog() != null);
+    fdesc.logged = false;
+    fdesc.lsn = 0;
+  }
+
+  /**
+   * Waits for a newly pinned frame to finish loading.
+   *
+   * @return true if the frame now holds the page, false if its load failed
+   * (in which case the caller's pin has been released)
+   */
+  protected boolean awaitLoaded(FrameDesc fdesc, int pid) {
+    if (fdesc.loading) {
+      fdesc.latch.lock();
+      fdesc.latch.unlock();
+    }
+    if (fdesc.pid == pid) {
+      return true;
+    }
+    fdesc.unpin();
+    return false;
+  }
+
+  /**
+   * Attempts to claim an unpinned frame for reuse. A dirty frame is written
+   * first if writeDirty is set; otherwise it is left for the background
+   * writer. On success the frame is free, latched, and pinned once by the
+   * caller.
+   */
+  boolean claimFrame(FrameDesc fdesc, boolean writeDirty) {
+
+    // a free frame only needs its latch and pin
+    int pid = fdesc.pid;
+    if (pid == INVALID_PAGEID) {
+      if (!fdesc.latch.tryLock()) {
+        return false;
+      }
+      if ((fdesc.pid == INVALID_PAGEID) && fdesc.pincnt.compareAndSet(0, 1)) {
+        return true;
+      }
+      fdesc.latch.unlock();
+      return false;
+    }
+
+    // write back a dirty page while it is still in the page table
+    if (fdesc.dirty) {
+      if (!writeDirty) {
+        writer.wakeup(fdesc.pool);
+        return false;
+      }
+      writeFrame(fdesc, pid);
+    }
+
+    // take the page out of the table, unless it was pinned again meanwhile;
+    // unpinFrame marks the page dirty before dropping its pin (without the
+    // stripe lock), so only once the pin is taken can the dirty flag be
+    // trusted to stay clear
+    HashMap<Integer, FrameDesc> stripe = pagemap.stripe(pid);
+    synchronized (stripe) {
+      if ((fdesc.pid != pid) || !fdesc.latch.tryLock()) {
+        return false;
+      }
+      if (!fdesc.pincnt.compareAndSet(0, 1)) {
+        fdesc.latch.unlock();
+        return false;
+      }
+      if ((fdesc.pid != pid) || fdesc.dirty) {
+        fdesc.pincnt.set(0);
+        fdesc.latch.unlock();
+        return false;
+      }
+      stripe.remove(pid);
+      fdesc.pid = INVALID_PAGEID;
+    }
+    return true;
+
+  } // boolean claimFrame(FrameDesc fdesc)
+
+  /**
+   * Returns a claimed frame to the pool unused.
+   */
+  protected void releaseFrame(FrameDesc fdesc) {
+    fdesc.pincnt.set(0);
+    fdesc.pool.replacer.freePage(fdesc);
+    fdesc.latch.unlock();
+  }
+
+  /**
+   * Writes a frame to disk if it still holds the given page and is dirty.
+   */
+  protected void writeFrame(FrameDesc fdesc, int pid) {
+    fdesc.latch.lock();
+    try {
+      if ((fdesc.pid == pid) && fdesc.dirty) {
+
+        // clear the flag first, so concurrent updates mark it dirty again
+        fdesc.markClean();
+        IOStats.Context prev = IOStats.attribute(fdesc.file, fdesc.role);
+        try {
+          LogMgr log = Minibase.DiskManager.getLog();
+          if (log != null) {
+            log.flush(logPinned(fdesc, log));
+          }
+          Minibase.DiskManager.write_page(new PageId(pid), fdesc.page);
+        } catch (RuntimeException exc) {
+          fdesc.markDirty();
+          throw exc;
+        } finally {
+          IOStats.restore(prev);
+        }
+
+      }
+    } finally {
+      fdesc.latch.unlock();
+    }
+  } // protected void writeFrame(FrameDesc fdesc, int pid)
+
+  /**
+   * Writes the dirty frames of every pool, as described for
+   * writeDirty(BufPool, boolean).
+   *
+   * @return the number of pages written
+   */
+  int writeDirty(boolean all) {
+    int written = 0;
+    for (BufPool pool : pools) {
+      written += writeDirty(pool, all);
+    }
+    return written;
+  }
+
+  /**
+   * Writes a pool's dirty frames in page id order, coalescing runs of
+   * adjacent pages into single multi-page writes. Latches are only waited for
+   * when no run is being held, so concurrent callers cannot deadlock.
+   *
+   * @param all true to write every dirty frame, waiting on busy ones; false
+   * to write only unpinned frames and skip busy ones (i.e. the background
+   * writer)
+   * @return the number of pages written
+   */
+  int writeDirty(BufPool pool, boolean all) {
+
+    // snapshot the dirty frames as (page id, frame index) keys, and sort them
+    FrameDesc[] frames = pool.frametab;
+    long[] keys = new long[frames.length];
+    int numkeys = 0;
+    for (int i = 0; i < frames.length; i++) {
+      int pid = frames[i].pid;
+      if ((pid != INVALID_PAGEID) && frames[i].dirty
+          && (all || (frames[i].pincnt.get() == 0))) {
+        keys[numkeys++] = ((long) pid << 32) | i;
+      }
+    }
+    Arrays.sort(keys, 0, numkeys);
+
+    // latch and collect runs of adjacent pages
+    FrameDesc[] run = new FrameDesc[MAX_WRITE_RUN];
+    int runlen = 0;
+    int runfirst = INVALID_PAGEID;
+    int written = 0;
+    for (int i = 0; i < numkeys; i++) {
+
+      int pid = (int) (keys[i] >>> 32);
+      FrameDesc fdesc = frames[(int) keys[i]];
+
+      // a page that does not extend the run (or whose latch is busy) ends it
+      boolean adjacent = (runlen > 0) && (runlen < MAX_WRITE_RUN)
+          && (pid == runfirst + runlen);
+      boolean latched = fdesc.latch.tryLock();
+      if ((!adjacent || !latched) && (runlen > 0)) {
+        written += writeRun(run, runfirst, runlen);
+        runlen = 0;
+      }
+      if (!latched) {
+        if (!all) {
+          continue;
+        }
+        fdesc.latch.lock();
+      }
+
+      // skip frames that were reassigned or cleaned since the snapshot
+      if ((fdesc.pid != pid) || !fdesc.dirty) {
+        fdesc.latch.unlock();
+        continue;
+      }
+      if (runlen == 0) {
+        runfirst = pid;
+      }
+      run[runlen++] = fdesc;
+
+    } // for
+
+    // write the last run
+    if (runlen > 0) {
+      written += writeRun(run, runfirst, runlen);
+    }
+    return written;
+
+  } // int writeDirty(BufPool pool, boolean all)
+
+  /**
+   * Writes a run of latched, adjacent dirty frames and releases their latches.
+   *
+   * @return the number of pages written
+   */
+  protected int writeRun(FrameDesc[] run, int firstpid, int runlen) {
+
+    // clear the flags first, so concurrent updates mark them dirty again
+    Page[] pages = new Page[runlen];
+    for (int i = 0; i < runlen; i++) {
+      run[i].markClean();
+      pages[i] = run[i].page;
+    }
+
+    // write the whole run at once, charged to its first page's file and role,
+    // once the log holds every change it writes
+    IOStats.Context prev = IOStats.attribute(run[0].file, run[0].role);
+    try {
+      LogMgr log = Minibase.DiskManager.getLog();
+      if (log != null) {
+        long lsn = 0;
+        for (int i = 0; i < runlen; i++) {
+          lsn = Math.max(lsn, logPinned(run[i], log));
+        }
+        log.flush(lsn);
+      }
+      if (runlen == 1) {
+        Minibase.DiskManager.write_page(new PageId(firstpid), pages[0]);
+      } else {
+        Minibase.DiskManager.write_pages(new PageId(firstpid), runlen, pages);
+      }
+    } catch (RuntimeException exc) {
+      for (int i = 0; i < runlen; i++) {
+        run[i].markDirty();
+      }
+      throw exc;
+    } finally {
+      IOStats.restore(prev);
+      for (int i = 0; i < runlen; i++) {
+        run[i].latch.unlock();
+        run[i] = null;
+      }
+    }
+    return runlen;
+
+  } // protected int writeRun(FrameDesc[] run, int firstpid, int runlen)
+
+  /**
+   * Takes a checkpoint, as described for checkpoint(); the given background
+   * checkpointer (or null) is checked between runs, and a checkpoint cut
+   * short by stopping it is not recorded.
+   *
+   * @return the number of pages written
+   */
+  int checkpoint(Checkpointer owner) {
+    synchronized (checkpointLock) {
+
+      // note where the log ends, then snapshot the frames that are dirty or
+      // being written, as (page id, frame index) keys sorted by page
+      LogMgr log = Minibase.DiskManager.getLog();
+      long lsn = (log != null) ? log.getEndLSN() : 0;
+      FrameDesc[] frames = getFrames();
+      long[] keys = new long[frames.length];
+      int numkeys = 0;
+      for (int i = 0; i < frames.length; i++) {
+        int pid = frames[i].pid;
+        if ((pid != INVALID_PAGEID)
+            && (frames[i].dirty || frames[i].latch.isLocked())) {
+          keys[numkeys++] = ((long) pid << 32) | i;
+        }
+      }
+      Arrays.sort(keys, 0, numkeys);
+
+      // trickle them out a run of adjacent pages at a time, pausing after
+      // each to stay within the rate; latches are only waited for when no
+      // run is being held, and waiting lets any write in progress finish
+      FrameDesc[] run = new FrameDesc[MAX_WRITE_RUN];
+      int runlen = 0;
+      int runfirst = INVALID_PAGEID;
+      int written = 0;
+      long start = System.nanoTime();
+      for (int i = 0; i < numkeys; i++) {
+
+        int pid = (int) (keys[i] >>> 32);
+        FrameDesc fdesc = frames[(int) keys[i]];
+        boolean adjacent = (runlen > 0) && (runlen < MAX_WRITE_RUN)
+            && (pid == runfirst + runlen);
+        boolean latched = fdesc.latch.tryLock();
+        if ((!adjacent || !latched) && (runlen > 0)) {
+          written += writeRun(run, runfirst, runlen);
+          runlen = 0;
+          if (!pace(owner, start, written)) {
+            if (latched) {
+              fdesc.latch.unlock();
+            }
+            return written;
+          }
+        }
+        if (!latched) {
+          fdesc.latch.lock();
+        }
+
+        // skip frames that were reassigned or cleaned since the snapshot
+        if ((fdesc.pid != pid) || !fdesc.dirty) {
+          fdesc.latch.unlock();
+          continue;
+        }
+        if (runlen == 0) {
+          runfirst = pid;
+        }
+        run[runlen++] = fdesc;
+
+      } // for
+
+      // write the last run, then record the checkpoint
+      if (runlen > 0) {
+        written += writeRun(run, runfirst, runlen);
+      }
+      if ((owner == null) || owner.running) {
+        Minibase.DiskManager.recordCheckpoint(lsn);
+      }
+      return written;
+
+    } // synchronized
+  } // int checkpoint(Checkpointer owner)
+
+  /**
+   * Waits as long as the checkpoint rate requires after the given number of
+   * pages were written since the start time.
+   *
+   * @return false if the given checkpointer (if any) was stopped meanwhile
+   */
+  protected boolean pace(Checkpointer owner, long start, int written) {
+    int rate = checkpointRate;
+    long millis = 0;
+    if (rate > 0) {
+      long due = start + written * 1000000000L / rate;
+      millis = (due - System.nanoTime()) / 1000000;
+    }
+    if (owner != null) {
+      return owner.pause(millis);
+    }
+    if (millis > 0) {
+      try {
+        Thread.sleep(millis);
+      } catch (InterruptedException exc) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    return true;
+  } // protected boolean pace(Checkpointer owner, long start, int written)
+
+  /**
+   * Appends the changes made to a frame since it was last logged to the
+   * write-ahead log, one record per changed range (ranges closer than a
+   * record header are joined), or the whole page if it has not been logged or
+   * loaded whole; the frame must be pinned or latched.
+   */
+  protected void logFrame(FrameDesc fdesc, LogMgr log) {
+    synchronized (fdesc) {
+
+      // a page not loaded from disk (or from before logging) is logged whole
+      ByteBuffer buf = fdesc.page.getBuffer();
+      int[] ranges = fdesc.changes.take();
+      if (!fdesc.logged) {
+        byte[] image = new byte[buf.capacity()];
+        copyRun(buf, image, 0, image.length);
+        fdesc.lsn = log.append(fdesc.pid, 0, image, image.length);
+        fdesc.logged = true;
+        return;
+      }
+      if (ranges == null) {
+        return;
+      }
+
+      // log each range as it is now, joining those close together
+      for (int i = 0; i < ranges.length; ) {
+        int start = ranges[i];
+        int end = ranges[i + 1];
+        i += 2;
+        while ((i < ranges.length) && (ranges[i] - end <= LOG_RUN_GAP)) {
+          end = ranges[i + 1];
+          i += 2;
+        }
+        byte[] run = new byte[end - start];
+        copyRun(buf, run, start, run.length);
+        fdesc.lsn = log.append(fdesc.pid, start, run, run.length);
+      }
+
+    } // synchronized
+  } // protected void logFrame(FrameDesc fdesc, LogMgr log)
+
+  /**
+   * Logs any changes still being made to a pinned frame before it is written,
+   * as its holder has not unpinned it yet; the caller holds the latch.
+   *
+   * @return the LSN the log must be flushed to before writing the frame
+   */
+  protected long logPinned(FrameDesc fdesc, LogMgr log) {
+    if (fdesc.pincnt.get() > 0) {
+      logFrame(fdesc, log);
+    }
+    return fdesc.lsn;
+  }
+
+  /**
+   * Notes that a frame was just read from disk whole, so only later changes
+   * are logged; the caller holds the latch.
+   */
+  protected void loggedFrame(FrameDesc fdesc) {
+    if (Minibase.DiskManager.getLog() == null) {
+      return;
+    }
+    synchronized (fdesc) {
+      fdesc.changes.reset(true);
+      fdesc.logged = true;
+    }
+  }
+
+  /**
+   * Copies a run of a frame's bytes into the start of an array.
+   */
+  protected static void copyRun(ByteBuffer buf, byte[] dst, int offset,
+      int length) {
+    ByteBuffer src = buf.duplicate();
+    src.clear();
+    src.position(offset);
+    src.get(dst, 0, length);
+  }
+
+  /**
+   * Loads a run of adjacent pages into the pool serving the given role,
+   * without pinning them. Each stretch of pages that are not yet resident is
+   * read at once; prefetching stops early rather than wait for a frame.
+   *
+   * @return the number of pages loaded
+   */
+  int prefetch(int firstpid, int count, int role) {
+
+    BufPool pool = routes[role];
+    FrameDesc[] run = new FrameDesc[count];
+    int runlen = 0;
+    int loaded = 0;
+    for (int i = 0; i < count; i++) {
+
+      // claim and install a frame, unless the page is already resident
+      int pid = firstpid + i;
+      HashMap<Integer, FrameDesc> stripe = pagemap.stripe(pid);
+      boolean resident;
+      synchronized (stripe) {
+        resident = stripe.containsKey(pid);
+      }
+      FrameDesc victim = null;
+      if (!resident) {
+        victim = pool.replacer.pickVictim();
+        if (victim == null) {
+          count = i;
+          break;
+        }
+      }
+      if (victim != null) {
+        synchronized (stripe) {
+          if (stripe.containsKey(pid)) {
+            releaseFrame(victim);
+            victim = null;
+          } else {
+            installFrame(victim, pid, role);
+            stripe.put(pid, victim);
+          }
+        }
+      }
+
+      // extend the run, or read what it holds so far
+      if (victim != null) {
+        run[runlen++] = victim;
+      } else if (runlen > 0) {
+        loaded += loadRun(run, pid - runlen, runlen);
+        runlen = 0;
+      }
+
+    } // for
+
+    // read the last stretch
+    if (runlen > 0) {
+      loaded += loadRun(run, firstpid + count - runlen, runlen);
+    }
+    return loaded;
+
+  } // int prefetch(int firstpid, int count, int role)
+
+  /**
+   * Prefetches a run of adjacent pages on the disk manager's I/O threads,
+   * reserving its frames within the pool's read-ahead limit.
+   *
+   * @return a future completed with the number of pages loaded, or null if
+   * the run does not fit within the limit now
+   */
+  CompletableFuture<Integer> prefetchAsync(final int firstpid, final int count,
+      final int role) {
+
+    // reserve the run's frames
+    final BufPool pool = routes[role];
+    if (!pool.reserveReading(count)) {
+      return null;
+    }
+
+    // read the run, then give the reservation back
+    CompletableFuture<Integer> future;
+    try {
+      future = Minibase.DiskManager.supplyAsync(new Supplier<Integer>() {
+        public Integer get() {
+          try {
+            return prefetch(firstpid, count, role);
+          } finally {
+            pool.reading.addAndGet(-count);
+          }
+        }
+      });
+    } catch (RuntimeException exc) {
+      pool.reading.addAndGet(-count);
+      throw exc;
+    }
+    return future;
+
+  } // CompletableFuture<Integer> prefetchAsync(int firstpid, int count, ...)
+
+  /**
+   * Reads a run of installed, adjacent frames, then releases their latches
+   * and pins.
+   *
+   * @return the number of pages read
+   */
+  protected int loadRun(FrameDesc[] run, int firstpid, int runlen) {
+
+    // read the whole run at once, charged to its first page's file and role
+    Page[] pages = new Page[runlen];
+    for (int i = 0; i < runlen; i++) {
+      pages[i] = run[i].page;
+    }
+    IOStats.Context prev = IOStats.attribute(run[0].file, run[0].role);
+    try {
+      if (runlen == 1) {
+        Minibase.DiskManager.read_page(new PageId(firstpid), pages[0]);
+      } else {
+        Minibase.DiskManager.read_pages(new PageId(firstpid), runlen, pages);
+      }
+    } catch (RuntimeException exc) {
+      for (int i = 0; i < runlen; i++) {
+        HashMap<Integer, FrameDesc> stripe = pagemap.stripe(run[i].pid);
+        synchronized (stripe) {
+          stripe.remove(run[i].pid);
+        }
+        run[i].pid = INVALID_PAGEID;
+        run[i].loading = false;
+        run[i].unpin();
+        run[i].latch.unlock();
+        run[i] = null;
+      }
+      throw exc;
+    } finally {
+      IOStats.restore(prev);
+    }
+
+    // let waiting pins in, then drop the loader's pins
+    for (int i = 0; i < runlen; i++) {
+      loggedFrame(run[i]);
+      run[i].loading = false;
+      run[i].latch.unlock();
+      unpinFrame(run[i], UNPIN_CLEAN);
+      run[i] = null;
+    }
+    return runlen;
+
+  } // protected int loadRun(FrameDesc[] run, int firstpid, int runlen)
+
+} // public class BufMgr implements GlobalConst
@@ -0,0 +1,283 @@
+package bufmgr;
+
+import global.GlobalConst;
+import global.Minibase;
+import global.Page;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A named set of frames with its own size and replacement policy. The buffer
+ * manager routes each page role to one pool; all pools share the page table,
+ * so a page is resident in at most one of them.
+ */
+class BufPool implements GlobalConst {
+
+  /** Size of each block of off-heap memory frames are carved from. */
+  protected static final int ARENA_CHUNK_SIZE = 64 * 1024 * 1024;
+
+  // --------------------------------------------------------------------------
+
+  /** The buffer manager owning the pool. */
+  protected final BufMgr bufmgr;
+
+  /** Name of the pool. */
+  protected final String name;
+
+  /**
+   * Array of descriptors, each owning a frame of the pool and containing the
+   * pin count, dirty status, etc; replaced (never changed) when resizing.
+   */
+  protected volatile FrameDesc[] frametab;
+
+  /** The replacement policy to use. */
+  protected final Clock replacer;
+
+  /** Number of pins that found their page in this pool. */
+  protected final AtomicLong hits;
+
+  /** Number of pins that loaded their page into this pool. */
+  protected final AtomicLong misses;
+
+  /** Number of frames held by asynchronous reads in flight. */
+  protected final AtomicInteger reading;
+
+  /** Number of frames modified since they were last written. */
+  protected final AtomicInteger numdirty;
+
+  /** True if a pin found only dirty victims and asked for clean frames. */
+  protected volatile boolean wanted;
+
+  /** Bytes of off-heap memory held by the pool's chunks. */
+  protected volatile long memory;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Constructs a pool with the given settings.
+   *
+   * @param policy BufMgr.POLICY_CLOCK or BufMgr.POLICY_FIFO
+   */
+  public BufPool(BufMgr bufmgr, String name, int numbufs, int policy) {
+    this.bufmgr = bufmgr;
+    this.name = name;
+    memory = 0;
+    frametab = allocateFrames(numbufs);
+    replacer = new Clock(bufmgr, this, policy == BufMgr.POLICY_CLOCK);
+    hits = new AtomicLong();
+    misses = new AtomicLong();
+    reading = new AtomicInteger();
+    numdirty = new AtomicInteger();
+    wanted = false;
+  }
+
+  /**
+   * Gets the most frames read-ahead may hold at once: a quarter of the pool.
+   */
+  public int getReadAheadLimit() {
+    return Math.max(1, frametab.length / 4);
+  }
+
+  /**
+   * Reserves frames for an asynchronous read, unless that would take the
+   * frames held by reads in flight past the read-ahead limit.
+   *
+   * @return true if the frames were reserved
+   */
+  public boolean reserveReading(int count) {
+    int limit = getReadAheadLimit();
+    while (true) {
+      int cur = reading.get();
+      if (cur + count > limit) {
+        return false;
+      }
+      if (reading.compareAndSet(cur, cur + count)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Checks whether any frame of the pool is unpinned.
+   */
+  public boolean hasUnpinned() {
+    for (FrameDesc fdesc : frametab) {
+      if (fdesc.pincnt.get() == 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Gets the share of pins that found their page in this pool.
+   */
+  public double getHitRatio() {
+    long h = hits.get();
+    long total = h + misses.get();
+    return (total == 0) ? 0 : (double) h / total;
+  }
+
+  /**
+   * Resizes the pool, as described for BufMgr.resize.
+   *
+   * @return the actual number of frames
+   */
+  public synchronized int resize(int numbufs) {
+
+    // validate the size
+    if (numbufs < 1) {
+      throw new IllegalArgumentException("Invalid buffer pool size");
+    }
+    FrameDesc[] frames = frametab;
+
+    // grow by appending new frames
+    if (numbufs > frames.length) {
+      FrameDesc[] added = allocateFrames(numbufs - frames.length);
+      FrameDesc[] grown = Arrays.copyOf(frames, numbufs);
+      System.arraycopy(added, 0, grown, frames.length, added.length);
+      frametab = grown;
+      return numbufs;
+    }
+
+    // claim victims from the tail; they keep their pin for good, so threads
+    // still using the old table can never reuse them
+    boolean[] evicted = new boolean[frames.length];
+    int remaining = frames.length;
+    for (int i = frames.length - 1; (i >= 0) && (remaining > numbufs); i--) {
+      if ((frames[i].pincnt.get() == 0) && bufmgr.claimFrame(frames[i], true)) {
+        frames[i].latch.unlock();
+        evicted[i] = true;
+        remaining--;
+      }
+    }
+
+    // publish the smaller table
+    if (remaining < frames.length) {
+      FrameDesc[] shrunk = new FrameDesc[remaining];
+      IdentityHashMap<ByteBuffer, Boolean> inuse =
+          new IdentityHashMap<ByteBuffer, Boolean>();
+      for (int i = 0, j = 0; i < frames.length; i++) {
+        if (!evicted[i]) {
+          shrunk[j++] = frames[i];
+          inuse.put(frames[i].chunk, Boolean.TRUE);
+        }
+      }
+      frametab = shrunk;
+
+      // release the chunks left without frames; evicted frames are never
+      // read or written again, as they stay pinned and hold no page
+      for (int i = 0; i < frames.length; i++) {
+        if (evicted[i] && (inuse.put(frames[i].chunk, Boolean.TRUE) == null)) {
+          memory -= frames[i].chunk.capacity();
+          freeChunk(frames[i].chunk);
+        }
+      }
+    }
+    return remaining;
+
+  } // public synchronized int resize(int numbufs)
+
+  /**
+   * Shrinks the pool by whole chunks, newest first, until at least the given
+   * number of bytes is released, keeping at least BufMgr.MIN_POOL_FRAMES.
+   *
+   * @return the number of bytes actually released
+   */
+  public synchronized long shrinkMemory(long bytes) {
+
+    // pick chunks from the tail until they cover the bytes, counting their
+    // frames (each chunk's frames stay together, in allocation order)
+    FrameDesc[] frames = frametab;
+    IdentityHashMap<ByteBuffer, Boolean> chosen =
+        new IdentityHashMap<ByteBuffer, Boolean>();
+    long covered = 0;
+    int count = 0;
+    for (int i = frames.length - 1; i >= 0; i--) {
+      ByteBuffer chunk = frames[i].chunk;
+      if (!chosen.containsKey(chunk)) {
+        if (covered >= bytes) {
+          break;
+        }
+        chosen.put(chunk, Boolean.TRUE);
+        covered += chunk.capacity();
+      }
+      count++;
+    }
+
+    // evict their frames, which releases the chunks
+    long before = memory;
+    int target = Math.max(frames.length - count,
+        Math.min(frames.length, BufMgr.MIN_POOL_FRAMES));
+    if (target < frames.length) {
+      resize(target);
+    }
+    return before - memory;
+
+  } // public synchronized long shrinkMemory(long bytes)
+
+  /**
+   * Allocates the given number of frames from off-heap memory, in chunks of
+   * at most ARENA_CHUNK_SIZE bytes.
+   */
+  protected FrameDesc[] allocateFrames(int count) {
+
+    FrameDesc[] frames = new FrameDesc[count];
+    int perchunk = ARENA_CHUNK_SIZE / Minibase.PageSize;
+    ByteBuffer chunk = null;
+    for (int i = 0; i < count; i++) {
+
+      // start a new chunk when the current one is used up
+      int slot = i % perchunk;
+      if (slot == 0) {
+        chunk = ByteBuffer.allocateDirect(Math.min(perchunk, count - i)
+            * Minibase.PageSize);
+        memory += chunk.capacity();
+      }
+
+      // each frame is a page-sized slice of the chunk
+      ByteBuffer dup = chunk.duplicate();
+      dup.limit((slot + 1) * Minibase.PageSize);
+      dup.position(slot * Minibase.PageSize);
+      frames[i] = new FrameDesc(bufmgr, this, chunk, new Page(dup.slice()));
+
+    } // for
+    return frames;
+
+  } // protected FrameDesc[] allocateFrames(int count)
+
+  /**
+   * Frees a chunk's off-heap memory right away, through the JVM's cleaner for
+   * direct buffers; where that is not accessible, the memory is returned when
+   * the chunk is garbage collected instead.
+   */
+  protected static void freeChunk(ByteBuffer chunk) {
+    try {
+      try {
+        // Java 9 and later
+        Class<?> cls = Class.forName("sun.misc.Unsafe");
+        Method clean = cls.getMethod("invokeCleaner", ByteBuffer.class);
+        Field unsafe = cls.getDeclaredField("theUnsafe");
+        unsafe.setAccessible(true);
+        clean.invoke(unsafe.get(null), chunk);
+      } catch (NoSuchMethodException exc) {
+        // Java 8
+        Method getter = chunk.getClass().getMethod("cleaner");
+        getter.setAccessible(true);
+        Object cleaner = getter.invoke(chunk);
+        cleaner.getClass().getMethod("clean").invoke(cleaner);
+      }
+    } catch (ReflectiveOperationException exc) {
+      // left to the garbage collector
+    } catch (RuntimeException exc) {
+      // left to the garbage collector
+    }
+  } // protected static void freeChunk(ByteBuffer chunk)
+
+} // class BufPool implements GlobalConst
@@ -0,0 +1,75 @@
+package bufmgr;
+
+/**
+ * Background thread that takes an incremental checkpoint at a fixed interval
+ * (see BufMgr.setCheckpointInterval). Each checkpoint trickles its pages out
+ * at the configured rate, so foreground work goes on meanwhile; stopping the
+ * thread cuts short the checkpoint in progress, which is then not recorded.
+ */
+class Checkpointer extends Thread {
+
+  /** The buffer manager being served. */
+  protected final BufMgr bufmgr;
+
+  /** Time from the end of one checkpoint to the start of the next. */
+  protected final long interval;
+
+  /** False once the checkpointer has been asked to stop. */
+  protected volatile boolean running;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Constructs a (not yet started) checkpointer for the given buffer manager.
+   *
+   * @param interval milliseconds between checkpoints
+   */
+  public Checkpointer(BufMgr bufmgr, long interval) {
+    super("bufmgr-checkpointer");
+    setDaemon(true);
+    this.bufmgr = bufmgr;
+    this.interval = interval;
+    running = true;
+  }
+
+  /**
+   * Stops the checkpointer and waits for it to finish.
+   */
+  public void shutdown() {
+    synchronized (this) {
+      running = false;
+      notify();
+    }
+    try {
+      join();
+    } catch (InterruptedException exc) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Waits for the given time, unless the checkpointer is stopped first.
+   *
+   * @return true if the checkpointer is still running
+   */
+  public synchronized boolean pause(long millis) {
+    if (running && (millis > 0)) {
+      try {
+        wait(millis);
+      } catch (InterruptedException exc) {
+        running = false;
+      }
+    }
+    return running;
+  }
+
+  /**
+   * Main loop: wait out the interval, then take a checkpoint.
+   */
+  public void run() {
+    while (pause(interval)) {
+      bufmgr.checkpoint(this);
+    }
+  }
+
+} // class Checkpointer extends Thread
@@ -0,0 +1,94 @@
+package bufmgr;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The "Clock" replacement policy. A shared hand sweeps over the frames and
+ * gives each recently used frame a second chance before choosing it. Threads
+ * advance the hand independently, so finding a victim never stops the world.
+ * Dirty frames are left to the background writer until the final sweep.
+ * Without second chances the clock degrades to FIFO, which suits pools that
+ * mostly see scans.
+ */
+class Clock {
+
+  /** The buffer manager being served. */
+  protected final BufMgr bufmgr;
+
+  /** The pool whose frames are replaced. */
+  protected final BufPool pool;
+
+  /** True to give recently used frames a second chance. */
+  protected final boolean secondChance;
+
+  /** Position of the clock hand (taken modulo the number of frames). */
+  protected final AtomicInteger head;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Constructs a clock for the given pool.
+   */
+  public Clock(BufMgr bufmgr, BufPool pool, boolean secondChance) {
+    this.bufmgr = bufmgr;
+    this.pool = pool;
+    this.secondChance = secondChance;
+    head = new AtomicInteger(-1);
+  }
+
+  /**
+   * Notifies the replacer that a frame was unpinned; the last unpin gives the
+   * frame its second chance.
+   */
+  public void unpinPage(FrameDesc fdesc) {
+    if (secondChance && (fdesc.pincnt.get() == 0)) {
+      fdesc.referenced = true;
+    }
+  }
+
+  /**
+   * Notifies the replacer that a frame was freed and is available at once.
+   */
+  public void freePage(FrameDesc fdesc) {
+    fdesc.referenced = false;
+  }
+
+  /**
+   * Selects a victim frame and claims it for the caller.
+   *
+   * @return the claimed frame (latched, with one pin), or null if every frame
+   * stayed pinned for three full sweeps
+   */
+  public FrameDesc pickVictim() {
+
+    FrameDesc[] frametab = pool.frametab;
+    int numbufs = frametab.length;
+    for (int i = 0; i < 3 * numbufs; i++) {
+
+      // advance the shared hand
+      FrameDesc fdesc = frametab[(head.incrementAndGet() & 0x7fffffff)
+          % numbufs];
+
+      // skip pinned frames, and give referenced ones a second chance
+      if (fdesc.pincnt.get() != 0) {
+        continue;
+      }
+      if (fdesc.referenced) {
+        fdesc.referenced = false;
+        fdesc.heat >>= 1;
+        continue;
+      }
+
+      // try to take the frame; another thread may have beaten us to it
+      if (bufmgr.claimFrame(fdesc, i >= 2 * numbufs)) {
+        return fdesc;
+      }
+
+    } // for
+
+    // no frame could be claimed
+    return null;
+
+  } // public FrameDesc pickVictim()
+
+} // class Clock
@@ -0,0 +1,145 @@
+package bufmgr;
+
+import diskmgr.IOStats;
+import global.ChangedRanges;
+import global.GlobalConst;
+import global.Page;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A frame description holds the bookkeeping for one frame of the buffer pool.
+ * The pin count is atomic so hits never lock the frame; the latch is held by
+ * whoever moves the frame's contents to or from disk. Each descriptor owns its
+ * frame's memory and handle, so the pool can be resized by replacing the
+ * frame table without moving any frame.
+ */
+class FrameDesc implements GlobalConst {
+
+  /** The pool the frame belongs to. */
+  protected final BufPool pool;
+
+  /** The frame's page in the buffer pool. */
+  protected final Page page;
+
+  /** Block of off-heap memory the frame's page is a slice of. */
+  protected final ByteBuffer chunk;
+
+  /** The frame's reusable handle. */
+  protected final PageHandle handle;
+
+  /** Id of the page in the frame, or INVALID_PAGEID if the frame is free. */
+  protected volatile int pid;
+
+  /** Number of outstanding pins on the frame. */
+  protected final AtomicInteger pincnt;
+
+  /** True if the frame has been modified since it was last written. */
+  protected volatile boolean dirty;
+
+  /** True while the frame's contents are being loaded. */
+  protected volatile boolean loading;
+
+  /** Second-chance bit for the clock replacer. */
+  protected volatile boolean referenced;
+
+  /** Approximate number of recent pins; halved by each pass of the clock. */
+  protected volatile int heat;
+
+  /** Page role the frame was loaded for. */
+  protected volatile int role;
+
+  /** File the frame was loaded for, to which its I/O is charged. */
+  protected volatile String file;
+
+  /** Latch held while the frame is loaded, written, or reassigned. */
+  protected final ReentrantLock latch;
+
+  /** Ranges of the page changed since it was last logged (or loaded). */
+  protected final ChangedRanges changes;
+
+  /**
+   * True if the page has been logged (or loaded) whole, so that only its
+   * changed ranges need logging; locked by the descriptor's monitor.
+   */
+  protected boolean logged;
+
+  /** LSN just past the page's last log record; flushed before writing it. */
+  protected volatile long lsn;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Constructs a free frame description for the given frame memory.
+   */
+  public FrameDesc(BufMgr bufmgr, BufPool pool, ByteBuffer chunk, Page page) {
+    this.pool = pool;
+    this.page = page;
+    this.chunk = chunk;
+    handle = new PageHandle(bufmgr, this);
+    pid = INVALID_PAGEID;
+    pincnt = new AtomicInteger(0);
+    dirty = false;
+    loading = false;
+    referenced = false;
+    heat = 0;
+    role = ROLE_DATA;
+    file = IOStats.NO_FILE;
+    latch = new ReentrantLock();
+    changes = new ChangedRanges();
+    page.setChanges(changes);
+    logged = false;
+    lsn = 0;
+  }
+
+  /**
+   * Marks the frame modified, counting it among its pool's dirty frames if
+   * it was clean.
+   */
+  protected void markDirty() {
+    if (!dirty) {
+      synchronized (this) {
+        if (!dirty) {
+          dirty = true;
+          pool.numdirty.incrementAndGet();
+        }
+      }
+    }
+  }
+
+  /**
+   * Marks the frame unmodified, taking it off its pool's dirty frames if it
+   * was dirty.
+   */
+  protected void markClean() {
+    if (dirty) {
+      synchronized (this) {
+        if (dirty) {
+          dirty = false;
+          pool.numdirty.decrementAndGet();
+        }
+      }
+    }
+  }
+
+  /**
+   * Releases one pin on the frame.
+   *
+   * @return the remaining pin count
+   * @throws IllegalArgumentException if the frame is not pinned
+   */
+  public int unpin() {
+    while (true) {
+      int cnt = pincnt.get();
+      if (cnt == 0) {
+        throw new IllegalArgumentException("Page not pinned");
+      }
+      if (pincnt.compareAndSet(cnt, cnt - 1)) {
+        return cnt - 1;
+      }
+    }
+  } // public int unpin()
+
+} // class FrameDesc implements GlobalConst
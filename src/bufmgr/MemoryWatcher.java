@@ -0,0 +1,98 @@
+package bufmgr;
+
+/**
+ * Background thread that keeps the buffer pools' frame memory within a budget
+ * (see BufMgr.watchMemory). Only the memory of the pools' own chunks is
+ * counted, not other direct buffers in the JVM. Once over budget, the pools
+ * give back just enough to fall to the low-water mark, so that the next
+ * small growth does not trigger another shrink; if they cannot get under
+ * budget (e.g. every frame is pinned), the watcher backs off before trying
+ * again.
+ */
+class MemoryWatcher extends Thread {
+
+  /** How long the watcher sleeps between checks, in milliseconds. */
+  protected static final long INTERVAL_MILLIS = 100;
+
+  /** How long the watcher waits after a shrink that fell short. */
+  protected static final long BACKOFF_MILLIS = 1000;
+
+  /** Share of the budget the pools are shrunk back to once over it. */
+  protected static final double LOW_WATER = 0.9;
+
+  // --------------------------------------------------------------------------
+
+  /** The buffer manager being served. */
+  protected final BufMgr bufmgr;
+
+  /** Bytes of frame memory the pools may hold. */
+  protected final long budget;
+
+  /** False once the watcher has been asked to stop. */
+  protected volatile boolean running;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Constructs a (not yet started) watcher for the given buffer manager.
+   *
+   * @param budget bytes of frame memory allowed
+   */
+  public MemoryWatcher(BufMgr bufmgr, long budget) {
+    super("bufmgr-memory-watcher");
+    setDaemon(true);
+    this.bufmgr = bufmgr;
+    this.budget = budget;
+    running = true;
+  }
+
+  /**
+   * Stops the watcher and waits for it to finish.
+   */
+  public void shutdown() {
+    synchronized (this) {
+      running = false;
+      notify();
+    }
+    try {
+      join();
+    } catch (InterruptedException exc) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Main loop: sleep, then shrink the pools back to the low-water mark if
+   * they are over budget.
+   */
+  public void run() {
+    long pause = INTERVAL_MILLIS;
+    while (running) {
+
+      // wait for the next check
+      synchronized (this) {
+        try {
+          wait(pause);
+        } catch (InterruptedException exc) {
+          return;
+        }
+      }
+      if (!running) {
+        return;
+      }
+
+      // shrink by the excess over the low-water mark, backing off if the
+      // pools cannot get under budget
+      pause = INTERVAL_MILLIS;
+      long used = bufmgr.getMemoryUsed();
+      if (used > budget) {
+        bufmgr.shrinkMemory(used - (long) (budget * LOW_WATER));
+        if (bufmgr.getMemoryUsed() > budget) {
+          pause = BACKOFF_MILLIS;
+        }
+      }
+
+    } // while
+  } // public void run()
+
+} // class MemoryWatcher extends Thread
@@ -0,0 +1,54 @@
+package bufmgr;
+
+import global.Page;
+import global.PageId;
+
+/**
+ * Handle on a pinned buffer pool frame. Each frame owns exactly one handle,
+ * which is reused for every page the frame holds, so pinning through handles
+ * allocates no page memory; typed pages (e.g. HFPage) are built as views over
+ * the frame's page. A handle is only valid between a pin and its release.
+ */
+public class PageHandle {
+
+  /** The buffer manager owning the frame. */
+  protected final BufMgr bufmgr;
+
+  /** Descriptor of the frame. */
+  protected final FrameDesc fdesc;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Constructs the handle for the given frame.
+   */
+  PageHandle(BufMgr bufmgr, FrameDesc fdesc) {
+    this.bufmgr = bufmgr;
+    this.fdesc = fdesc;
+  }
+
+  /**
+   * Gets the frame's page; its contents may be read and changed in place.
+   */
+  public Page getPage() {
+    return fdesc.page;
+  }
+
+  /**
+   * Gets the id of the page held by the frame.
+   */
+  public PageId getPageId() {
+    return new PageId(fdesc.pid);
+  }
+
+  /**
+   * Releases one pin on the frame; the handle must not be used afterwards.
+   *
+   * @param dirty UNPIN_DIRTY if the page was modified, UNPIN_CLEAN otherrwise
+   * @throws IllegalArgumentException if the frame is not pinned
+   */
+  public void release(boolean dirty) {
+    bufmgr.unpinFrame(fdesc, dirty);
+  }
+
+} // public class PageHandle
@@ -0,0 +1,182 @@
+package bufmgr;
+
+import global.GlobalConst;
+import global.Minibase;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Background thread that warms up the buffer pool after a restart. It reads
+ * a hot-page list saved by BufMgr.saveHotPages, keeps the hottest pages that
+ * fit in each pool, and loads them in page id order, coalescing adjacent
+ * pages into single reads that are kept in flight together on the disk
+ * manager's I/O threads. Warming up is only a hint: pages pinned meanwhile
+ * are left alone, and a missing or damaged list simply loads nothing.
+ */
+class PageLoader extends Thread implements GlobalConst {
+
+  /** The buffer manager being served. */
+  protected final BufMgr bufmgr;
+
+  /** The saved hot-page list. */
+  protected final File file;
+
+  /** False once the loader has been asked to stop. */
+  protected volatile boolean running;
+
+  /** Number of pages loaded so far. */
+  protected volatile int loaded;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Constructs a (not yet started) loader for the given list.
+   */
+  public PageLoader(BufMgr bufmgr, File file) {
+    super("bufmgr-loader");
+    setDaemon(true);
+    this.bufmgr = bufmgr;
+    this.file = file;
+    running = true;
+    loaded = 0;
+  }
+
+  /**
+   * Stops the loader and waits for it to finish its current read.
+   */
+  public void shutdown() {
+    running = false;
+    try {
+      join();
+    } catch (InterruptedException exc) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Main loop: choose the pages to load, then load them in runs.
+   */
+  public void run() {
+
+    // read the list, keeping the hottest pages that fit in each pool
+    long[] keys;
+    try {
+      keys = readList();
+    } catch (IOException exc) {
+      return;
+    }
+
+    // start loading runs of adjacent pages with the same role, each no
+    // longer than its pool's read-ahead limit
+    ArrayDeque<CompletableFuture<Integer>> pending =
+        new ArrayDeque<CompletableFuture<Integer>>();
+    Arrays.sort(keys);
+    int i = 0;
+    while (running && (i < keys.length)) {
+      int firstpid = (int) (keys[i] >>> 32);
+      int role = (int) keys[i];
+      int maxrun = Math.min(BufMgr.MAX_READ_RUN,
+          bufmgr.routes[role].getReadAheadLimit());
+      int runlen = 1;
+      while ((i + runlen < keys.length) && (runlen < maxrun)
+          && ((int) (keys[i + runlen] >>> 32) == firstpid + runlen)
+          && ((int) keys[i + runlen] == role)) {
+        runlen++;
+      }
+      try {
+
+        // once the pool's reads in flight are at the limit, wait for the
+        // oldest run; with none of ours in flight, read this one directly
+        CompletableFuture<Integer> run =
+            bufmgr.prefetchAsync(firstpid, runlen, role);
+        if (run == null) {
+          if (!pending.isEmpty()) {
+            awaitRun(pending.poll());
+            continue;
+          }
+          run = CompletableFuture.completedFuture(
+              bufmgr.prefetch(firstpid, runlen, role));
+        }
+        pending.add(run);
+
+      } catch (RuntimeException exc) {
+        break;
+      }
+      i += runlen;
+    } // while
+
+    // wait for the runs still in flight
+    while (!pending.isEmpty()) {
+      awaitRun(pending.poll());
+    }
+
+  } // public void run()
+
+  /**
+   * Waits for a run to be loaded and counts its pages.
+   */
+  protected void awaitRun(CompletableFuture<Integer> run) {
+    try {
+      loaded += run.join();
+    } catch (CompletionException exc) {
+      // a failed run simply loads nothing
+    }
+  }
+
+  /**
+   * Reads the hot-page list, hottest first, and keeps the pages that fit.
+   *
+   * @return (page id, role) keys of the pages to load
+   */
+  protected long[] readList() throws IOException {
+
+    DataInputStream in = new DataInputStream(new BufferedInputStream(
+        new FileInputStream(file)));
+    try {
+
+      // each pool can take as many pages as it has frames
+      BufPool[] pools = bufmgr.pools;
+      BufPool[] routes = bufmgr.routes;
+      int[] room = new int[pools.length];
+      for (int i = 0; i < pools.length; i++) {
+        room[i] = pools[i].frametab.length;
+      }
+      int[] poolOf = new int[routes.length];
+      for (int role = 0; role < routes.length; role++) {
+        poolOf[role] = Arrays.asList(pools).indexOf(routes[role]);
+      }
+
+      // keep the hottest valid pages that fit
+      int count = in.readInt();
+      int numpages = Minibase.DiskManager.getNumDBPages();
+      if ((count < 0) || (count > numpages)) {
+        throw new IOException("Invalid hot-page list");
+      }
+      long[] keys = new long[count];
+      int numkeys = 0;
+      for (int i = 0; i < count; i++) {
+        int pid = in.readInt();
+        int role = in.readByte();
+        if ((pid > FIRST_PAGEID) && (pid < numpages) && (role >= 0)
+            && (role < routes.length) && (room[poolOf[role]] > 0)) {
+          room[poolOf[role]]--;
+          keys[numkeys++] = ((long) pid << 32) | role;
+        }
+      }
+      return Arrays.copyOf(keys, numkeys);
+
+    } finally {
+      in.close();
+    }
+
+  } // protected long[] readList()
+
+} // class PageLoader extends Thread implements GlobalConst
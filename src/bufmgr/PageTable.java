@@ -0,0 +1,54 @@
+package bufmgr;
+
+import java.util.HashMap;
+
+/**
+ * Maps page ids to the frames that hold them. The table is split into
+ * independently locked stripes, so threads working on different pages do not
+ * contend on a single lock.
+ */
+class PageTable {
+
+  /** Hash maps for each stripe; each stripe is also its own lock. */
+  protected final HashMap<Integer, FrameDesc>[] stripes;
+
+  /** Mask used to select a stripe (the stripe count is a power of two). */
+  protected final int mask;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Constructs an empty page table sized for the given number of frames.
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  public PageTable(int numbufs) {
+
+    // roughly four stripes per core, but no more than one per frame
+    int want = Math.min(4 * Runtime.getRuntime().availableProcessors(),
+        Math.max(numbufs, 1));
+    int nstripes = 1;
+    while (nstripes < want) {
+      nstripes <<= 1;
+    }
+
+    // create the stripes
+    mask = nstripes - 1;
+    stripes = new HashMap[nstripes];
+    int perstripe = numbufs / nstripes + 1;
+    for (int i = 0; i < nstripes; i++) {
+      stripes[i] = new HashMap<Integer, FrameDesc>(perstripe);
+    }
+
+  } // public PageTable(int numbufs)
+
+  /**
+   * Gets the stripe responsible for the given page id; callers must hold the
+   * stripe's lock while using it.
+   */
+  public HashMap<Integer, FrameDesc> stripe(int pid) {
+    // spread consecutive page ids across stripes
+    int h = pid * 0x9E3779B9;
+    return stripes[(h ^ (h >>> 16)) & mask];
+  }
+
+} // class PageTable
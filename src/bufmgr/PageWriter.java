@@ -0,0 +1,144 @@
+package bufmgr;
+
+/**
+ * Background thread that writes dirty frames ahead of eviction. Whenever the
+ * share of a pool's frames that are dirty rises above the dirty ratio, the
+ * writer flushes that pool's unpinned dirty frames in page id order,
+ * coalescing adjacent pages into single writes; foreground pins then find
+ * clean victims and rarely wait on the disk themselves. Each pool keeps a
+ * running count of its dirty frames, so checking them costs nothing per
+ * frame.
+ */
+class PageWriter extends Thread {
+
+  /** Default share of the pool allowed to be dirty before writing starts. */
+  protected static final double DEFAULT_DIRTY_RATIO = 0.10;
+
+  /** How long the writer sleeps between checks, in milliseconds. */
+  protected static final long INTERVAL_MILLIS = 50;
+
+  // --------------------------------------------------------------------------
+
+  /** The buffer manager being served. */
+  protected final BufMgr bufmgr;
+
+  /** Share of the pool allowed to be dirty before writing starts. */
+  protected volatile double dirtyRatio;
+
+  /** True if a foreground thread asked for clean frames (or a shutdown). */
+  protected boolean signalled;
+
+  /** Number of write passes finished; pins out of victims wait on it. */
+  protected long batches;
+
+  /** False once the writer has been asked to stop. */
+  protected volatile boolean running;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Constructs a (not yet started) writer for the given buffer manager.
+   */
+  public PageWriter(BufMgr bufmgr) {
+    super("bufmgr-writer");
+    setDaemon(true);
+    this.bufmgr = bufmgr;
+    dirtyRatio = DEFAULT_DIRTY_RATIO;
+    signalled = false;
+    batches = 0;
+    running = true;
+  }
+
+  /**
+   * Wakes the writer up, e.g. to notice that it is stopping.
+   */
+  public synchronized void wakeup() {
+    signalled = true;
+    notifyAll();
+  }
+
+  /**
+   * Asks the writer to produce clean frames in the given pool as soon as
+   * possible.
+   */
+  public void wakeup(BufPool pool) {
+    pool.wanted = true;
+    wakeup();
+  }
+
+  /**
+   * Waits until the writer finishes its next write pass, or the given time
+   * passes, whichever comes first.
+   */
+  public synchronized void awaitBatch(long millis) {
+    long batch = batches;
+    long deadline = System.currentTimeMillis() + millis;
+    try {
+      while ((batches == batch) && running) {
+        long left = deadline - System.currentTimeMillis();
+        if (left <= 0) {
+          return;
+        }
+        wait(left);
+      }
+    } catch (InterruptedException exc) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Stops the writer and waits for it to finish its current pass.
+   */
+  public void shutdown() {
+    running = false;
+    wakeup();
+    try {
+      join();
+    } catch (InterruptedException exc) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Main loop: sleep until signalled or the interval passes, then write each
+   * pool that asked for clean frames or has too many dirty ones.
+   */
+  public void run() {
+    while (running) {
+
+      // wait for a signal or the next interval
+      synchronized (this) {
+        if (!signalled) {
+          try {
+            wait(INTERVAL_MILLIS);
+          } catch (InterruptedException exc) {
+            return;
+          }
+        }
+        signalled = false;
+      }
+      if (!running) {
+        return;
+      }
+
+      // write the pools asked to, or whose dirty share is too high
+      boolean wrote = false;
+      for (BufPool pool : bufmgr.pools) {
+        if (pool.wanted
+            || (pool.numdirty.get() > dirtyRatio * pool.frametab.length)) {
+          pool.wanted = false;
+          bufmgr.writeDirty(pool, false);
+          wrote = true;
+        }
+      }
+      if (wrote) {
+        synchronized (this) {
+          batches++;
+          notifyAll();
+        }
+      }
+
+    } // while
+  } // public void run()
+
+} // class PageWriter extends Thread
@@ -2,6 +2,8 @@ package diskmgr;
 
 import global.Page;
 
+import java.nio.ByteBuffer;
+
 /**
  * First page and starting point of the database file.
  */
@@ -10,6 +12,36 @@ class DBFirstPage extends DBHeaderPage {
   /** Offest for the total number of pages. */
   protected static final int NUM_DB_PAGE = PAGE_SIZE - 4;
 
+  /**
+   * Offset for the number of space-map pages made when the database was
+   * created (0 in databases from before it could grow).
+   */
+  protected static final int NUM_BASE_MAP_PAGES = PAGE_SIZE - 8;
+
+  /** Offset for the page size (0 in databases from before it was stored). */
+  protected static final int DB_PAGE_SIZE = PAGE_SIZE - 12;
+
+  /**
+   * Offset for the number of data files the pages are striped across (0 in
+   * databases from before striping, which have one).
+   */
+  protected static final int NUM_DATA_FILES = PAGE_SIZE - 16;
+
+  /**
+   * Offset for the number of allocated pages (0 in databases from before it
+   * was stored, as at least the first page is always allocated).
+   */
+  protected static final int NUM_ALLOC_PAGES = PAGE_SIZE - 20;
+
+  /**
+   * Offset for the LSN from which the write-ahead log is replayed, as of the
+   * last checkpoint (0 before any).
+   */
+  protected static final int CHECKPOINT_LSN = PAGE_SIZE - 28;
+
+  /** Offset for the time the last checkpoint completed (0 before any). */
+  protected static final int CHECKPOINT_TIME = PAGE_SIZE - 36;
+
   // --------------------------------------------------------------------------
 
   /**
@@ -40,4 +72,94 @@ class DBFirstPage extends DBHeaderPage {
     return getIntValue(NUM_DB_PAGE);
   }
 
+  /**
+   * Sets the page size of the DB.
+   */
+  public void setPageSize(int size) {
+    setIntValue(size, DB_PAGE_SIZE);
+  }
+
+  /**
+   * Gets the page size of the DB.
+   */
+  public int getPageSize() {
+    int size = getIntValue(DB_PAGE_SIZE);
+    return (size == 0) ? PAGE_SIZE : size;
+  }
+
+  /**
+   * Gets the page size from the first PAGE_SIZE bytes of a DB file.
+   */
+  public static int readPageSize(byte[] data) {
+    int size = ByteBuffer.wrap(data).getInt(DB_PAGE_SIZE);
+    return (size == 0) ? PAGE_SIZE : size;
+  }
+
+  /**
+   * Sets the number of data files of the DB.
+   */
+  public void setNumDataFiles(int num) {
+    setIntValue(num, NUM_DATA_FILES);
+  }
+
+  /**
+   * Gets the number of data files from the first PAGE_SIZE bytes of a DB
+   * file.
+   */
+  public static int readNumDataFiles(byte[] data) {
+    int num = ByteBuffer.wrap(data).getInt(NUM_DATA_FILES);
+    return (num == 0) ? 1 : num;
+  }
+
+  /**
+   * Sets the number of allocated pages in the DB.
+   */
+  public void setNumAllocPages(int num) {
+    setIntValue(num, NUM_ALLOC_PAGES);
+  }
+
+  /**
+   * Gets the number of allocated pages in the DB, or 0 if it is not known.
+   */
+  public int getNumAllocPages() {
+    return getIntValue(NUM_ALLOC_PAGES);
+  }
+
+  /**
+   * Records a checkpoint: the LSN replay starts from, and when it completed.
+   */
+  public void setCheckpoint(long lsn, long millis) {
+    setLongValue(lsn, CHECKPOINT_LSN);
+    setLongValue(millis, CHECKPOINT_TIME);
+  }
+
+  /**
+   * Gets the time the last checkpoint completed, or 0 if there was none.
+   */
+  public long getCheckpointTime() {
+    return getLongValue(CHECKPOINT_TIME);
+  }
+
+  /**
+   * Gets the LSN of the last checkpoint from the first PAGE_SIZE bytes of a
+   * DB file.
+   */
+  public static long readCheckpointLSN(byte[] data) {
+    return ByteBuffer.wrap(data).getLong(CHECKPOINT_LSN);
+  }
+
+  /**
+   * Sets the number of space-map pages made when the DB was created.
+   */
+  public void setNumBaseMapPages(int num) {
+    setIntValue(num, NUM_BASE_MAP_PAGES);
+  }
+
+  /**
+   * Gets the number of space-map pages made when the DB was created.
+   */
+  public int getNumBaseMapPages() {
+    return getIntValue(NUM_BASE_MAP_PAGES);
+  }
+
 } // class DBFirstPage extends DBHeaderPage
@@ -1,5 +1,6 @@
 package diskmgr;
 
+import global.Minibase;
 import global.Page;
 import global.PageId;
 
@@ -43,7 +44,7 @@ class DBHeaderPage extends Page {
    * Constructor that wraps an existing header page.
    */
   public DBHeaderPage(Page page) {
-    super(page.getData());
+    super(page);
   }
 
   /**
@@ -55,12 +56,15 @@ class DBHeaderPage extends Page {
     PageId pageno = new PageId();
     setNextPage(pageno);
 
-    // set the num entries
+    // set the num entries; the first page's own fields stay within its first
+    // PAGE_SIZE bytes, whatever the page size
     int pageusedbytes = DIR_PAGE_USED_BYTES;
+    int pagesize = Minibase.PageSize;
     if (this instanceof DBFirstPage) {
       pageusedbytes = FIRST_PAGE_USED_BYTES;
+      pagesize = PAGE_SIZE;
     }
-    int num_entries = (PAGE_SIZE - pageusedbytes) / SIZE_OF_FILE_ENTRY;
+    int num_entries = (pagesize - pageusedbytes) / SIZE_OF_FILE_ENTRY;
     setNumOfEntries(num_entries);
 
     // initialize the page entries
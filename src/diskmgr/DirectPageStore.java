@@ -0,0 +1,185 @@
+package diskmgr;
+
+import global.Minibase;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Page store that transfers pages with direct I/O, bypassing the operating
+ * system's page cache, so pages are cached only once (in the buffer pool).
+ * Direct transfers must start at an offset, and move a length, that are
+ * multiples of the device's block size, from memory aligned the same way; so
+ * the page size must be a multiple of the block size, and pages are moved
+ * through a per-thread aligned buffer.
+ * <p>
+ * Direct I/O needs the JDK's ExtendedOpenOption.DIRECT (Java 10 or later,
+ * found reflectively so the code still builds for Java 8) and a file system
+ * that supports it.
+ */
+class DirectPageStore implements PageStore {
+
+  /** Block size assumed when the file system does not report one. */
+  protected static final int DEFAULT_BLOCK_SIZE = 4096;
+
+  // --------------------------------------------------------------------------
+
+  /** Reference to the OS file, used only for its length. */
+  protected final RandomAccessFile fp;
+
+  /** Channel of the OS file opened for direct I/O. */
+  protected final FileChannel channel;
+
+  /** The device's block size, to which transfers are aligned. */
+  protected final int block_size;
+
+  /** ByteBuffer.alignedSlice, for carving aligned buffers. */
+  protected final Method aligned_slice;
+
+  /** Per-thread aligned buffer through which pages are moved. */
+  protected final ThreadLocal<ByteBuffer> stage_buf =
+      new ThreadLocal<ByteBuffer>();
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Opens (or creates) the given file for direct I/O.
+   *
+   * @throws IOException if direct I/O is not supported
+   * @throws IllegalArgumentException if the page size is not a multiple of
+   * the device's block size
+   */
+  public DirectPageStore(String fname) throws IOException {
+
+    // find the JDK's direct option and the aligned slice method
+    OpenOption direct;
+    try {
+      Class<?> options = Class.forName("com.sun.nio.file.ExtendedOpenOption");
+      direct = (OpenOption) options.getField("DIRECT").get(null);
+      aligned_slice = ByteBuffer.class.getMethod("alignedSlice", int.class);
+    } catch (ReflectiveOperationException exc) {
+      throw new IOException("Direct I/O is not supported", exc);
+    }
+
+    // transfers must be whole blocks
+    fp = new RandomAccessFile(fname, "rw");
+    Path path = Paths.get(fname);
+    block_size = getBlockSize(Files.getFileStore(path));
+    if (Minibase.PageSize % block_size != 0) {
+      fp.close();
+      throw new IllegalArgumentException("Page size is not a multiple of the "
+          + block_size + "-byte block size needed for direct I/O");
+    }
+    channel = FileChannel.open(path, StandardOpenOption.READ,
+        StandardOpenOption.WRITE, direct);
+
+  } // public DirectPageStore(String fname)
+
+  public long length() throws IOException {
+    return channel.size();
+  }
+
+  public void setLength(long length) throws IOException {
+    fp.setLength(length);
+  }
+
+  public void read(long offset, ByteBuffer... bufs) throws IOException {
+
+    // read the whole run into the aligned buffer, then scatter it
+    ByteBuffer stage = staging(bufs);
+    while (stage.hasRemaining()) {
+      int n = channel.read(stage, offset);
+      if (n <= 0) {
+        break;
+      }
+      offset += n;
+    }
+    stage.flip();
+    for (ByteBuffer buf : bufs) {
+      if (!stage.hasRemaining()) {
+        break;
+      }
+      ByteBuffer src = stage.duplicate();
+      src.limit(Math.min(stage.limit(), stage.position() + buf.remaining()));
+      buf.put(src);
+      stage.position(src.position());
+    }
+
+  } // public void read(long offset, ByteBuffer... bufs)
+
+  public void write(long offset, ByteBuffer... bufs) throws IOException {
+
+    // gather the run into the aligned buffer, so it takes a single write
+    ByteBuffer stage = staging(bufs);
+    for (ByteBuffer buf : bufs) {
+      stage.put(buf);
+    }
+    stage.flip();
+    while (stage.hasRemaining()) {
+      offset += channel.write(stage, offset);
+    }
+
+  } // public void write(long offset, ByteBuffer... bufs)
+
+  /**
+   * Gets this thread's aligned buffer, cleared and limited to the total size
+   * of the given buffers.
+   */
+  protected ByteBuffer staging(ByteBuffer[] bufs) throws IOException {
+    int total = 0;
+    for (ByteBuffer buf : bufs) {
+      total += buf.remaining();
+    }
+    ByteBuffer stage = stage_buf.get();
+    if ((stage == null) || (stage.capacity() < total)) {
+      try {
+        stage = (ByteBuffer) aligned_slice.invoke(
+            ByteBuffer.allocateDirect(total + block_size), block_size);
+      } catch (ReflectiveOperationException exc) {
+        throw new IOException("Cannot allocate an aligned buffer", exc);
+      }
+      stage_buf.set(stage);
+    }
+    stage.clear();
+    stage.limit(total);
+    return stage;
+  }
+
+  public void force() throws IOException {
+    channel.force(false);
+  }
+
+  public void close() throws IOException {
+    channel.close();
+    fp.close();
+  }
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Gets the block size of the given file system, through FileStore's
+   * getBlockSize where the JDK has it (Java 10 or later).
+   */
+  protected static int getBlockSize(FileStore fs) {
+    try {
+      Method method = FileStore.class.getMethod("getBlockSize");
+      long size = (Long) method.invoke(fs);
+      if ((size > 0) && (size <= Integer.MAX_VALUE)) {
+        return (int) size;
+      }
+    } catch (ReflectiveOperationException exc) {
+      // fall back to the usual size
+    }
+    return DEFAULT_BLOCK_SIZE;
+  }
+
+} // class DirectPageStore implements PageStore
@@ -1,5 +1,6 @@
 package diskmgr;
 
+import bufmgr.PageHandle;
 import global.GlobalConst;
 import global.Minibase;
 import global.Page;
@@ -8,6 +9,16 @@ import global.PageId;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import wal.LogMgr;
 
 /**
  * <h3>Minibase Disk Manager</h3>
@@ -22,11 +33,57 @@ import java.io.RandomAccessFile;
  * </ol>
  * The disk manager manages a library of entries consisting of the name of
  * a file and the page number of the first page in the file.
+ * <p>
+ * The bytes of the database file are kept by a storage backend, chosen when
+ * the disk manager is constructed: STORE_FILE reads and writes through a
+ * RandomAccessFile, STORE_MAPPED copies pages to and from a memory mapping
+ * of the file, and STORE_DIRECT uses direct I/O, bypassing the OS page cache
+ * so pages are cached only in the buffer pool. The pages may be striped
+ * across several data files (see Minibase.DataFiles), each with its own I/O
+ * threads, so runs of pages move to and from all of them at once.
+ * <p>
+ * The database grows on demand: when allocate_page finds no room, the file is
+ * extended by a configurable number of pages (see setGrowPages). The space
+ * map made at creation sits right after the first page; each map page added
+ * by growth sits at the first page it covers.
+ * <p>
+ * Pages may also be read and written asynchronously: the *Async methods queue
+ * the transfer on a small pool of I/O threads and return a future completed
+ * when it is done, so one caller can keep many requests outstanding.
+ * <p>
+ * With Minibase.WriteAheadLog set, every page change is also logged (see
+ * LogMgr), and commit makes the changes so far durable by forcing only the
+ * log. Opening a database replays any log left by a crash into the data
+ * files before anything else is read.
   */
 public class DiskMgr implements GlobalConst {
 
-  /** Number of actual bits per page. */
-  protected static final int BITS_PER_PAGE = PAGE_SIZE * 8;
+  /** Storage backend reading and writing through a RandomAccessFile. */
+  public static final int STORE_FILE = 0;
+
+  /** Storage backend copying pages to and from a mapping of the file. */
+  public static final int STORE_MAPPED = 1;
+
+  /**
+   * Storage backend using direct I/O, bypassing the OS page cache; needs a
+   * page size that is a multiple of the device's block size.
+   */
+  public static final int STORE_DIRECT = 2;
+
+  /** Allocation policy taking the lowest free pages, so the file can shrink. */
+  public static final int ALLOC_FIRST_FIT = 0;
+
+  /** Allocation policy resuming each search where the last one ended. */
+  public static final int ALLOC_NEXT_FIT = 1;
+
+  /** Number of threads running asynchronous I/O. */
+  protected static final int IO_THREADS = 8;
+
+  /** Maximum number of asynchronous requests waiting for an I/O thread. */
+  protected static final int IO_QUEUE_DEPTH = 64;
+
+  /** Suffix of the file holding the hot-page list (see Minibase.WarmRestart). */
+  protected static final String HOT_SUFFIX = ".hot";
 
   // --------------------------------------------------------------------------
 
@@ -34,17 +91,84 @@ public class DiskMgr implements GlobalConst {
    * This is the name of that file. */
   protected String name;
 
-  /** Reference to the OS file. */
-  protected RandomAccessFile fp;
+  /** Which storage backend to use (STORE_FILE, STORE_MAPPED, STORE_DIRECT). */
+  protected final int storage;
+
+  /** Reference to the OS file, through its storage backend. */
+  protected PageStore store;
   
   /** Database size, in pages. */
   protected int num_db_pages;
 
+  /** Number of data files the pages are striped across. */
+  protected int num_files = 1;
+
+  /** In-memory mirror of the space map, written through on every change. */
+  protected SpaceMap space_map;
+
+  /** In-memory mirror of the file library, written through on every change. */
+  protected FileLibrary library;
+
+  /** Number of space-map pages made at creation, i.e. pages 1 to n. */
+  protected int base_map_pages;
+
+  /**
+   * Number of pages added each time the database grows; 0 for as many as
+   * one space-map page covers.
+   */
+  protected int grow_pages = 0;
+
+  /** Policy for choosing free pages: ALLOC_FIRST_FIT or ALLOC_NEXT_FIT. */
+  protected int alloc_policy = ALLOC_FIRST_FIT;
+
+  /**
+   * Number of allocated pages, kept on the first page so it is known before
+   * the space map is loaded; 0 if not known yet.
+   */
+  protected int alloc_count;
+
+  /** Background thread loading the space map and file library after open. */
+  protected Thread loader;
+
+  /** False once the background loader has been asked to stop. */
+  protected volatile boolean loading;
+
   /** Number of disk page reads since database construction. */
-  protected int read_cnt;
+  protected final LongAdder read_cnt = new LongAdder();
 
   /** Number of disk page writes since database construction. */
-  protected int write_cnt;
+  protected final LongAdder write_cnt = new LongAdder();
+
+  /** I/O statistics by file and page role since database construction. */
+  protected final IOStats io_stats = new IOStats();
+
+  /** Threads running asynchronous I/O; started on first use. */
+  protected IOPool io_pool;
+
+  /** The write-ahead log, or null if changes are not logged. */
+  protected volatile LogMgr log;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Constructs a disk manager using the RandomAccessFile backend.
+   */
+  public DiskMgr() {
+    this(STORE_FILE);
+  }
+
+  /**
+   * Constructs a disk manager using the given storage backend.
+   *
+   * @param storage STORE_FILE, STORE_MAPPED or STORE_DIRECT
+   * @throws IllegalArgumentException if the backend is unknown
+   */
+  public DiskMgr(int storage) {
+    if ((storage < STORE_FILE) || (storage > STORE_DIRECT)) {
+      throw new IllegalArgumentException("Invalid storage backend");
+    }
+    this.storage = storage;
+  }
 
   // ------Manage the DB--------------------
 
@@ -55,34 +179,55 @@ public class DiskMgr implements GlobalConst {
    */
   public void createDB(String fname, int num_db_pgs) {
 
+    // validate the page size
+    int size = Minibase.PageSize;
+    if ((size < PAGE_SIZE) || (size > MAX_PAGE_SIZE)
+        || (Integer.bitCount(size) != 1)) {
+      throw new IllegalArgumentException("Invalid page size");
+    }
+    if (Minibase.DataFiles < 1) {
+      throw new IllegalArgumentException("Invalid number of data files");
+    }
+
     // save the parameters locally
     name = fname;
     num_db_pages = (num_db_pgs > 2) ? num_db_pgs : 2;
+    num_files = Minibase.DataFiles;
 
-    // overwrite an existing file
-    File DBfile = new File(name);
-    DBfile.delete();
+    // overwrite an existing database, and forget its hot pages
+    deleteFiles();
 
     // create the database file, num_pages pages long
     try {
-      fp = new RandomAccessFile(fname, "rw");
-      fp.seek((long) (num_db_pages * PAGE_SIZE - 1));
-      fp.writeByte(0);
+      store = openStore(fname);
+      store.setLength((long) num_db_pages * Minibase.PageSize);
+      if (Minibase.WriteAheadLog) {
+        log = new LogMgr(name + LogMgr.LOG_SUFFIX);
+      }
     } catch (IOException exc) {
       Minibase.haltSystem(exc);
     }
 
+    // calculate how many pages are needed for the space map
+    space_map = new SpaceMap(num_db_pages, true);
+    space_map.first_fit = (alloc_policy == ALLOC_FIRST_FIT);
+    base_map_pages = space_map.getNumMapPages();
+
     // create and initialize the first DB page
     PageId pageId = new PageId(FIRST_PAGEID);
     DBFirstPage firstpg = new DBFirstPage();
-    Minibase.BufferManager.pinPage(pageId, firstpg, PIN_MEMCPY);
+    Minibase.BufferManager.pinPage(pageId, firstpg, PIN_MEMCPY, ROLE_HEADER);
     firstpg.setNumDBPages(num_db_pages);
+    firstpg.setNumBaseMapPages(base_map_pages);
+    firstpg.setPageSize(Minibase.PageSize);
+    firstpg.setNumDataFiles(num_files);
     Minibase.BufferManager.unpinPage(pageId, UNPIN_DIRTY);
 
-    // calculate how many pages are needed for the space map; reserve
-    // page 0 plus room for the space map
-    int num_map_pages = (num_db_pages + BITS_PER_PAGE - 1) / BITS_PER_PAGE;
-    set_bits(pageId, 1 + num_map_pages, 1);
+    // reserve page 0 plus room for the space map
+    alloc_count = 0;
+    set_bits(pageId, 1 + base_map_pages, 1);
+    library = new FileLibrary();
+    load_library();
 
   } // public void createDB(String fname, int num_pgs)
 
@@ -96,44 +241,336 @@ public class DiskMgr implements GlobalConst {
     File DBfile = new File(name);
     if (!DBfile.exists())
     	throw new IllegalStateException("File "+name+" does not exist\n");
+    byte[] first = readFirstBytes(name);
+    num_files = DBFirstPage.readNumDataFiles(first);
     try {
-      fp = new RandomAccessFile(fname, "rw");
+      store = openStore(fname);
+      recover(DBFirstPage.readCheckpointLSN(first));
     } catch (IOException exc) {
       Minibase.haltSystem(exc);
     }
 
-    // read the first page
+    // read the first page (the only one known to exist so far)
+    num_db_pages = FIRST_PAGEID + 1;
     PageId pageId = new PageId(FIRST_PAGEID);
-    Page apage = new Page();
-    Minibase.BufferManager.pinPage(pageId, apage, PIN_DISKIO);
-
-    // get the total number of pages
-    DBFirstPage firstpg = new DBFirstPage(apage);
+    PageHandle handle = Minibase.BufferManager.pin(pageId, ROLE_HEADER);
+
+    // get the total number of pages, and where the space map is; databases
+    // from before growth have all their map pages after the first page
+    DBFirstPage firstpg = new DBFirstPage(handle.getPage());
+    if (firstpg.getPageSize() != Minibase.PageSize) {
+      handle.release(UNPIN_CLEAN);
+      throw new IllegalStateException("Page size of " + name + " is "
+          + firstpg.getPageSize() + ", not " + Minibase.PageSize);
+    }
     num_db_pages = firstpg.getNumDBPages();
-    Minibase.BufferManager.unpinPage(pageId, UNPIN_CLEAN);
+    alloc_count = firstpg.getNumAllocPages();
+    space_map = new SpaceMap(num_db_pages, false);
+    space_map.first_fit = (alloc_policy == ALLOC_FIRST_FIT);
+    base_map_pages = firstpg.getNumBaseMapPages();
+    if (base_map_pages == 0) {
+      base_map_pages = space_map.getNumMapPages();
+      firstpg.setNumBaseMapPages(base_map_pages);
+      handle.release(UNPIN_DIRTY);
+    } else {
+      handle.release(UNPIN_CLEAN);
+    }
+
+    // the space map and file library are loaded as they are needed, and by
+    // a background thread meanwhile, so opening takes the same time whatever
+    // the size of the database
+    library = new FileLibrary();
+    start_loader();
+
+    // reload the pages that were hot when the database was closed
+    if (Minibase.WarmRestart) {
+      Minibase.BufferManager.warmUp(new File(name + HOT_SUFFIX));
+    }
 
   } // public void openDB(String fname)
 
+  /**
+   * Reads the page size stored in the given database file, without opening
+   * the database; the size is among the fields in the file's first PAGE_SIZE
+   * bytes, which can be read whatever the page size is.
+   *
+   * @throws IllegalStateException if the file does not exist
+   */
+  public static int readPageSize(String fname) {
+    int size = DBFirstPage.readPageSize(readFirstBytes(fname));
+    if ((size < PAGE_SIZE) || (size > MAX_PAGE_SIZE)
+        || (Integer.bitCount(size) != 1)) {
+      throw new IllegalStateException("Invalid page size in " + fname);
+    }
+    return size;
+  }
+
+  /**
+   * Reads the first PAGE_SIZE bytes of the given database file.
+   *
+   * @throws IllegalStateException if the file does not exist
+   */
+  protected static byte[] readFirstBytes(String fname) {
+    File DBfile = new File(fname);
+    if (!DBfile.exists()) {
+      throw new IllegalStateException("File " + fname + " does not exist\n");
+    }
+    byte[] data = new byte[PAGE_SIZE];
+    try {
+      RandomAccessFile fp = new RandomAccessFile(DBfile, "r");
+      try {
+        fp.readFully(data);
+      } finally {
+        fp.close();
+      }
+    } catch (IOException exc) {
+      Minibase.haltSystem(exc);
+    }
+    return data;
+  }
+
   /**
    * Close the database file.  Ensure that buffer contents have been
    * written to disk and close the OS file.
    */
   public void closeDB() {
     try {
-      Minibase.BufferManager.flushAllFrames();
-      fp.close();
+      stop_loader();
+      Minibase.BufferManager.shutdown();
+      if (Minibase.WarmRestart) {
+        Minibase.BufferManager.saveHotPages(new File(name + HOT_SUFFIX));
+      }
+      synchronized (this) {
+        if (io_pool != null) {
+          io_pool.shutdown();
+          while (!io_pool.awaitTermination(1, TimeUnit.SECONDS)) {
+            // let outstanding requests finish
+          }
+          io_pool = null;
+        }
+      }
+
+      // every logged change is in the data files once they are forced
+      if (log != null) {
+        store.force();
+        log.reset();
+        log.close();
+        log = null;
+      }
+      store.close();
+    } catch (IOException exc) {
+      Minibase.haltSystem(exc);
+    } catch (InterruptedException exc) {
+      Thread.currentThread().interrupt();
+      Minibase.haltSystem(exc);
+    }
+  }
+
+  /**
+   * Forces all pages written so far to the storage device.
+   */
+  public void sync() {
+    try {
+      store.force();
     } catch (IOException exc) {
       Minibase.haltSystem(exc);
     }
   }
 
   /**
-   * Destroy the database, removing the file that stores it.
+   * Makes every change to pages unpinned so far durable. With the write-ahead
+   * log only the log is forced, sharing the force with concurrent commits;
+   * otherwise every dirty page is written and the data files are forced.
+   */
+  public void commit() {
+    LogMgr log = this.log;
+    if (log != null) {
+      log.commit();
+    } else {
+      Minibase.BufferManager.flushAllFrames();
+      sync();
+    }
+  }
+
+  /**
+   * Records a checkpoint, once the buffer manager has written every page that
+   * was dirty when it began: forces the data files, stores the given LSN
+   * (from which replay must start) and the time on the first page and forces
+   * that too, then drops the log records before the LSN.
+   */
+  public void recordCheckpoint(long lsn) {
+    sync();
+    PageId pageId = new PageId(FIRST_PAGEID);
+    synchronized (this) {
+      PageHandle handle = Minibase.BufferManager.pin(pageId, ROLE_HEADER);
+      new DBFirstPage(handle.getPage()).setCheckpoint(lsn,
+          System.currentTimeMillis());
+      handle.release(UNPIN_DIRTY);
+    }
+    try {
+      Minibase.BufferManager.flushPage(pageId);
+    } catch (IllegalArgumentException exc) {
+      // evicted meanwhile, which wrote it
+    }
+    sync();
+    LogMgr log = this.log;
+    if (log != null) {
+      log.truncate(lsn);
+    }
+  } // public void recordCheckpoint(long lsn)
+
+  /**
+   * Gets the time the last checkpoint completed, in milliseconds since the
+   * epoch, or 0 if there was none.
+   */
+  public long getCheckpointTime() {
+    PageHandle handle = Minibase.BufferManager.pin(new PageId(FIRST_PAGEID),
+        ROLE_HEADER);
+    long millis = new DBFirstPage(handle.getPage()).getCheckpointTime();
+    handle.release(UNPIN_CLEAN);
+    return millis;
+  }
+
+  /**
+   * Gets the write-ahead log, or null if changes are not logged.
+   */
+  public LogMgr getLog() {
+    return log;
+  }
+
+  /**
+   * Replays the write-ahead log left by a crash, if any, straight into the
+   * data files: each page it covers is read once, brought up to date by its
+   * records in order from the last checkpoint's LSN and written back, and the
+   * log is emptied once the pages are forced. The log is kept open if
+   * Minibase.WriteAheadLog is set, and deleted otherwise.
+   */
+  protected void recover(long from) throws IOException {
+
+    // gather the latest image of each page the log covers
+    File logfile = new File(name + LogMgr.LOG_SUFFIX);
+    if (!logfile.exists() && !Minibase.WriteAheadLog) {
+      return;
+    }
+    log = new LogMgr(logfile.getPath());
+    final HashMap<Integer, byte[]> images = new HashMap<Integer, byte[]>();
+    final long length = store.length();
+    int count = log.replay(from, new LogMgr.Redo() {
+      public void apply(int pid, int offset, byte[] data) {
+        byte[] image = images.get(pid);
+        if (image == null) {
+          image = new byte[Minibase.PageSize];
+          if ((long) pid * Minibase.PageSize < length) {
+            try {
+              store.read((long) pid * Minibase.PageSize,
+                  ByteBuffer.wrap(image));
+            } catch (IOException exc) {
+              Minibase.haltSystem(exc);
+            }
+          }
+          images.put(pid, image);
+        }
+        System.arraycopy(data, 0, image, offset, data.length);
+      }
+    });
+
+    // write the pages back in order, sizing the files as the recovered
+    // first page says
+    if (count > 0) {
+      Integer[] pids = images.keySet().toArray(new Integer[0]);
+      Arrays.sort(pids);
+      long end = (long) (pids[pids.length - 1] + 1) * Minibase.PageSize;
+      if (store.length() < end) {
+        store.setLength(end);
+      }
+      for (Integer pid : pids) {
+        store.write((long) pid * Minibase.PageSize,
+            ByteBuffer.wrap(images.get(pid)));
+      }
+      byte[] first = new byte[Minibase.PageSize];
+      store.read(0, ByteBuffer.wrap(first));
+      long size = (long) new DBFirstPage(new Page(first)).getNumDBPages()
+          * Minibase.PageSize;
+      if (store.length() != size) {
+        store.setLength(size);
+      }
+      store.force();
+    }
+    log.reset();
+
+    // keep logging, or drop the log
+    if (!Minibase.WriteAheadLog) {
+      log.close();
+      log = null;
+      logfile.delete();
+    }
+
+  } // protected void recover()
+
+  /**
+   * Opens the database's data files with the chosen storage backend, striping
+   * the pages across them when there are several.
+   */
+  protected PageStore openStore(String fname) throws IOException {
+    if (num_files == 1) {
+      return openFile(fname);
+    }
+    PageStore[] files = new PageStore[num_files];
+    try {
+      for (int i = 0; i < num_files; i++) {
+        files[i] = openFile(dataFileName(fname, i));
+      }
+    } catch (IOException | RuntimeException exc) {
+      for (PageStore file : files) {
+        if (file != null) {
+          file.close();
+        }
+      }
+      throw exc;
+    }
+    return new StripedPageStore(files);
+  } // protected PageStore openStore(String fname)
+
+  /**
+   * Opens one OS file with the chosen storage backend.
+   */
+  protected PageStore openFile(String fname) throws IOException {
+    if (storage == STORE_MAPPED) {
+      return new MappedPageStore(fname);
+    }
+    if (storage == STORE_DIRECT) {
+      return new DirectPageStore(fname);
+    }
+    return new FilePageStore(fname);
+  }
+
+  /**
+   * Destroy the database, removing the files that store it.
    */
   public void destroyDB() {
     closeDB();
-    File DBfile = new File(name);
-    DBfile.delete();
+    deleteFiles();
+  }
+
+  /**
+   * Deletes the database's data files (including any striped ones left from
+   * an earlier database of the same name), its hot-page list and its log.
+   */
+  protected void deleteFiles() {
+    new File(name).delete();
+    for (int i = 1; new File(dataFileName(name, i)).delete(); i++) {
+      // keep going while there are more
+    }
+    new File(name + HOT_SUFFIX).delete();
+    new File(name + LogMgr.LOG_SUFFIX).delete();
+  }
+
+  /**
+   * Gets the OS file name of the given data file; the first is the database
+   * file itself.
+   */
+  protected static String dataFileName(String fname, int fileno) {
+    return (fileno == 0) ? fname : fname + "." + fileno;
   }
   
 //-----Manage Logical File Layer -------------------
@@ -152,17 +589,57 @@ public class DiskMgr implements GlobalConst {
       throw new IllegalArgumentException("Invalid page number; read aborted");
     }
 
-    // seek to the correct page on disk and read it
+    // read the page straight into the page's buffer
     try {
-      fp.seek((long) (pageno.pid * PAGE_SIZE));
-      fp.read(mempage.getData());
-      read_cnt++;
+      ByteBuffer buf = mempage.getBuffer().duplicate();
+      buf.clear();
+      long start = System.nanoTime();
+      store.read((long) pageno.pid * Minibase.PageSize, buf);
+      io_stats.record(false, 1, Minibase.PageSize, System.nanoTime() - start);
+      read_cnt.increment();
     } catch (IOException exc) {
       Minibase.haltSystem(exc);
     }
 
   } // public void read_page(PageId pageno, Page mempage)
 
+  /**
+   * Reads a run of adjacent pages from disk with a single scattering read.
+   * 
+   * @param firstid identifies the first page to read
+   * @param count number of pages to read
+   * @param mempages output parameter to hold the contents of the pages, in
+   * order
+   * @throws IllegalArgumentException if the run is invalid
+   */
+  public void read_pages(PageId firstid, int count, Page[] mempages) {
+
+    // validate the run
+    if ((firstid.pid < 0) || (count < 1) || (count > mempages.length)
+        || (count > num_db_pages - firstid.pid)) {
+      throw new IllegalArgumentException("Invalid page run; read aborted");
+    }
+
+    // gather the page buffers
+    ByteBuffer[] bufs = new ByteBuffer[count];
+    for (int i = 0; i < count; i++) {
+      bufs[i] = mempages[i].getBuffer().duplicate();
+      bufs[i].clear();
+    }
+
+    // read the whole run at once
+    try {
+      long start = System.nanoTime();
+      store.read((long) firstid.pid * Minibase.PageSize, bufs);
+      io_stats.record(false, count, (long) count * Minibase.PageSize,
+          System.nanoTime() - start);
+      read_cnt.add(count);
+    } catch (IOException exc) {
+      Minibase.haltSystem(exc);
+    }
+
+  } // public void read_pages(PageId firstid, int count, Page[] mempages)
+
   /**
    * Writes the contents of the given page to disk.
    * 
@@ -177,28 +654,190 @@ public class DiskMgr implements GlobalConst {
       throw new IllegalArgumentException("Invalid page number; write aborted");
     }
 
-    // seek to the correct page on disk and write it
+    // write the page straight from the page's buffer
     try {
-      fp.seek((long) (pageno.pid * PAGE_SIZE));
-      fp.write(mempage.getData());
-      write_cnt++;
+      ByteBuffer buf = mempage.getBuffer().duplicate();
+      buf.clear();
+      long start = System.nanoTime();
+      store.write((long) pageno.pid * Minibase.PageSize, buf);
+      io_stats.record(true, 1, Minibase.PageSize, System.nanoTime() - start);
+      write_cnt.increment();
     } catch (IOException exc) {
       Minibase.haltSystem(exc);
     }
 
   } // public void write_page(PageId pageno, Page mempage)
+
+  /**
+   * Writes a run of adjacent pages to disk with a single gathering write.
+   * 
+   * @param firstid identifies the first page to write
+   * @param count number of pages to write
+   * @param mempages holds the contents of the pages, in order
+   * @throws IllegalArgumentException if the run is invalid
+   */
+  public void write_pages(PageId firstid, int count, Page[] mempages) {
+
+    // validate the run
+    if ((firstid.pid < 0) || (count < 1) || (count > mempages.length)
+        || (count > num_db_pages - firstid.pid)) {
+      throw new IllegalArgumentException("Invalid page run; write aborted");
+    }
+
+    // gather the page buffers
+    ByteBuffer[] bufs = new ByteBuffer[count];
+    for (int i = 0; i < count; i++) {
+      bufs[i] = mempages[i].getBuffer().duplicate();
+      bufs[i].clear();
+    }
+
+    // write the whole run at once
+    try {
+      long start = System.nanoTime();
+      store.write((long) firstid.pid * Minibase.PageSize, bufs);
+      io_stats.record(true, count, (long) count * Minibase.PageSize,
+          System.nanoTime() - start);
+      write_cnt.add(count);
+    } catch (IOException exc) {
+      Minibase.haltSystem(exc);
+    }
+
+  } // public void write_pages(PageId firstid, int count, Page[] mempages)
   
+  /**
+   * Gets the total number of pages in the database.
+   */
+  public int getNumDBPages() {
+    return num_db_pages;
+  }
+
+  /**
+   * Reads the contents of the specified page asynchronously; the page must
+   * not be used until the returned future completes.
+   *
+   * @return a future completed when the page has been read, or completed
+   * exceptionally as read_page would have thrown
+   */
+  public CompletableFuture<Void> readPageAsync(final PageId pageno,
+      final Page mempage) {
+    return runAsync(new Runnable() {
+      public void run() {
+        read_page(pageno, mempage);
+      }
+    });
+  }
+
+  /**
+   * Writes the contents of the given page asynchronously; the page must not
+   * be changed until the returned future completes.
+   *
+   * @return a future completed when the page has been written, or completed
+   * exceptionally as write_page would have thrown
+   */
+  public CompletableFuture<Void> writePageAsync(final PageId pageno,
+      final Page mempage) {
+    return runAsync(new Runnable() {
+      public void run() {
+        write_page(pageno, mempage);
+      }
+    });
+  }
+
+  /**
+   * Reads a run of adjacent pages asynchronously, as read_pages does.
+   */
+  public CompletableFuture<Void> readPagesAsync(final PageId firstid,
+      final int count, final Page[] mempages) {
+    return runAsync(new Runnable() {
+      public void run() {
+        read_pages(firstid, count, mempages);
+      }
+    });
+  }
+
+  /**
+   * Writes a run of adjacent pages asynchronously, as write_pages does.
+   */
+  public CompletableFuture<Void> writePagesAsync(final PageId firstid,
+      final int count, final Page[] mempages) {
+    return runAsync(new Runnable() {
+      public void run() {
+        write_pages(firstid, count, mempages);
+      }
+    });
+  }
+
+  /**
+   * Runs a task doing disk I/O on the I/O threads, e.g. to load pages into
+   * the buffer pool without making the caller wait. Blocks while the queue
+   * of waiting requests is full. The task's I/O is charged to the caller's
+   * file and role (see IOStats).
+   *
+   * @return a future completed with the task's result
+   */
+  public <T> CompletableFuture<T> supplyAsync(final Supplier<T> task) {
+    final String file = IOStats.getFile();
+    final int role = IOStats.getRole();
+    return CompletableFuture.supplyAsync(new Supplier<T>() {
+      public T get() {
+        IOStats.Context prev = IOStats.attribute(file, role);
+        try {
+          return task.get();
+        } finally {
+          IOStats.restore(prev);
+        }
+      }
+    }, getIOPool());
+  }
+
+  /**
+   * Runs a transfer on the I/O threads, charged to the caller's file and
+   * role.
+   */
+  protected CompletableFuture<Void> runAsync(final Runnable task) {
+    final String file = IOStats.getFile();
+    final int role = IOStats.getRole();
+    return CompletableFuture.runAsync(new Runnable() {
+      public void run() {
+        IOStats.Context prev = IOStats.attribute(file, role);
+        try {
+          task.run();
+        } finally {
+          IOStats.restore(prev);
+        }
+      }
+    }, getIOPool());
+  }
+
+  /**
+   * Gets the I/O threads, starting them on first use.
+   */
+  protected synchronized IOPool getIOPool() {
+    if (io_pool == null) {
+      io_pool = new IOPool(IO_THREADS, IO_QUEUE_DEPTH);
+    }
+    return io_pool;
+  }
+
   /**
    * Gets the number of disk reads since database construction.
    */
-  public int getReadCount() {
-    return read_cnt;
+  public long getReadCount() {
+    return read_cnt.sum();
   }
   /**
    * Gets the number of disk writes since database construction.
    */
-  public int getWriteCount() {
-    return write_cnt;
+  public long getWriteCount() {
+    return write_cnt.sum();
+  }
+
+  /**
+   * Takes a snapshot of the I/O statistics since database construction, by
+   * file and page role.
+   */
+  public List<IOStats.Snapshot> getIOStats() {
+    return io_stats.snapshot();
   }
 
 //-----Manage allocation and deallocation of pages -------------------
@@ -212,81 +851,167 @@ public class DiskMgr implements GlobalConst {
    * @throws IllegalStateException if there is no room for a run
    * of that length
    */
-  public PageId allocate_page(int run_size) {
+  public synchronized PageId allocate_page(int run_size) {
 
     // validate the run size
     if ((run_size < 1) || (run_size > num_db_pages)) {
       throw new IllegalArgumentException("Invalid run size; allocate aborted");
     }
 
-    // calculate the size of the space map
-    int num_map_pages = (num_db_pages + BITS_PER_PAGE - 1) / BITS_PER_PAGE;
-    int current_run_start = 0;
-    int current_run_length = 0;
+    // search the in-memory space map, loading the map pages not loaded yet
+    // (which look full) one at a time until there is room
+    int first = space_map.find(run_size);
+    while ((first < 0) && !space_map.isComplete()) {
+      load_map(space_map.nextUnloaded());
+      first = space_map.find(run_size);
+    }
 
-    // this loop goes over each page in the space map
-    PageId pgid = new PageId();
-    Page apage = new Page();
-    for (int i = 0; i < num_map_pages; ++i) {
+    // grow the database if there is still no room; a run too long to fit
+    // between new map pages is a disk full
+    for (int tries = 0; (first < 0) && (tries < 2); tries++) {
+      int step = (grow_pages > 0) ? grow_pages : space_map.bitsPerPage;
+      grow(Math.max(step, run_size));
+      first = space_map.find(run_size);
+    }
+    if (first < 0) {
+      throw new IllegalStateException("Not enough space left; allocate aborted");
+    }
 
-      // pin the current space-map page
-      pgid.pid = i + 1;
-      Minibase.BufferManager.pinPage(pgid, apage, PIN_DISKIO);
+    // update the space map and return the resulting page id
+    PageId firstpg = new PageId(first);
+    set_bits(firstpg, run_size, 1);
+    return firstpg;
 
-      // get the number of bits on current page
-      int num_bits_this_page = num_db_pages - i * BITS_PER_PAGE;
-      if (num_bits_this_page > BITS_PER_PAGE)
-        num_bits_this_page = BITS_PER_PAGE;
+  } // public PageId allocate_page(int run_size)
 
-      // Walk the page looking for a sequence of 0 bits of the appropriate
-      // length. The outer loop steps through the page's bytes, the inner
-      // one steps through each byte's bits.
-      byte[] pagebuf = apage.getData();
-      for (int byteptr = 0; num_bits_this_page > 0
-          && current_run_length < run_size; byteptr++) {
-
-        // initialize bit mask
-        Byte mask = new Byte(new Integer(1).byteValue());
-        byte tmpmask = mask.byteValue();
-
-        // search the page.  If you see a 0, increment the current
-        // run.  If you see a 1, restart the current run.
-        while (mask.intValue() != 0 && (num_bits_this_page > 0)
-            && (current_run_length < run_size)) {
-
-          // if a 1 is found
-          if ((pagebuf[byteptr] & tmpmask) != 0) {
-            current_run_start += current_run_length + 1;
-            current_run_length = 0;
-          } else {
-            current_run_length++;
-          }
+  /**
+   * Sets the number of pages added each time the database grows.
+   *
+   * @throws IllegalArgumentException if the number is not positive
+   */
+  public synchronized void setGrowPages(int num_pages) {
+    if (num_pages < 1) {
+      throw new IllegalArgumentException("Invalid growth size");
+    }
+    grow_pages = num_pages;
+  }
 
-          // advance to the next bit
-          tmpmask <<= 1;
-          mask = new Byte(tmpmask);
-          num_bits_this_page--;
+  /**
+   * Sets the allocation policy: ALLOC_FIRST_FIT (the default) or
+   * ALLOC_NEXT_FIT.
+   *
+   * @throws IllegalArgumentException if the policy is unknown
+   */
+  public synchronized void setAllocPolicy(int policy) {
+    if ((policy != ALLOC_FIRST_FIT) && (policy != ALLOC_NEXT_FIT)) {
+      throw new IllegalArgumentException("Invalid allocation policy");
+    }
+    alloc_policy = policy;
+    if (space_map != null) {
+      space_map.first_fit = (policy == ALLOC_FIRST_FIT);
+    }
+  }
 
-        } // while
+  /**
+   * Shrinks the database to end just after its last allocated page, dropping
+   * space-map pages added by growth that no longer cover anything, and
+   * truncates the OS file to match. Free pages inside the database stay in
+   * the file; first-fit allocation keeps reusing them before the end.
+   *
+   * @return the number of pages released
+   * @throws IllegalStateException if a page past the new end is pinned
+   */
+  public synchronized int trim() {
+
+    // find the new end: the last allocated page other than trailing map
+    // pages whose coverage holds nothing else
+    load_space_map();
+    int num_map_pages = space_map.getNumMapPages();
+    int last = space_map.prevBit(num_db_pages - 1, true);
+    while ((num_map_pages > base_map_pages)
+        && (last == map_pid(num_map_pages - 1))) {
+      num_map_pages--;
+      last = space_map.prevBit(last - 1, true);
+    }
+    int new_num = Math.max(last + 1, FIRST_PAGEID + 1);
+    if (new_num >= num_db_pages) {
+      return 0;
+    }
 
-      } // inner loop
+    // forget the pages past the end, including the dropped map pages
+    Minibase.BufferManager.discardPages(new_num);
+    for (int i = num_map_pages; i < space_map.getNumMapPages(); i++) {
+      space_map.set(map_pid(i), 1, false);
+    }
+    int released = num_db_pages - new_num;
+    num_db_pages = new_num;
+    space_map.shrink(num_db_pages);
+    alloc_count = space_map.getAllocCount();
 
-      // unpin the current space-map page
-      Minibase.BufferManager.unpinPage(pgid, UNPIN_CLEAN);
+    // record the new size before cutting the file, so a crash in between
+    // only leaves unused pages behind
+    PageId pageId = new PageId(FIRST_PAGEID);
+    PageHandle handle = Minibase.BufferManager.pin(pageId, ROLE_HEADER);
+    DBFirstPage firstpg = new DBFirstPage(handle.getPage());
+    firstpg.setNumDBPages(num_db_pages);
+    firstpg.setNumAllocPages(alloc_count);
+    handle.release(UNPIN_DIRTY);
+    Minibase.BufferManager.flushPage(pageId);
+    try {
+      store.setLength((long) num_db_pages * Minibase.PageSize);
+    } catch (IOException exc) {
+      Minibase.haltSystem(exc);
+    }
+    return released;
 
-    } // outer loop
+  } // public synchronized int trim()
 
-    // check for disk full exception
-    if (current_run_length < run_size) {
+  /**
+   * Extends the database by the given number of pages: sizes the OS file
+   * for them up front, extends the space map (adding map pages as needed),
+   * and records the new size on the first page.
+   *
+   * @throws IllegalStateException if the database cannot grow that much
+   */
+  protected void grow(int num_pages) {
+
+    // validate the new size
+    long new_num = (long) num_db_pages + num_pages;
+    if (new_num > Integer.MAX_VALUE) {
       throw new IllegalStateException("Not enough space left; allocate aborted");
     }
 
-    // update the space map and return the resulting page id
-    PageId firstpg = new PageId(current_run_start);
-    set_bits(firstpg, run_size, 1);
-    return firstpg;
+    // extend the OS file first, so the new pages can be read
+    try {
+      store.setLength(new_num * Minibase.PageSize);
+    } catch (IOException exc) {
+      Minibase.haltSystem(exc);
+    }
+    int old_map_pages = space_map.getNumMapPages();
+    num_db_pages = (int) new_num;
+    space_map.grow(num_db_pages);
 
-  } // public PageId allocate_page(int run_size)
+    // reserve each new map page (fresh from the file, so all zero)
+    for (int i = old_map_pages; i < space_map.getNumMapPages(); i++) {
+      set_bits(new PageId(map_pid(i)), 1, 1);
+    }
+
+    // record the new size
+    PageId pageId = new PageId(FIRST_PAGEID);
+    PageHandle handle = Minibase.BufferManager.pin(pageId, ROLE_HEADER);
+    new DBFirstPage(handle.getPage()).setNumDBPages(num_db_pages);
+    handle.release(UNPIN_DIRTY);
+
+  } // protected void grow(int num_pages)
+
+  /**
+   * Gets the page id of the given space-map page: pages made at creation
+   * follow the first page, and later ones sit at the first page they cover.
+   */
+  protected int map_pid(int mapno) {
+    return (mapno < base_map_pages) ? 1 + mapno
+        : mapno * space_map.bitsPerPage;
+  }
 
   /**
    * Allocates a single page (i.e. run size 1) on disk.
@@ -308,7 +1033,7 @@ public class DiskMgr implements GlobalConst {
    * @param run_size number of pages to deallocate
    * @throws IllegalArgumentException if firstid or run_size is invalid
    */
-  public void deallocate_page(PageId firstid, int run_size) {
+  public synchronized void deallocate_page(PageId firstid, int run_size) {
 
     // validate the page id
     if ((firstid.pid < 0) || (firstid.pid >= num_db_pages)) {
@@ -338,46 +1063,13 @@ public class DiskMgr implements GlobalConst {
   /**
    * Gets the number of allocated disk pages.
    */
-  public int getAllocCount() { 
-
-    // initialize reused variables
-    int count = 0;
-    int bit_number = 0;
-    PageId pgid = new PageId();
-    Page apage = new Page();
+  public synchronized int getAllocCount() {
 
-    // iterate each page in the space map
-    int num_map_pages = (num_db_pages + BITS_PER_PAGE - 1) / BITS_PER_PAGE;
-    for (int i = 0; i < num_map_pages; i++) {
-
-      // pin the space-map page
-      pgid.pid = 1 + i;
-      Minibase.BufferManager.pinPage(pgid, apage, PIN_DISKIO);
-
-      // how many bits should we examine on this page?
-      int num_bits_this_page = num_db_pages - i * BITS_PER_PAGE;
-      if (num_bits_this_page > BITS_PER_PAGE) {
-        num_bits_this_page = BITS_PER_PAGE;
-      }
-
-      // walk the page looking for 1 bits
-      byte[] pagebuf = apage.getData();
-      for (int pgptr = 0; num_bits_this_page > 0; pgptr++) { // start forloop02
-        for (int mask = 1; mask < 256 && num_bits_this_page > 0; mask = (mask << 1), --num_bits_this_page, ++bit_number) {
-          int bit = pagebuf[pgptr] & mask;
-          if (bit != 0) {
-            count++;
-          }
-        }
-      }
-
-      // unpin the space-map page
-      Minibase.BufferManager.unpinPage(pgid, UNPIN_CLEAN);
-
-    } // end of forloop01
-
-    // return the resulting count
-    return count;
+    // databases from before the count was stored must count the map
+    if (alloc_count == 0) {
+      load_space_map();
+    }
+    return alloc_count;
 
   } // public int getAllocCount()
 
@@ -387,7 +1079,8 @@ public class DiskMgr implements GlobalConst {
    */
   public void print_space_map() {
 
-    int num_map_pages = (num_db_pages + BITS_PER_PAGE - 1) / BITS_PER_PAGE;
+    int num_map_pages = space_map.getNumMapPages();
+    int bits_per_page = space_map.bitsPerPage;
     int bit_number = 0;
 
     // this loop goes over each page in the space map
@@ -397,14 +1090,14 @@ public class DiskMgr implements GlobalConst {
     for (int i = 0; i < num_map_pages; i++) { // start forloop01
 
       // pin the space-map page
-      pgid.pid = 1 + i; // space map starts at page1
-      Page apage = new Page();
-      Minibase.BufferManager.pinPage(pgid, apage, PIN_DISKIO);
+      pgid.pid = map_pid(i);
+      PageHandle handle = Minibase.BufferManager.pin(pgid, ROLE_SPACE_MAP);
+      Page apage = handle.getPage();
 
       // how many bits should we examine on this page?
-      int num_bits_this_page = num_db_pages - i * BITS_PER_PAGE;
-      if (num_bits_this_page > BITS_PER_PAGE) {
-        num_bits_this_page = BITS_PER_PAGE;
+      int num_bits_this_page = num_db_pages - i * bits_per_page;
+      if (num_bits_this_page > bits_per_page) {
+        num_bits_this_page = bits_per_page;
       }
       System.out.println("\n\nnum_bits_this_page = " + num_bits_this_page
           + "\n");
@@ -415,14 +1108,13 @@ public class DiskMgr implements GlobalConst {
       // length. The outer loop steps through the page's bytes, the inner
       // one steps through each byte's bits.
       int pgptr = 0;
-      byte[] pagebuf = apage.getData();
       int mask;
       for (; num_bits_this_page > 0; pgptr++) { // start forloop02
 
         for (mask = 1; mask < 256 && num_bits_this_page > 0; mask = (mask << 1), --num_bits_this_page, ++bit_number) {
           // start forloop03
 
-          int bit = pagebuf[pgptr] & mask;
+          int bit = apage.getByteValue(pgptr) & mask;
           if ((bit_number % 10) == 0) {
             if ((bit_number % 50) == 0) {
               if (bit_number > 0) {
@@ -444,7 +1136,7 @@ public class DiskMgr implements GlobalConst {
 
       } // end of forloop02
 
-      Minibase.BufferManager.unpinPage(pgid, UNPIN_CLEAN);
+      handle.release(UNPIN_CLEAN);
 
     } // end of forloop01
 
@@ -458,69 +1150,168 @@ public class DiskMgr implements GlobalConst {
    */
   protected void set_bits(PageId start_page, int run_size, int value) {
 
-    // locate the run within the space map
-    int first_map_page = start_page.pid / BITS_PER_PAGE + 1;
-    int last_map_page = (start_page.pid + run_size - 1) / BITS_PER_PAGE + 1;
-    int first_bit_no = start_page.pid % BITS_PER_PAGE;
+    // update the in-memory space map, ignoring any part past the last page,
+    // once the map pages holding the bits are loaded
+    run_size = Math.min(run_size, num_db_pages - start_page.pid);
+    int last_map = (start_page.pid + run_size - 1) / space_map.bitsPerPage;
+    for (int i = start_page.pid / space_map.bitsPerPage; i <= last_map; i++) {
+      load_map(i);
+    }
+    int delta = space_map.set(start_page.pid, run_size, value == 1);
 
-    // the outer loop goes over all space-map pages we need to touch
-    for (PageId pgid = new PageId(first_map_page); pgid.pid <= last_map_page; pgid.pid = pgid.pid + 1, first_bit_no = 0) {
-      // Start forloop01
+    // write the changed words through to each space-map page they are on
+    int first_word = start_page.pid / SpaceMap.WORD_BITS;
+    int last_word = (start_page.pid + run_size - 1) / SpaceMap.WORD_BITS;
+    PageId pgid = new PageId();
+    while (first_word <= last_word) {
+      int mapno = first_word / space_map.wordsPerPage;
+      int last_on_page = Math.min(last_word,
+          (mapno + 1) * space_map.wordsPerPage - 1);
+      pgid.pid = map_pid(mapno);
+      PageHandle handle = Minibase.BufferManager.pin(pgid, ROLE_SPACE_MAP);
+      space_map.store(mapno, handle.getPage(), first_word, last_on_page);
+      handle.release(UNPIN_DIRTY);
+      first_word = last_on_page + 1;
+    }
 
-      // pin the space-map page
-      Page pg = new Page();
-      Minibase.BufferManager.pinPage(pgid, pg, PIN_DISKIO);
-      byte[] pgbuf = pg.getData();
+    // keep the count on the first page in step
+    if (space_map.isComplete()) {
+      delta = space_map.getAllocCount() - alloc_count;
+    }
+    if ((delta != 0) && ((alloc_count > 0) || space_map.isComplete())) {
+      store_alloc_count(alloc_count + delta);
+    }
 
-      // locate the piece of the run that fits on this page
-      int first_byte_no = first_bit_no / 8;
-      int first_bit_offset = first_bit_no % 8;
-      int last_bit_no = first_bit_no + run_size - 1;
+  } // protected void set_bits(PageId start_page, int run_size, int bit)
 
-      if (last_bit_no >= BITS_PER_PAGE) {
-        last_bit_no = BITS_PER_PAGE - 1;
-      }
+  /**
+   * Records the number of allocated pages on the first page.
+   */
+  protected void store_alloc_count(int count) {
+    alloc_count = count;
+    PageId pageId = new PageId(FIRST_PAGEID);
+    PageHandle handle = Minibase.BufferManager.pin(pageId, ROLE_HEADER);
+    new DBFirstPage(handle.getPage()).setNumAllocPages(alloc_count);
+    handle.release(UNPIN_DIRTY);
+  }
 
-      int last_byte_no = last_bit_no / 8;
-
-      // this loop actually flips the bits on the current page
-      int cur_posi = first_byte_no;
-      for (; cur_posi <= last_byte_no; ++cur_posi, first_bit_offset = 0) {
-        // start forloop02
-
-        int max_bits_this_byte = 8 - first_bit_offset;
-        int num_bits_this_byte = (run_size > max_bits_this_byte ? max_bits_this_byte
-            : run_size);
-
-        int imask = 1;
-        int temp;
-        imask = ((imask << num_bits_this_byte) - 1) << first_bit_offset;
-        Integer intmask = new Integer(imask);
-        Byte mask = new Byte(intmask.byteValue());
-        byte bytemask = mask.byteValue();
-
-        if (value == 1) {
-          temp = (pgbuf[cur_posi] | bytemask);
-          intmask = new Integer(temp);
-          pgbuf[cur_posi] = intmask.byteValue();
-        } else {
-          temp = pgbuf[cur_posi] & (255 ^ bytemask);
-          intmask = new Integer(temp);
-          pgbuf[cur_posi] = intmask.byteValue();
-        }
-        run_size -= num_bits_this_byte;
+  /**
+   * Loads the given space-map page into the in-memory map, unless it already
+   * is; once the whole map is loaded, its count of allocated pages replaces
+   * the stored one (which a crash may have left behind).
+   */
+  protected void load_map(int mapno) {
+    if (space_map.isLoaded(mapno)) {
+      return;
+    }
+    PageId pageId = new PageId(map_pid(mapno));
+    PageHandle handle = Minibase.BufferManager.pin(pageId, ROLE_SPACE_MAP);
+    space_map.load(mapno, handle.getPage());
+    handle.release(UNPIN_CLEAN);
+    if (space_map.isComplete() && (space_map.getAllocCount() != alloc_count)) {
+      store_alloc_count(space_map.getAllocCount());
+    }
+  }
 
-      } // end of forloop02
+  /**
+   * Loads every space-map page not loaded yet.
+   */
+  protected void load_space_map() {
+    for (int i = space_map.nextUnloaded(); i >= 0;
+        i = space_map.nextUnloaded()) {
+      load_map(i);
+    }
+  }
 
-      // unpin the space-map page
-      Minibase.BufferManager.unpinPage(pgid, UNPIN_DIRTY);
+  /**
+   * Starts the background thread that loads the rest of the space map and
+   * file library, a page at a time, after the database is opened.
+   */
+  protected void start_loader() {
+    loading = true;
+    loader = new Thread("diskmgr-loader") {
+      public void run() {
+        while (loading && load_next()) {
+          // one page per turn, so other threads get the lock in between
+        }
+      }
+    };
+    loader.setDaemon(true);
+    loader.start();
+  }
 
-    } // end of forloop01
+  /**
+   * Stops the background loader, if running, and waits for it to finish.
+   */
+  protected void stop_loader() {
+    if (loader == null) {
+      return;
+    }
+    loading = false;
+    try {
+      loader.join();
+    } catch (InterruptedException exc) {
+      Thread.currentThread().interrupt();
+    }
+    loader = null;
+  }
 
-  } // protected void set_bits(PageId start_page, int run_size, int bit)
+  /**
+   * Loads the next space-map or header page not loaded yet.
+   *
+   * @return false if everything is already loaded
+   */
+  protected synchronized boolean load_next() {
+    int mapno = space_map.nextUnloaded();
+    if (mapno >= 0) {
+      load_map(mapno);
+      return true;
+    }
+    if (!library.isComplete()) {
+      load_header();
+      return true;
+    }
+    return false;
+  }
 
   //-----Manage File Library-------------------
-  
+
+  /**
+   * Loads the next header page of the library chain into the in-memory file
+   * library.
+   */
+  protected void load_header() {
+    PageId hpid = new PageId(library.next);
+    PageHandle handle = Minibase.BufferManager.pin(hpid, ROLE_HEADER);
+    library.load(hpid.pid, new DBHeaderPage(handle.getPage()));
+    handle.release(UNPIN_CLEAN);
+  }
+
+  /**
+   * Loads the rest of the chain of header pages into the in-memory file
+   * library.
+   */
+  protected void load_library() {
+    while (!library.isComplete()) {
+      load_header();
+    }
+  }
+
+  /**
+   * Looks up a file's entry in the in-memory file library, loading more of
+   * the chain of header pages until it is found.
+   *
+   * @return the entry, or null if the file is not in the library
+   */
+  protected FileLibrary.Entry find_entry(String fname) {
+    FileLibrary.Entry entry = library.get(fname);
+    while ((entry == null) && !library.isComplete()) {
+      load_header();
+      entry = library.get(fname);
+    }
+    return entry;
+  }
+
   /**
    * Adds an entry to the file library.  Each entry contains the name of
    * the file and the PageId of the file's first page.
@@ -529,7 +1320,7 @@ public class DiskMgr implements GlobalConst {
    * 
    * @throws IllegalArgumentException if fname or start_pageno is invalid
    */
-  public void add_file_entry(String fname, PageId start_pageno) {
+  public synchronized void add_file_entry(String fname, PageId start_pageno) {
 
     // validate the arguments
     if (fname.length() > NAME_MAXLEN) {
@@ -540,70 +1331,47 @@ public class DiskMgr implements GlobalConst {
           "Invalid page number; add entry aborted");
     }
 
-    // does the file already exist?
-    if (get_file_entry(fname) != null) {
+    // does the file already exist? (the whole library is needed to tell,
+    // and to find the empty slots)
+    load_library();
+    if (library.get(fname) != null) {
       throw new IllegalArgumentException(
           "File entry already exists; add entry aborted");
     }
 
-    // search the header pages for the entry slot
-    boolean found = false;
-    int free_slot = 0;
-    DBHeaderPage hpage = new DBHeaderPage();
+    // take an empty slot, or (if possible) add a new header page to the
+    // library when every slot is taken
+    long slot = library.takeFree();
     PageId hpid = new PageId();
-    PageId tmppid = new PageId();
-    PageId nexthpid = new PageId(FIRST_PAGEID);
-    do {
-
-      // pin the next header page and get its next
-      hpid.pid = nexthpid.pid;
-      Minibase.BufferManager.pinPage(hpid, hpage, PIN_DISKIO);
-      nexthpid = hpage.getNextPage();
-
-      // search the header page for an empty entry
-      int entry = 0;
-      while (entry < hpage.getNumOfEntries()) {
-        hpage.getFileEntry(tmppid, entry);
-        if (tmppid.pid == INVALID_PAGEID) {
-          break;
-        }
-        entry++;
-      }
+    if (slot < 0) {
 
-      // verify an empty slot was found
-      if (entry < hpage.getNumOfEntries()) {
-        free_slot = entry;
-        found = true;
-      } else if (nexthpid.pid != INVALID_PAGEID) {
-        // unpin before continuing loop
-        Minibase.BufferManager.unpinPage(hpid, UNPIN_CLEAN);
-      }
-
-    } while ((nexthpid.pid != INVALID_PAGEID) && (!found));
-
-    // if necessary (and possible), add a new header page to the library
-    if (!found) {
-
-      // allocate the new header page
-      nexthpid = allocate_page();
+      // allocate the new header page and initialize it
+      PageId nexthpid = allocate_page();
+      DBHeaderPage hpage = new DBHeaderPage();
+      Minibase.BufferManager.pinPage(nexthpid, hpage, PIN_MEMCPY, ROLE_HEADER);
+      Minibase.BufferManager.unpinPage(nexthpid, UNPIN_DIRTY);
 
       // set the next-page pointer on the previous library page
-      hpage.setNextPage(nexthpid);
-      Minibase.BufferManager.unpinPage(hpid, UNPIN_DIRTY);
+      hpid.pid = library.last;
+      PageHandle handle = Minibase.BufferManager.pin(hpid, ROLE_HEADER);
+      new DBHeaderPage(handle.getPage()).setNextPage(nexthpid);
+      handle.release(UNPIN_DIRTY);
 
-      // pin the newly-allocated directory page
-      hpid.pid = nexthpid.pid;
-      Minibase.BufferManager.pinPage(hpid, hpage, PIN_MEMCPY);
-      hpage.initDefaults();
-      free_slot = 0;
+      // the new page's slots are now free
+      handle = Minibase.BufferManager.pin(nexthpid, ROLE_HEADER);
+      library.load(nexthpid.pid, new DBHeaderPage(handle.getPage()));
+      handle.release(UNPIN_CLEAN);
+      slot = library.takeFree();
 
     } // if new library page
 
-    // At this point, "hpid" has the page id of the library page with the free
-    // slot; "hpage" has the directory_page pointer; "free_slot" is the entry
-    // number in the directory where we're going to put the new file entry.
-    hpage.setFileEntry(fname, start_pageno, free_slot);
-    Minibase.BufferManager.unpinPage(hpid, UNPIN_DIRTY);
+    // write the entry through to its slot
+    hpid.pid = FileLibrary.slotPage(slot);
+    PageHandle handle = Minibase.BufferManager.pin(hpid, ROLE_HEADER);
+    new DBHeaderPage(handle.getPage()).setFileEntry(fname, start_pageno,
+        FileLibrary.slotEntry(slot));
+    handle.release(UNPIN_DIRTY);
+    library.put(fname, start_pageno.pid, slot);
 
   } // public void add_file_entry(String fname, PageId start_pageno)
 
@@ -612,55 +1380,21 @@ public class DiskMgr implements GlobalConst {
    * 
    * @throws IllegalArgumentException if fname is invalid
    */
-  public void delete_file_entry(String fname) {
+  public synchronized void delete_file_entry(String fname) {
 
     // Is the file really in the library?
-    if (get_file_entry(fname) == null) {
+    if (find_entry(fname) == null) {
       throw new IllegalArgumentException(
           "File entry not found in library; delete entry aborted");
     }
 
-    // search the library pages for the entry slot
-    boolean found = false;
-    int slot = 0;
-    DBHeaderPage hpage = new DBHeaderPage();
-    PageId hpid = new PageId();
-    PageId tmppid = new PageId();
-    PageId nexthpid = new PageId(0);
-    do {
-
-      // pin the next library page and get its next
-      hpid.pid = nexthpid.pid;
-      Minibase.BufferManager.pinPage(hpid, hpage, PIN_DISKIO);
-      nexthpid = hpage.getNextPage();
-
-      // search the library page for the entry
-      int entry = 0;
-      String tmpname = null;
-      while (entry < hpage.getNumOfEntries()) {
-        tmpname = hpage.getFileEntry(tmppid, entry);
-        if ((tmppid.pid != INVALID_PAGEID)
-            && (tmpname.compareToIgnoreCase(fname) == 0)) {
-          break;
-        }
-        entry++;
-      }
-
-      // verify the entry slot was found
-      if (entry < hpage.getNumOfEntries()) {
-        slot = entry;
-        found = true;
-      } else {
-        // unpin before continuing loop
-        Minibase.BufferManager.unpinPage(hpid, UNPIN_CLEAN);
-      }
-
-    } while ((nexthpid.pid != INVALID_PAGEID) && (!found));
-
-    // have to delete record at hpnum:slot
-    tmppid.pid = INVALID_PAGEID;
-    hpage.setFileEntry("\0", tmppid, slot);
-    Minibase.BufferManager.unpinPage(hpid, UNPIN_DIRTY);
+    // clear the entry's slot
+    long slot = library.remove(fname).slot;
+    PageId hpid = new PageId(FileLibrary.slotPage(slot));
+    PageHandle handle = Minibase.BufferManager.pin(hpid, ROLE_HEADER);
+    new DBHeaderPage(handle.getPage()).setFileEntry("\0",
+        new PageId(INVALID_PAGEID), FileLibrary.slotEntry(slot));
+    handle.release(UNPIN_DIRTY);
 
   } // public void delete_file_entry(String fname)
 
@@ -670,55 +1404,9 @@ public class DiskMgr implements GlobalConst {
    * @return PageId of the file's first page, or null if the file
    * is not in the library
    */
-  public PageId get_file_entry(String fname) {
-
-    // search the library pages for the entry's slot
-    boolean found = false;
-    int slot = 0;
-    DBHeaderPage hpage = new DBHeaderPage();
-    PageId hpid = new PageId();
-    PageId tmppid = new PageId();
-    PageId nexthpid = new PageId(0);
-    do {
-
-      // pin the next library page and get its next
-      hpid.pid = nexthpid.pid;
-      Minibase.BufferManager.pinPage(hpid, hpage, PIN_DISKIO);
-      nexthpid = hpage.getNextPage();
-
-      // search the library page for the entry
-      int entry = 0;
-      String tmpname;
-      while (entry < hpage.getNumOfEntries()) {
-        tmpname = hpage.getFileEntry(tmppid, entry);
-        if ((tmppid.pid != INVALID_PAGEID)
-            && (tmpname.compareToIgnoreCase(fname) == 0)) {
-          break;
-        }
-        entry++;
-      }
-
-      // verify the entry slot was found
-      if (entry < hpage.getNumOfEntries()) {
-        slot = entry;
-        found = true;
-      }
-
-      // unpin the page before continuing or exiting loop
-      Minibase.BufferManager.unpinPage(hpid, UNPIN_CLEAN);
-
-    } while ((nexthpid.pid != INVALID_PAGEID) && (!found));
-
-    // return null if not found
-    if (!found) {
-      return null;
-    }
-
-    // otherwise, return the first page id
-    PageId startpid = new PageId();
-    hpage.getFileEntry(startpid, slot);
-    return startpid;
-
+  public synchronized PageId get_file_entry(String fname) {
+    FileLibrary.Entry entry = find_entry(fname);
+    return (entry == null) ? null : new PageId(entry.start);
   } // public PageId get_file_entry(String fname)
 
 } // public class DiskMgr implements GlobalConst
@@ -0,0 +1,162 @@
+package diskmgr;
+
+import global.GlobalConst;
+import global.PageId;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+
+/**
+ * In-memory mirror of the file library held by the header pages: a hash map
+ * from file name to first page id and entry slot, with names matched without
+ * regard to case, plus a list of the empty entry slots. A slot is packed into
+ * a long as (header page id, entry number). Header pages are loaded in chain
+ * order, as they are needed; until the last one is, a name not found may
+ * still be on a later page, and the empty slots are not all known. The disk
+ * manager serializes all use, and writes every change through to the header
+ * pages.
+ */
+class FileLibrary implements GlobalConst {
+
+  /**
+   * A file's entry in the library.
+   */
+  protected static class Entry {
+
+    /** Page id of the file's first page. */
+    public final int start;
+
+    /** Slot holding the entry. */
+    public final long slot;
+
+    public Entry(int start, long slot) {
+      this.start = start;
+      this.slot = slot;
+    }
+
+  } // protected static class Entry
+
+  // --------------------------------------------------------------------------
+
+  /** The entries, by case-folded file name. */
+  protected final HashMap<String, Entry> entries;
+
+  /** The empty slots, the most recently freed first. */
+  protected final ArrayDeque<Long> free;
+
+  /** Page id of the last header page loaded. */
+  protected int last;
+
+  /** Page id of the next header page to load; INVALID_PAGEID if none. */
+  protected int next;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Constructs an empty library.
+   */
+  public FileLibrary() {
+    entries = new HashMap<String, Entry>();
+    free = new ArrayDeque<Long>();
+    last = FIRST_PAGEID;
+    next = FIRST_PAGEID;
+  }
+
+  /**
+   * Loads the entries and empty slots of a header page; header pages must be
+   * loaded in chain order, starting from next.
+   */
+  public void load(int hpid, DBHeaderPage hpage) {
+    PageId tmppid = new PageId();
+    for (int entry = 0; entry < hpage.getNumOfEntries(); entry++) {
+      String fname = hpage.getFileEntry(tmppid, entry);
+      if (tmppid.pid == INVALID_PAGEID) {
+        free.addLast(slot(hpid, entry));
+      } else {
+        entries.put(key(fname), new Entry(tmppid.pid, slot(hpid, entry)));
+      }
+    }
+    last = hpid;
+    next = hpage.getNextPage().pid;
+  }
+
+  /**
+   * True if every header page has been loaded; false otherwise.
+   */
+  public boolean isComplete() {
+    return (next == INVALID_PAGEID);
+  }
+
+  /**
+   * Gets the entry for the given file name.
+   *
+   * @return the entry, or null if the file is not in the library
+   */
+  public Entry get(String fname) {
+    return entries.get(key(fname));
+  }
+
+  /**
+   * Adds an entry for the given file name, in the given slot.
+   */
+  public void put(String fname, int start, long slot) {
+    entries.put(key(fname), new Entry(start, slot));
+  }
+
+  /**
+   * Removes the entry for the given file name, freeing its slot.
+   *
+   * @return the removed entry
+   */
+  public Entry remove(String fname) {
+    Entry entry = entries.remove(key(fname));
+    free.addFirst(entry.slot);
+    return entry;
+  }
+
+  /**
+   * Takes an empty slot off the list.
+   *
+   * @return the slot, or -1 if every header page is full
+   */
+  public long takeFree() {
+    Long slot = free.pollFirst();
+    return (slot == null) ? -1 : slot;
+  }
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Packs a header page id and entry number into a slot.
+   */
+  public static long slot(int hpid, int entry) {
+    return ((long) hpid << 32) | entry;
+  }
+
+  /**
+   * Gets the header page id of a slot.
+   */
+  public static int slotPage(long slot) {
+    return (int) (slot >>> 32);
+  }
+
+  /**
+   * Gets the entry number of a slot.
+   */
+  public static int slotEntry(long slot) {
+    return (int) slot;
+  }
+
+  /**
+   * Folds the case of a file name the same way String.compareToIgnoreCase
+   * compares characters, so equal keys mean names that compare equal.
+   */
+  protected static String key(String fname) {
+    char[] chars = fname.toCharArray();
+    for (int i = 0; i < chars.length; i++) {
+      chars[i] = Character.toLowerCase(Character.toUpperCase(chars[i]));
+    }
+    return new String(chars);
+  }
+
+} // class FileLibrary implements GlobalConst
@@ -0,0 +1,126 @@
+package diskmgr;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Page store built on a RandomAccessFile; each transfer reads or writes the
+ * file's channel at an explicit offset, never through the shared file
+ * position, so any number of threads may transfer pages at once. A run of
+ * pages is moved with a single read or write.
+ */
+class FilePageStore implements PageStore {
+
+  /** Reference to the OS file. */
+  protected final RandomAccessFile fp;
+
+  /** Channel of the OS file, used for all page transfers. */
+  protected final FileChannel channel;
+
+  /** Per-thread direct buffer through which multi-page runs are moved. */
+  protected final ThreadLocal<ByteBuffer> stage_buf =
+      new ThreadLocal<ByteBuffer>();
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Opens (or creates) the given file.
+   */
+  public FilePageStore(String fname) throws IOException {
+    fp = new RandomAccessFile(fname, "rw");
+    channel = fp.getChannel();
+  }
+
+  public long length() throws IOException {
+    return channel.size();
+  }
+
+  public void setLength(long length) throws IOException {
+    fp.setLength(length);
+  }
+
+  public void read(long offset, ByteBuffer... bufs) throws IOException {
+
+    // a single page is read straight into its buffer
+    if (bufs.length == 1) {
+      ByteBuffer buf = bufs[0];
+      while (buf.hasRemaining()) {
+        int n = channel.read(buf, offset);
+        if (n < 0) {
+          return;
+        }
+        offset += n;
+      }
+      return;
+    }
+
+    // positional reads have no scatter form, so read the whole run into the
+    // staging buffer at once and scatter it from there
+    ByteBuffer stage = staging(bufs);
+    while (stage.hasRemaining()) {
+      int n = channel.read(stage, offset);
+      if (n < 0) {
+        break;
+      }
+      offset += n;
+    }
+    stage.flip();
+    for (ByteBuffer buf : bufs) {
+      if (!stage.hasRemaining()) {
+        break;
+      }
+      ByteBuffer src = stage.duplicate();
+      src.limit(Math.min(stage.limit(), stage.position() + buf.remaining()));
+      buf.put(src);
+      stage.position(src.position());
+    }
+
+  } // public void read(long offset, ByteBuffer... bufs)
+
+  public void write(long offset, ByteBuffer... bufs) throws IOException {
+
+    // gather a run into the staging buffer, so it takes a single write
+    ByteBuffer src = bufs[0];
+    if (bufs.length > 1) {
+      src = staging(bufs);
+      for (ByteBuffer buf : bufs) {
+        src.put(buf);
+      }
+      src.flip();
+    }
+    while (src.hasRemaining()) {
+      offset += channel.write(src, offset);
+    }
+
+  } // public void write(long offset, ByteBuffer... bufs)
+
+  /**
+   * Gets this thread's staging buffer, cleared and limited to the total size
+   * of the given buffers.
+   */
+  protected ByteBuffer staging(ByteBuffer[] bufs) {
+    int total = 0;
+    for (ByteBuffer buf : bufs) {
+      total += buf.remaining();
+    }
+    ByteBuffer stage = stage_buf.get();
+    if ((stage == null) || (stage.capacity() < total)) {
+      stage = ByteBuffer.allocateDirect(total);
+      stage_buf.set(stage);
+    }
+    stage.clear();
+    stage.limit(total);
+    return stage;
+  }
+
+  public void force() throws IOException {
+    channel.force(false);
+  }
+
+  public void close() throws IOException {
+    fp.close();
+  }
+
+} // class FilePageStore implements PageStore
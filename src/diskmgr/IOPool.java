@@ -0,0 +1,71 @@
+package diskmgr;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of daemon threads running asynchronous page I/O. The queue of waiting
+ * requests is bounded: once it is full, submitting blocks until a slot frees
+ * up, so a caller can never run ahead of the device without limit. Idle
+ * threads exit after a while.
+ */
+class IOPool extends ThreadPoolExecutor {
+
+  /** How long idle I/O threads wait for work before exiting, in seconds. */
+  protected static final long KEEP_ALIVE_SECS = 5;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Constructs a pool with the given number of threads and queue depth.
+   */
+  public IOPool(int numthreads, int depth) {
+    super(numthreads, numthreads, KEEP_ALIVE_SECS, TimeUnit.SECONDS,
+        new ArrayBlockingQueue<Runnable>(depth), new IOThreadFactory(),
+        new BlockingPolicy());
+    allowCoreThreadTimeOut(true);
+  }
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Names the I/O threads and marks them as daemons.
+   */
+  protected static class IOThreadFactory implements ThreadFactory {
+
+    /** Number of threads created so far. */
+    protected final AtomicInteger count = new AtomicInteger();
+
+    public Thread newThread(Runnable task) {
+      Thread t = new Thread(task, "diskmgr-io-" + count.incrementAndGet());
+      t.setDaemon(true);
+      return t;
+    }
+
+  } // protected static class IOThreadFactory implements ThreadFactory
+
+  /**
+   * Waits for room in the queue instead of rejecting a request.
+   */
+  protected static class BlockingPolicy implements RejectedExecutionHandler {
+
+    public void rejectedExecution(Runnable task, ThreadPoolExecutor pool) {
+      if (pool.isShutdown()) {
+        throw new RejectedExecutionException("I/O pool is shut down");
+      }
+      try {
+        pool.getQueue().put(task);
+      } catch (InterruptedException exc) {
+        Thread.currentThread().interrupt();
+        throw new RejectedExecutionException(exc);
+      }
+    }
+
+  } // protected static class BlockingPolicy implements ...
+
+} // class IOPool extends ThreadPoolExecutor
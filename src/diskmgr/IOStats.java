@@ -0,0 +1,295 @@
+package diskmgr;
+
+import global.GlobalConst;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * I/O accounting by file and page role: page and byte counts, plus read and
+ * write latency histograms. Each transfer is charged to the file and role the
+ * calling thread is attributed to; the heap layer tags its thread with the
+ * file each operation works on, for the length of the operation, and the
+ * buffer manager attributes each transfer to the file and role its frame was
+ * loaded for (a run of pages to its first page), so pages written later by
+ * other threads are still charged to their own file. Space-map and header pages are charged to no file.
+ * <p>
+ * Latency buckets are powers of two: bucket 0 counts transfers under one
+ * microsecond, and bucket i those from 2^(i-1) up to 2^i microseconds; the
+ * last bucket also counts anything slower.
+ */
+public class IOStats implements GlobalConst {
+
+  /** Number of buckets in each latency histogram. */
+  public static final int NUM_BUCKETS = 32;
+
+  /** File name charged with I/O not attributed to any file. */
+  public static final String NO_FILE = "";
+
+  /** Number of page roles (see GlobalConst). */
+  protected static final int NUM_ROLES = ROLE_HEADER + 1;
+
+  /** Each thread's attribution. */
+  protected static final ThreadLocal<Context> context =
+      new ThreadLocal<Context>() {
+        protected Context initialValue() {
+          return new Context(NO_FILE, ROLE_DATA);
+        }
+      };
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * The file and page role a thread's I/O is charged to.
+   */
+  public static class Context {
+
+    /** Name of the file. */
+    protected final String file;
+
+    /** Page role. */
+    protected final int role;
+
+    protected Context(String file, int role) {
+      this.role = ((role >= 0) && (role < NUM_ROLES)) ? role : ROLE_DATA;
+
+      // space-map and header pages belong to the whole database
+      boolean shared = (this.role == ROLE_SPACE_MAP)
+          || (this.role == ROLE_HEADER);
+      this.file = ((file == null) || shared) ? NO_FILE : file;
+    }
+
+  } // public static class Context
+
+  /**
+   * Live counters for one file and role.
+   */
+  protected static class Counters {
+
+    public final LongAdder reads = new LongAdder();
+
+    public final LongAdder writes = new LongAdder();
+
+    public final LongAdder bytes_read = new LongAdder();
+
+    public final LongAdder bytes_written = new LongAdder();
+
+    public final AtomicLongArray read_lat = new AtomicLongArray(NUM_BUCKETS);
+
+    public final AtomicLongArray write_lat = new AtomicLongArray(NUM_BUCKETS);
+
+  } // protected static class Counters
+
+  /**
+   * Counters for one file and role, as of when the snapshot was taken.
+   */
+  public static class Snapshot {
+
+    /** Name of the file, or NO_FILE. */
+    public final String file;
+
+    /** Page role. */
+    public final int role;
+
+    /** Number of pages read. */
+    public final long reads;
+
+    /** Number of pages written. */
+    public final long writes;
+
+    /** Number of bytes read. */
+    public final long bytesRead;
+
+    /** Number of bytes written. */
+    public final long bytesWritten;
+
+    /** Read latency histogram, one count per transfer. */
+    public final long[] readLatency;
+
+    /** Write latency histogram, one count per transfer. */
+    public final long[] writeLatency;
+
+    protected Snapshot(String file, int role, Counters counters) {
+      this.file = file;
+      this.role = role;
+      reads = counters.reads.sum();
+      writes = counters.writes.sum();
+      bytesRead = counters.bytes_read.sum();
+      bytesWritten = counters.bytes_written.sum();
+      readLatency = new long[NUM_BUCKETS];
+      writeLatency = new long[NUM_BUCKETS];
+      for (int i = 0; i < NUM_BUCKETS; i++) {
+        readLatency[i] = counters.read_lat.get(i);
+        writeLatency[i] = counters.write_lat.get(i);
+      }
+    }
+
+    public String toString() {
+      return "file " + (file.isEmpty() ? "(none)" : file) + ", role " + role
+          + ": " + reads + " reads (" + bytesRead + " bytes, p50 "
+          + percentile(readLatency, 0.5) + " us, p99 "
+          + percentile(readLatency, 0.99) + " us), " + writes + " writes ("
+          + bytesWritten + " bytes, p50 " + percentile(writeLatency, 0.5)
+          + " us, p99 " + percentile(writeLatency, 0.99) + " us)";
+    }
+
+  } // public static class Snapshot
+
+  // --------------------------------------------------------------------------
+
+  /** The counters, by file name and then role. */
+  protected final ConcurrentHashMap<String, Counters[]> files;
+
+  /**
+   * Constructs empty statistics.
+   */
+  public IOStats() {
+    files = new ConcurrentHashMap<String, Counters[]>();
+  }
+
+  /**
+   * Charges a transfer to the calling thread's file and role.
+   *
+   * @param write true for a write, false for a read
+   * @param pages number of pages moved
+   * @param bytes number of bytes moved
+   * @param nanos time the transfer took
+   */
+  public void record(boolean write, int pages, long bytes, long nanos) {
+    Context ctx = context.get();
+    Counters counters = getCounters(ctx.file, ctx.role);
+    int bucket = Math.min(NUM_BUCKETS - 1,
+        64 - Long.numberOfLeadingZeros(nanos / 1000));
+    if (write) {
+      counters.writes.add(pages);
+      counters.bytes_written.add(bytes);
+      counters.write_lat.incrementAndGet(bucket);
+    } else {
+      counters.reads.add(pages);
+      counters.bytes_read.add(bytes);
+      counters.read_lat.incrementAndGet(bucket);
+    }
+  } // public void record(boolean write, int pages, long bytes, long nanos)
+
+  /**
+   * Takes a snapshot of the counters of every file and role with any I/O,
+   * ordered by file name and then role.
+   */
+  public List<Snapshot> snapshot() {
+    List<Snapshot> list = new ArrayList<Snapshot>();
+    for (Map.Entry<String, Counters[]> entry : files.entrySet()) {
+      Counters[] roles = entry.getValue();
+      for (int role = 0; role < NUM_ROLES; role++) {
+        Snapshot snap = new Snapshot(entry.getKey(), role, roles[role]);
+        if ((snap.reads > 0) || (snap.writes > 0)) {
+          list.add(snap);
+        }
+      }
+    }
+    Collections.sort(list, new Comparator<Snapshot>() {
+      public int compare(Snapshot a, Snapshot b) {
+        int cmp = a.file.compareTo(b.file);
+        return (cmp != 0) ? cmp : Integer.compare(a.role, b.role);
+      }
+    });
+    return list;
+  } // public List<Snapshot> snapshot()
+
+  /**
+   * Gets the counters of the given file and role, creating them on first use.
+   */
+  protected Counters getCounters(String file, int role) {
+    Counters[] roles = files.get(file);
+    if (roles == null) {
+      roles = new Counters[NUM_ROLES];
+      for (int i = 0; i < NUM_ROLES; i++) {
+        roles[i] = new Counters();
+      }
+      Counters[] raced = files.putIfAbsent(file, roles);
+      if (raced != null) {
+        roles = raced;
+      }
+    }
+    return roles[role];
+  }
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Gets the file the calling thread's I/O is charged to.
+   */
+  public static String getFile() {
+    return context.get().file;
+  }
+
+  /**
+   * Gets the page role the calling thread's I/O is charged to.
+   */
+  public static int getRole() {
+    return context.get().role;
+  }
+
+  /**
+   * Charges the calling thread's I/O to the given file, keeping its page
+   * role, until restored.
+   *
+   * @return the previous attribution, to pass to restore
+   */
+  public static Context attribute(String file) {
+    Context prev = context.get();
+    context.set(new Context(file, prev.role));
+    return prev;
+  }
+
+  /**
+   * Charges the calling thread's I/O to the given file and role, until
+   * restored.
+   *
+   * @return the previous attribution, to pass to restore
+   */
+  public static Context attribute(String file, int role) {
+    Context prev = context.get();
+    context.set(new Context(file, role));
+    return prev;
+  }
+
+  /**
+   * Restores an attribution returned by attribute.
+   */
+  public static void restore(Context prev) {
+    context.set(prev);
+  }
+
+  /**
+   * Gets the latency below which the given share of a histogram's transfers
+   * completed, rounded up to its bucket's bound.
+   *
+   * @param fraction share of transfers, from 0 to 1
+   * @return the bound in microseconds, or 0 if the histogram is empty
+   */
+  public static long percentile(long[] histogram, double fraction) {
+    long total = 0;
+    for (long count : histogram) {
+      total += count;
+    }
+    if (total == 0) {
+      return 0;
+    }
+    long rank = (long) Math.ceil(fraction * total);
+    long seen = 0;
+    for (int i = 0; i < histogram.length; i++) {
+      seen += histogram[i];
+      if (seen >= Math.max(1, rank)) {
+        return 1L << i;
+      }
+    }
+    return 1L << (histogram.length - 1);
+  } // public static long percentile(long[] histogram, double fraction)
+
+} // public class IOStats implements GlobalConst
@@ -0,0 +1,171 @@
+package diskmgr;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Page store that maps the file into memory in fixed-size segments. Pages are
+ * copied straight between the mapping and the caller's buffers, with no
+ * system call per transfer and no shared file position, so transfers run
+ * concurrently. Segments are mapped on first use (and remapped when the file
+ * grows); force writes back only the segments written since the last force.
+ * <p>
+ * Mappings are released only when garbage collected, so a closed store may
+ * hold on to address space (and, on some platforms, the file) for a while.
+ */
+class MappedPageStore implements PageStore {
+
+  /** Size of each mapped segment, in bytes. */
+  protected static final int SEGMENT_SIZE = 64 * 1024 * 1024;
+
+  // --------------------------------------------------------------------------
+
+  /** Reference to the OS file. */
+  protected final RandomAccessFile fp;
+
+  /** The file's channel, used for mapping. */
+  protected final FileChannel channel;
+
+  /** Mapped segments, or null where not yet mapped. */
+  protected MappedByteBuffer[] segments;
+
+  /** True for the segments written since the last force. */
+  protected boolean[] dirty;
+
+  /** Current length of the file, in bytes. */
+  protected long length;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Opens (or creates) the given file.
+   */
+  public MappedPageStore(String fname) throws IOException {
+    fp = new RandomAccessFile(fname, "rw");
+    channel = fp.getChannel();
+    length = fp.length();
+    segments = new MappedByteBuffer[0];
+    dirty = new boolean[0];
+  }
+
+  public synchronized long length() {
+    return length;
+  }
+
+  public synchronized void setLength(long length) throws IOException {
+
+    // write back and drop the segments that no longer fit entirely
+    if (length < this.length) {
+      force();
+      int keep = (int) (length / SEGMENT_SIZE);
+      Arrays.fill(segments, Math.min(keep, segments.length), segments.length,
+          null);
+    }
+    fp.setLength(length);
+    this.length = length;
+
+  } // public synchronized void setLength(long length)
+
+  public void read(long offset, ByteBuffer... bufs) throws IOException {
+    for (ByteBuffer buf : bufs) {
+      while (buf.hasRemaining()) {
+
+        // stop at the end of the file
+        ByteBuffer src = slice(offset, buf.remaining(), false);
+        if (src == null) {
+          return;
+        }
+        int len = src.remaining();
+        buf.put(src);
+        offset += len;
+
+      } // while
+    } // for
+  } // public void read(long offset, ByteBuffer... bufs)
+
+  public void write(long offset, ByteBuffer... bufs) throws IOException {
+    for (ByteBuffer buf : bufs) {
+      while (buf.hasRemaining()) {
+
+        // copy as much as fits in the segment
+        ByteBuffer dst = slice(offset, buf.remaining(), true);
+        int len = dst.remaining();
+        ByteBuffer src = buf.duplicate();
+        src.limit(src.position() + len);
+        dst.put(src);
+        buf.position(buf.position() + len);
+        offset += len;
+
+      } // while
+    } // for
+  } // public void write(long offset, ByteBuffer... bufs)
+
+  public synchronized void force() {
+    for (int i = 0; i < segments.length; i++) {
+      if (dirty[i] && (segments[i] != null)) {
+        segments[i].force();
+        dirty[i] = false;
+      }
+    }
+  }
+
+  public synchronized void close() throws IOException {
+    force();
+    segments = new MappedByteBuffer[0];
+    dirty = new boolean[0];
+    fp.close();
+  }
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Gets a view of the mapping from the given offset, up to the given length
+   * but not past the end of its segment; writing extends the file as needed.
+   *
+   * @return the view, or null if reading at or past the end of the file
+   */
+  protected synchronized ByteBuffer slice(long offset, int len, boolean write)
+      throws IOException {
+
+    // extend the file for writes, and stop reads at the end
+    if (offset + len > length) {
+      if (write) {
+        setLength(offset + len);
+      } else if (offset >= length) {
+        return null;
+      } else {
+        len = (int) (length - offset);
+      }
+    }
+
+    // map the segment, or remap it if the file grew past its end
+    int seg = (int) (offset / SEGMENT_SIZE);
+    int pos = (int) (offset % SEGMENT_SIZE);
+    if (seg >= segments.length) {
+      segments = Arrays.copyOf(segments, seg + 1);
+      dirty = Arrays.copyOf(dirty, seg + 1);
+    }
+    long start = (long) seg * SEGMENT_SIZE;
+    int size = (int) Math.min(SEGMENT_SIZE, length - start);
+    if ((segments[seg] == null) || (segments[seg].capacity() < size)) {
+      if (dirty[seg]) {
+        segments[seg].force();
+      }
+      segments[seg] = channel.map(FileChannel.MapMode.READ_WRITE, start, size);
+    }
+    if (write) {
+      dirty[seg] = true;
+    }
+
+    // view the requested range
+    ByteBuffer view = segments[seg].duplicate();
+    view.limit(Math.min(pos + len, size)).position(pos);
+    return view;
+
+  } // protected synchronized ByteBuffer slice(long offset, int len, ...)
+
+} // class MappedPageStore implements PageStore
@@ -0,0 +1,44 @@
+package diskmgr;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Storage backend holding the bytes of a database file. Offsets are absolute
+ * byte positions in the file; the disk manager does all page bookkeeping, and
+ * stores only move bytes. Implementations must be safe for concurrent use.
+ */
+interface PageStore {
+
+  /**
+   * Gets the length of the file, in bytes.
+   */
+  long length() throws IOException;
+
+  /**
+   * Sets the length of the file, in bytes, extending or truncating it.
+   */
+  void setLength(long length) throws IOException;
+
+  /**
+   * Reads bytes at the given offset until the buffers are full or the end of
+   * the file is reached.
+   */
+  void read(long offset, ByteBuffer... bufs) throws IOException;
+
+  /**
+   * Writes the remaining bytes of the buffers at the given offset.
+   */
+  void write(long offset, ByteBuffer... bufs) throws IOException;
+
+  /**
+   * Forces all writes so far to the storage device.
+   */
+  void force() throws IOException;
+
+  /**
+   * Closes the file, after writing out anything the store still holds.
+   */
+  void close() throws IOException;
+
+} // interface PageStore
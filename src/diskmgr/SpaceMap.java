@@ -0,0 +1,419 @@
+package diskmgr;
+
+import global.GlobalConst;
+import global.Minibase;
+import global.Page;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * In-memory mirror of the space map, one bit per database page held in long
+ * words; bit i of word w stands for page 64 * w + i, the same order as the
+ * bytes of the on-disk map read little-endian. Besides the bits, the mirror
+ * keeps the number of allocated pages, the number of free pages covered by
+ * each space-map page (so full map pages are skipped whole), a bound below
+ * which no page is free (for first-fit searches, which keep pages low so the
+ * file can be trimmed), and a next-fit hint where the last search left off.
+ * <p>
+ * Space-map pages can be loaded one at a time, as they are needed: until its
+ * page is loaded, every bit it covers reads as allocated and the page has no
+ * free pages, so searches pass over it; the bits must not be changed before
+ * then. The allocated count covers loaded pages only. The disk manager
+ * serializes all use.
+ */
+class SpaceMap implements GlobalConst {
+
+  /** Number of bits in a word. */
+  protected static final int WORD_BITS = 64;
+
+  // --------------------------------------------------------------------------
+
+  /** Number of words covered by each space-map page. */
+  protected final int wordsPerPage;
+
+  /** Number of bits covered by each space-map page. */
+  protected final int bitsPerPage;
+
+  /** The bits, one per database page; 1 means allocated. */
+  protected long[] words;
+
+  /** Number of database pages, i.e. valid bits. */
+  protected int numbits;
+
+  /** Number of free pages covered by each space-map page. */
+  protected int[] free;
+
+  /** Number of allocated pages, among those covered by loaded map pages. */
+  protected int allocated;
+
+  /** Which space-map pages have been loaded. */
+  protected boolean[] loaded;
+
+  /** Number of space-map pages loaded. */
+  protected int num_loaded;
+
+  /** Index below which every space-map page is loaded. */
+  protected int unloaded_from;
+
+  /** Page id where the next next-fit search starts. */
+  protected int hint;
+
+  /** Page id below which every page is allocated (or not loaded yet). */
+  protected int low;
+
+  /** True to search from the lowest page ids, false for next-fit. */
+  protected boolean first_fit;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Constructs a map of the given number of pages, either all free and
+   * loaded (for a new database) or with no map page loaded yet.
+   */
+  public SpaceMap(int numbits, boolean loaded) {
+    wordsPerPage = Minibase.PageSize / 8;
+    bitsPerPage = Minibase.PageSize * 8;
+    this.numbits = numbits;
+    words = new long[ceilDiv(numbits, WORD_BITS)];
+    int num_map_pages = getNumMapPages();
+    free = new int[num_map_pages];
+    this.loaded = new boolean[num_map_pages];
+    for (int i = 0; i < num_map_pages; i++) {
+      free[i] = loaded ? covered(i) : 0;
+      this.loaded[i] = loaded;
+    }
+    if (!loaded) {
+      Arrays.fill(words, -1L);
+      if (words.length > 0) {
+        words[words.length - 1] &= validMask(words.length - 1);
+      }
+    }
+    num_loaded = loaded ? num_map_pages : 0;
+    unloaded_from = num_loaded;
+    allocated = 0;
+    hint = 0;
+    low = 0;
+    first_fit = true;
+  }
+
+  /**
+   * Extends the map to the given number of pages, all of them free.
+   */
+  public void grow(int numbits) {
+
+    // the last map page gains the new bits up to its end
+    int old_map_pages = getNumMapPages();
+    if ((old_map_pages > 0) && loaded[old_map_pages - 1]) {
+      int end = (int) Math.min(numbits, (long) old_map_pages * bitsPerPage);
+      free[old_map_pages - 1] += end - this.numbits;
+    }
+
+    // new map pages cover the rest
+    this.numbits = numbits;
+    words = Arrays.copyOf(words, ceilDiv(numbits, WORD_BITS));
+    int num_map_pages = getNumMapPages();
+    free = Arrays.copyOf(free, num_map_pages);
+    loaded = Arrays.copyOf(loaded, num_map_pages);
+    for (int i = old_map_pages; i < num_map_pages; i++) {
+      free[i] = covered(i);
+      loaded[i] = true;
+    }
+    num_loaded += num_map_pages - old_map_pages;
+
+  } // public void grow(int numbits)
+
+  /**
+   * Cuts the map down to the given number of pages; the map must be fully
+   * loaded, and the pages cut off must all be free.
+   */
+  public void shrink(int numbits) {
+    this.numbits = numbits;
+    words = Arrays.copyOf(words, ceilDiv(numbits, WORD_BITS));
+    if (words.length > 0) {
+      words[words.length - 1] &= validMask(words.length - 1);
+    }
+    int num_map_pages = getNumMapPages();
+    free = Arrays.copyOf(free, num_map_pages);
+    loaded = Arrays.copyOf(loaded, num_map_pages);
+    num_loaded = num_map_pages;
+    unloaded_from = num_map_pages;
+    if (num_map_pages > 0) {
+      int last = num_map_pages - 1;
+      int used = 0;
+      for (int w = last * wordsPerPage; w < words.length; w++) {
+        used += Long.bitCount(words[w]);
+      }
+      free[last] = numbits - last * bitsPerPage - used;
+    }
+    hint = (hint < numbits) ? hint : 0;
+    low = Math.min(low, numbits);
+  } // public void shrink(int numbits)
+
+  /**
+   * Gets the number of space-map pages.
+   */
+  public int getNumMapPages() {
+    return ceilDiv(numbits, bitsPerPage);
+  }
+
+  /**
+   * Gets the number of allocated pages, among those covered by loaded map
+   * pages.
+   */
+  public int getAllocCount() {
+    return allocated;
+  }
+
+  /**
+   * True if the given space-map page has been loaded; false otherwise.
+   */
+  public boolean isLoaded(int mapno) {
+    return loaded[mapno];
+  }
+
+  /**
+   * True if every space-map page has been loaded; false otherwise.
+   */
+  public boolean isComplete() {
+    return (num_loaded == loaded.length);
+  }
+
+  /**
+   * Gets the first space-map page not loaded yet.
+   *
+   * @return its index, or -1 if every page is loaded
+   */
+  public int nextUnloaded() {
+    while ((unloaded_from < loaded.length) && loaded[unloaded_from]) {
+      unloaded_from++;
+    }
+    return (unloaded_from < loaded.length) ? unloaded_from : -1;
+  }
+
+  /**
+   * Loads the bits held by the given space-map page, which must not be
+   * loaded yet.
+   *
+   * @param mapno index of the space-map page (0 for database page 1)
+   */
+  public void load(int mapno, Page mappage) {
+    ByteBuffer buf = mappage.getBuffer().duplicate()
+        .order(ByteOrder.LITTLE_ENDIAN);
+    int first = mapno * wordsPerPage;
+    int last = Math.min(words.length, first + wordsPerPage);
+    int count = 0;
+    for (int w = first; w < last; w++) {
+      words[w] = buf.getLong((w - first) * 8) & validMask(w);
+      count += Long.bitCount(words[w]);
+    }
+    free[mapno] = covered(mapno) - count;
+    allocated += count;
+    loaded[mapno] = true;
+    num_loaded++;
+
+    // searches may have moved past the page while it read as full
+    if (free[mapno] > 0) {
+      low = Math.min(low, mapno * bitsPerPage);
+    }
+  }
+
+  /**
+   * Stores the given range of words into their space-map page.
+   *
+   * @param mapno index of the space-map page holding the words
+   */
+  public void store(int mapno, Page mappage, int firstword, int lastword) {
+    ByteBuffer buf = mappage.getBuffer().duplicate()
+        .order(ByteOrder.LITTLE_ENDIAN);
+    int first = mapno * wordsPerPage;
+    for (int w = firstword; w <= lastword; w++) {
+      buf.putLong((w - first) * 8, words[w]);
+    }
+    mappage.markChanged((firstword - first) * 8,
+        (lastword - firstword + 1) * 8);
+  }
+
+  /**
+   * Finds a run of free pages: the lowest one for first-fit, otherwise the
+   * first one from the next-fit hint to the end of the map, then from the
+   * start.
+   *
+   * @return the first page id of the run, or -1 if there is none
+   */
+  public int find(int run_size) {
+    if (first_fit) {
+      while ((low < numbits) && (free[low / bitsPerPage] == 0)) {
+        low = (int) Math.min(numbits, (low / bitsPerPage + 1L) * bitsPerPage);
+      }
+      int lowest = nextBit(low, false);
+      low = (lowest < 0) ? numbits : lowest;
+      return find(low, numbits, run_size);
+    }
+    int start = (run_size <= numbits - hint) ? hint : 0;
+    int pid = find(start, numbits, run_size);
+    if ((pid < 0) && (start > 0)) {
+      pid = find(0, start, run_size);
+    }
+    return pid;
+  }
+
+  /**
+   * Sets a run of bits to the given value, moving the next-fit hint past the
+   * run when allocating, and keeping the first-fit bound; the map pages
+   * covering the run must be loaded.
+   *
+   * @return the change in the number of allocated pages
+   */
+  public int set(int first, int run_size, boolean value) {
+
+    int before = allocated;
+    int end = first + run_size;
+    for (int pid = first; pid < end; ) {
+
+      // update the bits held by one word at a time
+      int w = pid / WORD_BITS;
+      int lo = pid % WORD_BITS;
+      int n = Math.min(WORD_BITS - lo, end - pid);
+      long mask = (n == WORD_BITS) ? -1L : ((1L << n) - 1) << lo;
+      long old = words[w];
+      words[w] = value ? (old | mask) : (old & ~mask);
+
+      // keep the counters in step with the bits that actually changed
+      int changed = Long.bitCount((old ^ words[w]) & mask);
+      int mapno = pid / bitsPerPage;
+      if (value) {
+        allocated += changed;
+        free[mapno] -= changed;
+      } else {
+        allocated -= changed;
+        free[mapno] += changed;
+      }
+      pid += n;
+
+    } // for
+
+    if (value) {
+      hint = (end < numbits) ? end : 0;
+      if ((first <= low) && (low < end)) {
+        low = end;
+      }
+    } else {
+      low = Math.min(low, first);
+    }
+    return allocated - before;
+
+  } // public int set(int first, int run_size, boolean value)
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Finds the first run of free pages starting in [from, to).
+   *
+   * @return the first page id of the run, or -1 if there is none
+   */
+  protected int find(int from, int to, int run_size) {
+
+    int pid = from;
+    while (pid < to) {
+
+      // skip whole space-map pages with nothing free
+      int mapno = pid / bitsPerPage;
+      if (free[mapno] == 0) {
+        pid = (mapno + 1) * bitsPerPage;
+        continue;
+      }
+
+      // find the next free page, then where its run of free pages ends
+      int start = nextBit(pid, false);
+      if ((start < 0) || (start >= to)) {
+        return -1;
+      }
+      int end = nextBit(start, true);
+      if (end < 0) {
+        end = numbits;
+      }
+      if (end - start >= run_size) {
+        return start;
+      }
+      pid = end;
+
+    } // while
+    return -1;
+
+  } // protected int find(int from, int to, int run_size)
+
+  /**
+   * Finds the next page id, from the given one, whose bit has the given
+   * value.
+   *
+   * @return the page id, or -1 if there is none
+   */
+  protected int nextBit(int from, boolean value) {
+    if (from >= numbits) {
+      return -1;
+    }
+    int w = from / WORD_BITS;
+    long word = (value ? words[w] : ~words[w]) & (-1L << (from % WORD_BITS));
+    while (true) {
+      word &= validMask(w);
+      if (word != 0) {
+        return w * WORD_BITS + Long.numberOfTrailingZeros(word);
+      }
+      if (++w >= words.length) {
+        return -1;
+      }
+      word = value ? words[w] : ~words[w];
+    }
+  }
+
+  /**
+   * Finds the last page id, up to the given one, whose bit has the given
+   * value.
+   *
+   * @return the page id, or -1 if there is none
+   */
+  protected int prevBit(int from, boolean value) {
+    if (from < 0) {
+      return -1;
+    }
+    int w = from / WORD_BITS;
+    int hi = from % WORD_BITS;
+    long mask = (hi == WORD_BITS - 1) ? -1L : (1L << (hi + 1)) - 1;
+    long word = (value ? words[w] : ~words[w]) & mask;
+    while (true) {
+      word &= validMask(w);
+      if (word != 0) {
+        return w * WORD_BITS + WORD_BITS - 1 - Long.numberOfLeadingZeros(word);
+      }
+      if (--w < 0) {
+        return -1;
+      }
+      word = value ? words[w] : ~words[w];
+    }
+  }
+
+  /**
+   * Gets the number of database pages covered by the given space-map page.
+   */
+  protected int covered(int mapno) {
+    return (int) Math.min(bitsPerPage, numbits - (long) mapno * bitsPerPage);
+  }
+
+  /**
+   * Gets the mask of the bits of the given word that stand for pages.
+   */
+  protected long validMask(int w) {
+    int valid = numbits - w * WORD_BITS;
+    return (valid >= WORD_BITS) ? -1L : (1L << valid) - 1;
+  }
+
+  /**
+   * Divides, rounding up, without overflowing for counts near the int limit.
+   */
+  protected static int ceilDiv(int count, int size) {
+    return count / size + ((count % size == 0) ? 0 : 1);
+  }
+
+} // class SpaceMap implements GlobalConst
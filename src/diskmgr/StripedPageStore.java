@@ -0,0 +1,232 @@
+package diskmgr;
+
+import global.Minibase;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Page store that stripes the pages of a database across several data files,
+ * each normally on its own device. Pages are dealt out in stripes of
+ * STRIPE_PAGES adjacent pages, one stripe per file in turn, so each file
+ * holds every N-th stripe back to back. A run of pages spanning several
+ * stripes thus becomes one contiguous transfer per file; these are queued on
+ * each file's own I/O threads and run at the same time, so long reads and
+ * flushes use every device at once.
+ */
+class StripedPageStore implements PageStore {
+
+  /** Number of adjacent pages kept together in one file. */
+  protected static final int STRIPE_PAGES = 8;
+
+  /** Number of I/O threads serving each file. */
+  protected static final int FILE_THREADS = 2;
+
+  /** Maximum number of transfers waiting for each file's threads. */
+  protected static final int FILE_QUEUE_DEPTH = 16;
+
+  // --------------------------------------------------------------------------
+
+  /** The data files, in stripe order. */
+  protected final PageStore[] files;
+
+  /** Each file's I/O threads. */
+  protected final IOPool[] queues;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Constructs a store over the given data files.
+   */
+  public StripedPageStore(PageStore[] files) {
+    this.files = files;
+    queues = new IOPool[files.length];
+    for (int i = 0; i < files.length; i++) {
+      queues[i] = new IOPool(FILE_THREADS, FILE_QUEUE_DEPTH);
+    }
+  }
+
+  public long length() throws IOException {
+    long length = 0;
+    for (PageStore file : files) {
+      length += file.length();
+    }
+    return length;
+  }
+
+  public void setLength(long length) throws IOException {
+
+    // each file gets its share of the whole stripes, and the file next in
+    // turn the partial one
+    long pages = length / Minibase.PageSize;
+    long stripes = pages / STRIPE_PAGES;
+    for (int i = 0; i < files.length; i++) {
+      long mine = stripes / files.length
+          + ((i < stripes % files.length) ? 1 : 0);
+      long local = mine * STRIPE_PAGES;
+      if (i == stripes % files.length) {
+        local += pages % STRIPE_PAGES;
+      }
+      files[i].setLength(local * Minibase.PageSize);
+    }
+
+  } // public void setLength(long length)
+
+  public void read(long offset, ByteBuffer... bufs) throws IOException {
+    transfer(false, offset, bufs);
+  }
+
+  public void write(long offset, ByteBuffer... bufs) throws IOException {
+    transfer(true, offset, bufs);
+  }
+
+  public void force() throws IOException {
+    for (PageStore file : files) {
+      file.force();
+    }
+  }
+
+  public void close() throws IOException {
+    for (IOPool queue : queues) {
+      queue.shutdown();
+    }
+    try {
+      for (IOPool queue : queues) {
+        while (!queue.awaitTermination(1, TimeUnit.SECONDS)) {
+          // let outstanding transfers finish
+        }
+      }
+    } catch (InterruptedException exc) {
+      Thread.currentThread().interrupt();
+      throw new IOException(exc);
+    }
+    for (PageStore file : files) {
+      file.close();
+    }
+  } // public void close()
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Moves a run of whole pages, splitting it into one contiguous transfer per
+   * data file; the first file's part is moved by the caller while the others
+   * are queued on their own files' threads.
+   */
+  protected void transfer(final boolean write, long offset, ByteBuffer[] bufs)
+      throws IOException {
+
+    // a single page goes straight to its file
+    int pagesize = Minibase.PageSize;
+    long firstpid = offset / pagesize;
+    if (bufs.length == 1) {
+      long stripe = firstpid / STRIPE_PAGES;
+      move(write, files[(int) (stripe % files.length)],
+          ((stripe / files.length) * STRIPE_PAGES + firstpid % STRIPE_PAGES)
+              * pagesize, bufs);
+      return;
+    }
+
+    // split the pages by file; each file's share of a run is contiguous
+    List<List<ByteBuffer>> parts = new ArrayList<List<ByteBuffer>>();
+    long[] starts = new long[files.length];
+    int[] order = new int[files.length];
+    int numparts = 0;
+    for (int i = 0; i < bufs.length; i++) {
+      long pid = firstpid + i;
+      long stripe = pid / STRIPE_PAGES;
+      int fileno = (int) (stripe % files.length);
+      int part = indexOf(order, numparts, fileno);
+      if (part < 0) {
+        part = numparts++;
+        order[part] = fileno;
+        starts[part] = ((stripe / files.length) * STRIPE_PAGES
+            + pid % STRIPE_PAGES) * pagesize;
+        parts.add(new ArrayList<ByteBuffer>());
+      }
+      parts.get(part).add(bufs[i]);
+    }
+
+    // a run within one file needs no other threads
+    if (numparts == 1) {
+      move(write, files[order[0]], starts[0], bufs);
+      return;
+    }
+
+    // queue the other files' parts, and move the first one meanwhile
+    List<Future<?>> pending = new ArrayList<Future<?>>();
+    IOException failure = null;
+    try {
+      for (int part = 1; part < numparts; part++) {
+        final PageStore file = files[order[part]];
+        final long start = starts[part];
+        final ByteBuffer[] mine = parts.get(part).toArray(new ByteBuffer[0]);
+        pending.add(queues[order[part]].submit(new Callable<Void>() {
+          public Void call() throws IOException {
+            move(write, file, start, mine);
+            return null;
+          }
+        }));
+      }
+      move(write, files[order[0]], starts[0],
+          parts.get(0).toArray(new ByteBuffer[0]));
+    } catch (RejectedExecutionException exc) {
+      failure = new IOException("Data file queue is shut down", exc);
+    } catch (IOException exc) {
+      failure = exc;
+    }
+
+    // wait for every part (whose buffers are in use until then), and report
+    // the first failure
+    for (Future<?> future : pending) {
+      try {
+        future.get();
+      } catch (ExecutionException exc) {
+        if (failure == null) {
+          failure = (exc.getCause() instanceof IOException)
+              ? (IOException) exc.getCause() : new IOException(exc.getCause());
+        }
+      } catch (InterruptedException exc) {
+        Thread.currentThread().interrupt();
+        throw new IOException(exc);
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+
+  } // protected void transfer(boolean write, long offset, ByteBuffer[] bufs)
+
+  /**
+   * Moves a contiguous part of a run to or from one data file.
+   */
+  protected static void move(boolean write, PageStore file, long offset,
+      ByteBuffer[] bufs) throws IOException {
+    if (write) {
+      file.write(offset, bufs);
+    } else {
+      file.read(offset, bufs);
+    }
+  }
+
+  /**
+   * Finds a file number among the first count entries of the given array.
+   *
+   * @return its index, or -1 if it is not there
+   */
+  protected static int indexOf(int[] order, int count, int fileno) {
+    for (int i = 0; i < count; i++) {
+      if (order[i] == fileno) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+} // class StripedPageStore implements PageStore
@@ -0,0 +1,117 @@
+package global;
+
+import java.util.Arrays;
+
+/**
+ * The byte ranges of a page changed since they were last taken, recorded by
+ * the page's mutators while the page is a buffer pool frame whose changes are
+ * logged (see bufmgr.BufMgr). At most MAX_RANGES are kept, the two closest
+ * being joined when there would be more; and they are only held while there
+ * are changes, so a clean frame costs no more than this object. Every view of
+ * a page shares its instance, which is locked by its own monitor.
+ */
+public class ChangedRanges {
+
+  /** Most ranges kept before the closest two are joined. */
+  public static final int MAX_RANGES = 8;
+
+  // --------------------------------------------------------------------------
+
+  /** True if changes are being recorded. */
+  protected boolean enabled;
+
+  /**
+   * Start and end (exclusive) of each range, sorted and disjoint, with room
+   * for one range more than kept; null while there are none.
+   */
+  protected int[] bounds;
+
+  /** Number of ranges held. */
+  protected int count;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Constructs an empty set of ranges, not recording changes.
+   */
+  public ChangedRanges() {
+    enabled = false;
+    bounds = null;
+    count = 0;
+  }
+
+  /**
+   * Forgets any ranges held, and starts or stops recording changes.
+   */
+  public synchronized void reset(boolean enabled) {
+    this.enabled = enabled;
+    bounds = null;
+    count = 0;
+  }
+
+  /**
+   * Records a change to the given bytes, joining it with any range it
+   * overlaps or touches.
+   */
+  public synchronized void add(int offset, int length) {
+
+    if (!enabled || (length <= 0)) {
+      return;
+    }
+    if (bounds == null) {
+      bounds = new int[2 * (MAX_RANGES + 1)];
+    }
+
+    // absorb the ranges that overlap or touch the new one
+    int start = offset;
+    int end = offset + length;
+    int first = 0;
+    while ((first < count) && (bounds[2 * first + 1] < start)) {
+      first++;
+    }
+    int last = first;
+    while ((last < count) && (bounds[2 * last] <= end)) {
+      start = Math.min(start, bounds[2 * last]);
+      end = Math.max(end, bounds[2 * last + 1]);
+      last++;
+    }
+    System.arraycopy(bounds, 2 * last, bounds, 2 * (first + 1),
+        2 * (count - last));
+    bounds[2 * first] = start;
+    bounds[2 * first + 1] = end;
+    count += 1 - (last - first);
+
+    // if there is one too many, join the two with the smallest gap
+    if (count > MAX_RANGES) {
+      int closest = 0;
+      for (int i = 1; i < count - 1; i++) {
+        if (bounds[2 * i + 2] - bounds[2 * i + 1]
+            < bounds[2 * closest + 2] - bounds[2 * closest + 1]) {
+          closest = i;
+        }
+      }
+      bounds[2 * closest + 1] = bounds[2 * closest + 3];
+      System.arraycopy(bounds, 2 * closest + 4, bounds, 2 * closest + 2,
+          2 * (count - closest - 2));
+      count--;
+    }
+
+  } // public synchronized void add(int offset, int length)
+
+  /**
+   * Takes the ranges recorded so far, leaving none.
+   *
+   * @return the start and end (exclusive) of each range in order, or null if
+   * nothing has changed
+   */
+  public synchronized int[] take() {
+    if (count == 0) {
+      return null;
+    }
+    int[] taken = Arrays.copyOf(bounds, 2 * count);
+    bounds = null;
+    count = 0;
+    return taken;
+  }
+
+} // public class ChangedRanges
@@ -9,10 +9,15 @@ public interface GlobalConst {
   // Disk Manager Constants
   //
 
-  /** Size of a page, in bytes. 1024 is artificially small 
-   * so we can get lots of I/Os with small data files */
+  /** Default (and smallest) size of a page, in bytes. 1024 is artificially small 
+   * so we can get lots of I/Os with small data files; each database may use a
+   * larger size (see Minibase.PageSize). The first page of a database keeps
+   * its own fields within its first PAGE_SIZE bytes. */
   public static final int PAGE_SIZE = 1024;
 
+  /** Largest page size, in bytes; page offsets are stored as shorts. */
+  public static final int MAX_PAGE_SIZE = 16384;
+
   /** Page number of an invalid page (i.e. null pointer). */
   public static final int INVALID_PAGEID = -1;
 
@@ -41,6 +46,18 @@ public interface GlobalConst {
   /** Optimization to avoid writing to disk when unpinned. */
   public static final boolean UNPIN_CLEAN = false;
 
+  /** Page role of data pages (the default); roles select buffer pools. */
+  public static final int ROLE_DATA = 0;
+
+  /** Page role of heap file directory pages. */
+  public static final int ROLE_DIRECTORY = 1;
+
+  /** Page role of space-map pages. */
+  public static final int ROLE_SPACE_MAP = 2;
+
+  /** Page role of the database header and file library pages. */
+  public static final int ROLE_HEADER = 3;
+
   //
   // Heap File Constants
   //
@@ -55,7 +72,7 @@ public interface GlobalConst {
   /** Maximum length of a column (in bytes). */
   public static final int MAX_COLSIZE = 1001;
 
-  /** Maximum length of a tuple (in bytes). */
+  /** Maximum length of a tuple (in bytes), at the default page size. */
   public static final int MAX_TUPSIZE = 1004;
 
 } // public interface GlobalConst
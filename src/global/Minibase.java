@@ -18,6 +18,33 @@ public class Minibase {
   /** The Minibase Buffer Manager. */
   public static BufMgr BufferManager;
 
+  /**
+   * True to save the buffer pool's hot pages when the database is closed, and
+   * reload them in the background when it is opened again.
+   */
+  public static boolean WarmRestart = false;
+
+  /**
+   * Page size of the database, in bytes; set it before creating a database,
+   * and it is replaced by the stored size when one is opened.
+   */
+  public static int PageSize = GlobalConst.PAGE_SIZE;
+
+  /**
+   * Number of data files a new database's pages are striped across; files
+   * after the first are named after it with suffixes .1, .2, etc, and may be
+   * links to other devices. An opened database keeps its own number.
+   */
+  public static int DataFiles = 1;
+
+  /**
+   * True to log every page change to a write-ahead log next to the database
+   * (named after it with the suffix .wal), so that changes made durable with
+   * DiskMgr.commit survive a crash. A log left by a crash is replayed when
+   * the database is opened, whether or not this is set.
+   */
+  public static boolean WriteAheadLog = false;
+
   // --------------------------------------------------------------------------
 
   /**
@@ -32,7 +59,24 @@ public class Minibase {
       boolean exists) {
 
     // simply initialize the database
-    init(dbname, num_pgs, bufpoolsize, exists);
+    init(dbname, num_pgs, bufpoolsize, exists, DiskMgr.STORE_FILE);
+
+  } // constructor
+
+  /**
+   * Constructs and starts an instance of Minibase, given the configuration.
+   * 
+   * @param dbname Name of the data file
+   * @param num_pgs Number of pages to allocate
+   * @param bufpoolsize Buffer pool size (in pages)
+   * @param exists If the database already exists on disk
+   * @param storage DiskMgr.STORE_FILE, STORE_MAPPED or STORE_DIRECT
+   */
+  public Minibase(String dbname, int num_pgs, int bufpoolsize,
+      boolean exists, int storage) {
+
+    // simply initialize the database
+    init(dbname, num_pgs, bufpoolsize, exists, storage);
 
   } // constructor
 
@@ -46,13 +90,30 @@ public class Minibase {
    */
   public void init(String dbname, int num_pgs, int bufpoolsize,
       boolean exists) {
+    init(dbname, num_pgs, bufpoolsize, exists, DiskMgr.STORE_FILE);
+  }
+
+  /**
+   * Initializes the current instance of Minibase with the given configuration.
+   * 
+   * @param dbname Name of the data file
+   * @param num_pgs Number of pages to allocate
+   * @param bufpoolsize Buffer pool size (in pages)
+   * @param exists If the database already exists on disk
+   * @param storage DiskMgr.STORE_FILE, STORE_MAPPED or STORE_DIRECT
+   */
+  public void init(String dbname, int num_pgs, int bufpoolsize,
+      boolean exists, int storage) {
 
     // save the file name
     DatabaseName = dbname;
 
-    // load the static layers
+    // load the static layers, sizing pages for the database
     try {
-      DiskManager = new DiskMgr();
+      if (exists) {
+        PageSize = DiskMgr.readPageSize(dbname);
+      }
+      DiskManager = new DiskMgr(storage);
       BufferManager = new BufMgr(bufpoolsize);
     } catch (Exception exc) {
       haltSystem(exc);
@@ -1,20 +1,31 @@
 package global;
 
+import java.nio.ByteBuffer;
+
 /**
- * Image of a disk page in memory.
+ * Image of a disk page in memory. The bytes live in a ByteBuffer, which is
+ * either a heap array (for pages built by callers) or a slice of the buffer
+ * pool's off-heap frame arena; the accessors work the same way on both. As a
+ * frame has no array, the bytes are reached through the accessors (or
+ * getByteArray for a copy) rather than a data array. A frame also records
+ * the ranges changed through its mutators (see ChangedRanges), which every
+ * view of it shares; code writing its buffer directly must call markChanged.
  */
 public class Page implements GlobalConst {
 
-  /** The actual byte array for the page. */
-  protected byte[] data;
+  /** The actual buffer for the page; only absolute operations are used. */
+  protected ByteBuffer data;
+
+  /** Ranges changed through this page, or null if changes are not tracked. */
+  protected ChangedRanges changes;
 
   // --------------------------------------------------------------------------
 
   /**
-   * Default constructor; creates a blank page.
+   * Default constructor; creates a blank page of the database's page size.
    */
   public Page() {
-    data = new byte[PAGE_SIZE];
+    data = ByteBuffer.allocate(Minibase.PageSize);
   }
 
   /**
@@ -25,109 +36,264 @@ public class Page implements GlobalConst {
   }
 
   /**
-   * Get accessor for the data byte array.
+   * Constructor that wraps the given buffer (i.e. a buffer pool frame).
    */
-  public byte[] getData() {
-    return data;
+  public Page(ByteBuffer buffer) {
+    setBuffer(buffer);
+  }
+
+  /**
+   * Constructor that wraps the same buffer as the given page, sharing its
+   * change tracking.
+   */
+  public Page(Page page) {
+    setPage(page);
   }
 
   /**
    * Set accessor for the data byte array.
-   * 
+   *
    * @throws IllegalArgumentException if the data array size is invalid
    */
   public void setData(byte[] data) {
-    if (data.length != PAGE_SIZE) {
+    if (data.length != Minibase.PageSize) {
+      Minibase.haltSystem(new IllegalArgumentException(
+          "Invalid page buffer size"));
+    }
+    this.data = ByteBuffer.wrap(data);
+    changes = null;
+  }
+
+  /**
+   * Get accessor for the underlying buffer; callers must not change its
+   * position or limit.
+   */
+  public ByteBuffer getBuffer() {
+    return data;
+  }
+
+  /**
+   * Set accessor for the underlying buffer.
+   *
+   * @throws IllegalArgumentException if the buffer size is invalid
+   */
+  public void setBuffer(ByteBuffer buffer) {
+    if (buffer.capacity() != Minibase.PageSize) {
       Minibase.haltSystem(new IllegalArgumentException(
           "Invalid page buffer size"));
     }
-    this.data = data;
+    this.data = buffer;
+    changes = null;
   }
 
   /**
-   * Sets this page's data array to share the given page's data array.
+   * Sets this page's buffer to share the given page's buffer, along with its
+   * change tracking.
    */
   public void setPage(Page page) {
     this.data = page.data;
+    this.changes = page.changes;
+  }
+
+  /**
+   * Get accessor for the change tracking, or null if not tracked.
+   */
+  public ChangedRanges getChanges() {
+    return changes;
+  }
+
+  /**
+   * Set accessor for the change tracking (i.e. for a buffer pool frame).
+   */
+  public void setChanges(ChangedRanges changes) {
+    this.changes = changes;
+  }
+
+  /**
+   * Records that the given bytes were changed; the mutators do so already,
+   * so this is only for code that writes the buffer directly.
+   */
+  public void markChanged(int offset, int length) {
+    if (changes != null) {
+      changes.add(offset, length);
+    }
   }
 
   /**
    * Copies the contents of the given page's buffer into this page's buffer.
    */
   public void copyPage(Page page) {
-    System.arraycopy(page.data, 0, this.data, 0, PAGE_SIZE);
+    ByteBuffer dst = data.duplicate();
+    dst.clear();
+    ByteBuffer src = page.data.duplicate();
+    src.clear();
+    dst.put(src);
+    markChanged(0, data.capacity());
   }
 
   // --------------------------------------------------------------------------
 
+  /**
+   * Gets a byte at the given page offset.
+   */
+  public byte getByteValue(int offset) {
+    return data.get(offset);
+  }
+
+  /**
+   * Sets a byte at the given page offset.
+   */
+  public void setByteValue(byte value, int offset) {
+    data.put(offset, value);
+    markChanged(offset, 1);
+  }
+
   /**
    * Gets a char at the given page offset.
    */
   public char getCharValue(int offset) {
-    return Convert.getCharValue(offset, data);
+    // ignoring that UTF-8 could be up to six bytes
+    return (char) data.get(offset);
   }
 
   /**
    * Sets a char at the given page offset.
    */
   public void setCharValue(char value, int offset) {
-    Convert.setCharValue(value, offset, data);
+    // ignoring that UTF-8 could be up to six bytes
+    data.put(offset, (byte) value);
+    markChanged(offset, 1);
   }
 
   /**
    * Gets a short at the given page offset.
    */
   public short getShortValue(int offset) {
-    return Convert.getShortValue(offset, data);
+    return data.getShort(offset);
   }
 
   /**
    * Sets a short at the given page offset.
    */
   public void setShortValue(short value, int offset) {
-    Convert.setShortValue(value, offset, data);
+    data.putShort(offset, value);
+    markChanged(offset, 2);
   }
 
   /**
    * Gets an int at the given page offset.
    */
   public int getIntValue(int offset) {
-    return Convert.getIntValue(offset, data);
+    return data.getInt(offset);
   }
 
   /**
    * Sets an int at the given page offset.
    */
   public void setIntValue(int value, int offset) {
-    Convert.setIntValue(value, offset, data);
+    data.putInt(offset, value);
+    markChanged(offset, 4);
+  }
+
+  /**
+   * Gets a long at the given page offset.
+   */
+  public long getLongValue(int offset) {
+    return data.getLong(offset);
+  }
+
+  /**
+   * Sets a long at the given page offset.
+   */
+  public void setLongValue(long value, int offset) {
+    data.putLong(offset, value);
+    markChanged(offset, 8);
   }
 
   /**
    * Gets a float at the given page offset.
    */
   public float getFloatValue(int offset) {
-    return Convert.getFloatValue(offset, data);
+    return data.getFloat(offset);
   }
 
   /**
    * Sets a float at the given page offset.
    */
   public void setFloatValue(float value, int offset) {
-    Convert.setFloatValue(value, offset, data);
+    data.putFloat(offset, value);
+    markChanged(offset, 4);
   }
 
   /**
    * Gets a string at the given page offset, given the maximum length.
    */
   public String getStringValue(int offset, int length) {
-    return Convert.getStringValue(offset, data, length);
-  }
+
+    // validate the maximum length
+    int buflen = data.capacity() - offset;
+    if (buflen < length) {
+      length = buflen;
+    }
+    return new String(getByteArray(offset, length)).trim();
+
+  } // public String getStringValue(int offset, int length)
 
   /**
    * Sets a string at the given page offset.
    */
   public void setStringValue(String value, int offset) {
-    Convert.setStringValue(value, offset, data);
+    setByteArray(value.getBytes(), offset);
+  }
+
+  /**
+   * Gets a copy of the given number of bytes at the given page offset.
+   */
+  public byte[] getByteArray(int offset, int length) {
+    byte[] value = new byte[length];
+    ByteBuffer src = data.duplicate();
+    src.position(offset);
+    src.get(value);
+    return value;
+  }
+
+  /**
+   * Copies the given bytes into the page at the given offset.
+   */
+  public void setByteArray(byte[] value, int offset) {
+    ByteBuffer dst = data.duplicate();
+    dst.position(offset);
+    dst.put(value);
+    markChanged(offset, value.length);
+  }
+
+  /**
+   * Moves a range of bytes within the page; the ranges may overlap.
+   */
+  public void moveBytes(int from, int to, int length) {
+    if (data.hasArray()) {
+      byte[] array = data.array();
+      int base = data.arrayOffset();
+      System.arraycopy(array, base + from, array, base + to, length);
+    } else {
+      ByteBuffer src = data.duplicate();
+      src.limit(from + length).position(from);
+      ByteBuffer dst = data.duplicate();
+      dst.position(to);
+      dst.put(copyOf(src));
+    }
+    markChanged(to, length);
+  } // public void moveBytes(int from, int to, int length)
+
+  /**
+   * Copies the remaining bytes of a buffer, so that overlapping moves within
+   * off-heap memory never read bytes they have already overwritten.
+   */
+  private static ByteBuffer copyOf(ByteBuffer src) {
+    ByteBuffer copy = ByteBuffer.allocate(src.remaining());
+    copy.put(src);
+    copy.flip();
+    return copy;
   }
 
 } // public class Page implements GlobalConst
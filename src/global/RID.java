@@ -1,7 +1,10 @@
 package global;
 
 /**
- * A record is uniquely identified by its page number and slot number.
+ * A record is uniquely identified by its page number and slot number. An RID
+ * can also be packed into a single long, page number in the high half and
+ * slot number in the low half, to store many of them without objects (see
+ * RIDSet and RIDMap); packed RIDs of valid records are never negative.
  */
 public class RID {
 
@@ -37,6 +40,14 @@ public class RID {
     this.slotno = slotno;
   }
 
+  /**
+   * Constructs an RID from the given packed RID.
+   */
+  public RID(long rid) {
+    pageno = new PageId(getPageNo(rid));
+    slotno = getSlotNo(rid);
+  }
+
   /**
    * Constructs an RID stored in the given data buffer.
    */
@@ -69,12 +80,26 @@ public class RID {
     slotno = rid.slotno;
   }
 
+  /**
+   * Sets this RID to the given packed RID.
+   */
+  public void copyRID(long rid) {
+    pageno = new PageId(getPageNo(rid));
+    slotno = getSlotNo(rid);
+  }
+
+  /**
+   * Packs this RID into a long.
+   */
+  public long pack() {
+    return pack(pageno.pid, slotno);
+  }
+
   /**
    * Returns a hash code value for the RID.
    */
   public int hashCode() {
-    // won't work if DB supports more than 65535 pages
-    return ((pageno.pid & 0xFFFF) << 16) | (slotno & 0xFFFF);
+    return hash(pack());
   }
 
   /**
@@ -95,4 +120,36 @@ public class RID {
     return pageno.toString() + ":" + Integer.toString(slotno);
   }
 
+  // --------------------------------------------------------------------------
+
+  /**
+   * Packs the given page and slot numbers into a long.
+   */
+  public static long pack(int pid, int slotno) {
+    return ((long) pid << 32) | (slotno & 0xFFFFFFFFL);
+  }
+
+  /**
+   * Gets the page number of a packed RID.
+   */
+  public static int getPageNo(long rid) {
+    return (int) (rid >>> 32);
+  }
+
+  /**
+   * Gets the slot number of a packed RID.
+   */
+  public static int getSlotNo(long rid) {
+    return (int) rid;
+  }
+
+  /**
+   * Hashes a packed RID, mixing all bits of both fields so any page id
+   * spreads well.
+   */
+  public static int hash(long rid) {
+    long key = rid * 0x9E3779B97F4A7C15L;
+    return (int) (key ^ (key >>> 32));
+  }
+
 } // public class RID
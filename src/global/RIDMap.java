@@ -0,0 +1,83 @@
+package global;
+
+/**
+ * Map from packed RIDs (see RID.pack) to int values, kept in a primitive
+ * open-addressing table with the values in a parallel array; it takes a
+ * fraction of the memory of a HashMap keyed by RIDs and allocates nothing per
+ * record.
+ */
+public class RIDMap extends RIDTable {
+
+  /** The values, by slot. */
+  protected int[] values;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Constructs an empty map.
+   */
+  public RIDMap() {
+    this(0);
+  }
+
+  /**
+   * Constructs an empty map sized for the given number of RIDs.
+   */
+  public RIDMap(int expected) {
+    super(expected);
+    values = new int[keys.length];
+  }
+
+  /**
+   * Gets the value of the given packed RID.
+   *
+   * @param missing the value to return if the RID is not in the map
+   */
+  public int get(long rid, int missing) {
+    int slot = find(rid);
+    return (slot < 0) ? missing : values[slot];
+  }
+
+  /**
+   * Sets the value of the given packed RID, adding it to the map if needed.
+   *
+   * @throws IllegalArgumentException if the RID is invalid
+   */
+  public void put(long rid, int value) {
+    int slot = insert(rid);
+    values[(slot < 0) ? ~slot : slot] = value;
+  }
+
+  /**
+   * Removes the given packed RID from the map.
+   *
+   * @return true if it was removed, false if it was not there
+   */
+  public boolean remove(long rid) {
+    int slot = find(rid);
+    if (slot < 0) {
+      return false;
+    }
+    delete(slot);
+    return true;
+  }
+
+  // --------------------------------------------------------------------------
+
+  protected int[] rehash(int capacity) {
+    int[] old = values;
+    int[] slots = super.rehash(capacity);
+    values = new int[capacity];
+    for (int j = 0; j < slots.length; j++) {
+      if (slots[j] >= 0) {
+        values[slots[j]] = old[j];
+      }
+    }
+    return slots;
+  }
+
+  protected void moved(int from, int to) {
+    values[to] = values[from];
+  }
+
+} // public class RIDMap extends RIDTable
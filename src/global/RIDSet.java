@@ -0,0 +1,48 @@
+package global;
+
+/**
+ * Set of packed RIDs (see RID.pack), kept in a primitive open-addressing
+ * table; it takes a fraction of the memory of a HashSet of RIDs and allocates
+ * nothing per record.
+ */
+public class RIDSet extends RIDTable {
+
+  /**
+   * Constructs an empty set.
+   */
+  public RIDSet() {
+    this(0);
+  }
+
+  /**
+   * Constructs an empty set sized for the given number of RIDs.
+   */
+  public RIDSet(int expected) {
+    super(expected);
+  }
+
+  /**
+   * Adds the given packed RID to the set.
+   *
+   * @return true if it was added, false if it was already there
+   * @throws IllegalArgumentException if the RID is invalid
+   */
+  public boolean add(long rid) {
+    return (insert(rid) < 0);
+  }
+
+  /**
+   * Removes the given packed RID from the set.
+   *
+   * @return true if it was removed, false if it was not there
+   */
+  public boolean remove(long rid) {
+    int slot = find(rid);
+    if (slot < 0) {
+      return false;
+    }
+    delete(slot);
+    return true;
+  }
+
+} // public class RIDSet extends RIDTable
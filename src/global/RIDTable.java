@@ -0,0 +1,205 @@
+package global;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash table of packed RIDs, shared by RIDSet and RIDMap. The
+ * keys live in a single long array, probed linearly from each key's hash,
+ * with EMPTY marking unused slots; removing a key shifts the rest of its
+ * probe run back, so no deleted markers build up. The table doubles once it
+ * is two thirds full.
+ */
+abstract class RIDTable {
+
+  /** Marks an unused slot; no valid packed RID is negative. */
+  protected static final long EMPTY = -1L;
+
+  /** Smallest number of slots. */
+  protected static final int MIN_CAPACITY = 16;
+
+  /** Largest number of slots. */
+  protected static final int MAX_CAPACITY = 1 << 30;
+
+  // --------------------------------------------------------------------------
+
+  /** The keys, by slot; the length is a power of two. */
+  protected long[] keys;
+
+  /** Number of keys held. */
+  protected int size;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Constructs an empty table sized for the given number of keys.
+   */
+  protected RIDTable(int expected) {
+    keys = new long[capacityFor(expected)];
+    Arrays.fill(keys, EMPTY);
+    size = 0;
+  }
+
+  /**
+   * Gets the number of keys held.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * True if no keys are held; false otherwise.
+   */
+  public boolean isEmpty() {
+    return (size == 0);
+  }
+
+  /**
+   * True if the given packed RID is held; false otherwise.
+   */
+  public boolean contains(long rid) {
+    return (find(rid) >= 0);
+  }
+
+  /**
+   * Removes every key, keeping the current capacity.
+   */
+  public void clear() {
+    Arrays.fill(keys, EMPTY);
+    size = 0;
+  }
+
+  /**
+   * Copies the keys into a new array, in no particular order.
+   */
+  public long[] toArray() {
+    long[] array = new long[size];
+    int n = 0;
+    for (long key : keys) {
+      if (key != EMPTY) {
+        array[n++] = key;
+      }
+    }
+    return array;
+  }
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Finds the slot holding the given key.
+   *
+   * @return the slot, or -1 if the key is not held
+   */
+  protected int find(long rid) {
+    if (rid < 0) {
+      return -1;
+    }
+    int mask = keys.length - 1;
+    for (int i = RID.hash(rid) & mask; ; i = (i + 1) & mask) {
+      if (keys[i] == rid) {
+        return i;
+      }
+      if (keys[i] == EMPTY) {
+        return -1;
+      }
+    }
+  } // protected int find(long rid)
+
+  /**
+   * Finds the slot holding the given key, adding the key if it is not held.
+   *
+   * @return the slot, or its complement (~slot) if the key was just added
+   * @throws IllegalArgumentException if the key is negative
+   */
+  protected int insert(long rid) {
+
+    // look for the key, or the end of its probe run
+    if (rid < 0) {
+      throw new IllegalArgumentException("Invalid RID");
+    }
+    int mask = keys.length - 1;
+    int i = RID.hash(rid) & mask;
+    while (keys[i] != EMPTY) {
+      if (keys[i] == rid) {
+        return i;
+      }
+      i = (i + 1) & mask;
+    }
+
+    // grow first if the table would become too full
+    if (((size + 1) * 3L > keys.length * 2L) && (keys.length < MAX_CAPACITY)) {
+      rehash(keys.length * 2);
+      return insert(rid);
+    }
+    keys[i] = rid;
+    size++;
+    return ~i;
+
+  } // protected int insert(long rid)
+
+  /**
+   * Removes the key in the given slot, shifting back any keys after it in
+   * the same probe run.
+   */
+  protected void delete(int slot) {
+    int mask = keys.length - 1;
+    int hole = slot;
+    for (int i = (hole + 1) & mask; keys[i] != EMPTY; i = (i + 1) & mask) {
+
+      // a key may fill the hole if the hole lies between its home and it
+      int home = RID.hash(keys[i]) & mask;
+      if (((i - home) & mask) >= ((i - hole) & mask)) {
+        keys[hole] = keys[i];
+        moved(i, hole);
+        hole = i;
+      }
+
+    } // for
+    keys[hole] = EMPTY;
+    size--;
+  } // protected void delete(int slot)
+
+  /**
+   * Rehashes the keys into a table of the given number of slots.
+   *
+   * @return the new slot of each old slot's key, or -1 for unused slots
+   */
+  protected int[] rehash(int capacity) {
+    long[] old = keys;
+    keys = new long[capacity];
+    Arrays.fill(keys, EMPTY);
+    int mask = capacity - 1;
+    int[] slots = new int[old.length];
+    for (int j = 0; j < old.length; j++) {
+      slots[j] = -1;
+      if (old[j] != EMPTY) {
+        int i = RID.hash(old[j]) & mask;
+        while (keys[i] != EMPTY) {
+          i = (i + 1) & mask;
+        }
+        keys[i] = old[j];
+        slots[j] = i;
+      }
+    }
+    return slots;
+  } // protected int[] rehash(int capacity)
+
+  /**
+   * Called when removal moves a key from one slot to another, so subclasses
+   * can move whatever they keep by slot.
+   */
+  protected void moved(int from, int to) {
+    // nothing kept by slot here
+  }
+
+  /**
+   * Gets the number of slots that holds the given number of keys.
+   */
+  protected static int capacityFor(int expected) {
+    int capacity = MIN_CAPACITY;
+    while ((capacity < MAX_CAPACITY) && (capacity * 2L < expected * 3L)) {
+      capacity *= 2;
+    }
+    return capacity;
+  }
+
+} // abstract class RIDTable
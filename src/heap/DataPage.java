@@ -1,5 +1,7 @@
 package heap;
 
+import global.Page;
+
 /**
  * A heap file page containing actual data records.
  */
@@ -10,6 +12,20 @@ class DataPage extends HFPage {
    */
   public DataPage() {
     super();
+  }
+
+  /**
+   * Constructor that wraps an existing data page (i.e. a pinned frame).
+   */
+  public DataPage(Page page) {
+    super(page);
+  }
+
+  /**
+   * Initializes the data page with default values.
+   */
+  protected void initDefaults() {
+    super.initDefaults();
     setType(HeapFile.DATA_PAGE);
   }
   
@@ -1,5 +1,7 @@
 package heap;
 
+import global.Minibase;
+import global.Page;
 import global.PageId;
 
 /**
@@ -21,15 +23,27 @@ class DirPage extends HFPage {
 
   // --------------------------------------------------------------------------
 
-  /** The size of the footer data (in bytes). */
-  protected static final int FOOTER_SIZE = 2;
+  /**
+   * The size of the footer data (in bytes): the entry count, then (on the
+   * head page) the file's current extent.
+   */
+  protected static final int FOOTER_SIZE = 8;
 
-  /** Page offset for the total number of entries. */
-  protected static final int ENTRY_COUNT = PAGE_SIZE - 2;
+  /** Distance from the end of the page to the entry count. */
+  protected static final int ENTRY_CNT_END = 2;
 
-  /** Maximum number of entries in a directory page. */
-  protected static final int MAX_ENTRIES = (PAGE_SIZE - HEADER_SIZE - FOOTER_SIZE)
-      / ENTRY_SIZE;
+  /**
+   * Distance from the end of the page to the number of unused extent pages
+   * (head page only); always 0 in pages from before extents, which never
+   * used the two bytes before the entry count.
+   */
+  protected static final int EXTENT_LEFT_END = 4;
+
+  /**
+   * Distance from the end of the page to the first unused page of the file's
+   * current extent (head page only).
+   */
+  protected static final int EXTENT_NEXT_END = 8;
 
   // --------------------------------------------------------------------------
 
@@ -38,27 +52,67 @@ class DirPage extends HFPage {
    */
   public DirPage() {
     super();
+  }
+
+  /**
+   * Constructor that wraps an existing directory page (i.e. a pinned frame).
+   */
+  public DirPage(Page page) {
+    super(page);
+  }
+
+  /**
+   * Initializes the directory page with default values.
+   */
+  protected void initDefaults() {
+    super.initDefaults();
     setType(HeapFile.DIR_PAGE);
     setEntryCnt((short) 0);
   }
 
-  
-  public short getMaxEntries() {
-	    return getShortValue(MAX_ENTRIES);
-	  }
-  
+  /**
+   * Gets the maximum number of entries in a directory page, for the
+   * database's page size.
+   */
+  public static int getMaxEntries() {
+    return (Minibase.PageSize - HEADER_SIZE - FOOTER_SIZE) / ENTRY_SIZE;
+  }
+
   /**
    * Gets the number of directory entries on the page.
    */
   public short getEntryCnt() {
-    return getShortValue(ENTRY_COUNT);
+    return getShortValue(Minibase.PageSize - ENTRY_CNT_END);
   }
 
   /**
    * Sets the number of directory entries on the page.
    */
   public void setEntryCnt(short entryCnt) {
-    setShortValue(entryCnt, ENTRY_COUNT);
+    setShortValue(entryCnt, Minibase.PageSize - ENTRY_CNT_END);
+  }
+
+  /**
+   * Gets the first unused page of the file's current extent (head page only).
+   */
+  public PageId getExtentNext() {
+    return new PageId(getIntValue(Minibase.PageSize - EXTENT_NEXT_END));
+  }
+
+  /**
+   * Gets the number of unused pages left in the file's current extent (head
+   * page only).
+   */
+  public short getExtentLeft() {
+    return getShortValue(Minibase.PageSize - EXTENT_LEFT_END);
+  }
+
+  /**
+   * Sets the unused part of the file's current extent (head page only).
+   */
+  public void setExtent(PageId next, short left) {
+    setIntValue(next.pid, Minibase.PageSize - EXTENT_NEXT_END);
+    setShortValue(left, Minibase.PageSize - EXTENT_LEFT_END);
   }
 
   /**
@@ -104,6 +158,19 @@ class DirPage extends HFPage {
     setShortValue(freeCnt, HEADER_SIZE + slotno * ENTRY_SIZE + IX_FREE_CNT);
   }
 
+  /**
+   * Finds the index of the entry for the given page, or -1 if not found.
+   */
+  public int findEntry(PageId pageno) {
+    int count = getEntryCnt();
+    for (int i = 0; i < count; i++) {
+      if (getIntValue(HEADER_SIZE + i * ENTRY_SIZE + IX_PAGE_ID) == pageno.pid) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
   /**
    * Logically deletes an entry at the given slot number by shifting any
    * successive entries down.
@@ -112,8 +179,8 @@ class DirPage extends HFPage {
 
     // shift all bytes to the left
     int entryPos = HEADER_SIZE + slotno * ENTRY_SIZE;
-    int succLen = PAGE_SIZE - FOOTER_SIZE - entryPos - ENTRY_SIZE;
-    System.arraycopy(data, entryPos + ENTRY_SIZE, data, entryPos, succLen);
+    int succLen = Minibase.PageSize - FOOTER_SIZE - entryPos - ENTRY_SIZE;
+    moveBytes(entryPos + ENTRY_SIZE, entryPos, succLen);
 
   } // public void compact(int slotno)
 
@@ -1,5 +1,6 @@
 package heap;
 
+import global.Minibase;
 import global.Page;
 import global.PageId;
 import global.RID;
@@ -56,7 +57,7 @@ class HFPage extends Page {
    * Constructor that wraps an existing heap file page.
    */
   public HFPage(Page page) {
-    super(page.getData());
+    super(page);
   }
 
   /**
@@ -68,10 +69,10 @@ class HFPage extends Page {
     setShortValue((short) 0, SLOT_CNT);
 
     // used offset grows backwards
-    setShortValue((short) PAGE_SIZE, USED_PTR);
+    setShortValue((short) Minibase.PageSize, USED_PTR);
 
     // free space doesn't count headers
-    setShortValue((short) (PAGE_SIZE - HEADER_SIZE), FREE_SPACE);
+    setShortValue((short) (Minibase.PageSize - HEADER_SIZE), FREE_SPACE);
 
     // optional type field may be used by sub classes
     setShortValue((short) 0, PAGE_TYPE);
@@ -87,6 +88,13 @@ class HFPage extends Page {
   public static int getSlotSize() {
 	  return SLOT_SIZE;
   }
+
+  /**
+   * Gets the maximum length of a record, for the database's page size.
+   */
+  public static int getMaxTupSize() {
+    return Minibase.PageSize - HEADER_SIZE;
+  }
   /**
    * Gets the number of slots on the page.
    */
@@ -222,7 +230,7 @@ class HFPage extends Page {
     int slotpos = HEADER_SIZE + i * SLOT_SIZE;
     setShortValue(recLength, slotpos);
     setShortValue(usedPtr, slotpos + 2);
-    System.arraycopy(record, 0, data, usedPtr, recLength);
+    setByteArray(record, usedPtr);
     return new RID(new PageId(getIntValue(CUR_PAGE)), i);
 
   } // public RID insertRecord(byte[] record)
@@ -239,9 +247,7 @@ class HFPage extends Page {
     short offset = getSlotOffset(rid.slotno);
 
     // finally, get and return the record
-    byte[] record = new byte[length];
-    System.arraycopy(data, offset, record, 0, length);
-    return record;
+    return getByteArray(offset, length);
 
   } // public byte[] selectRecord(RID rid)
 
@@ -260,7 +266,7 @@ class HFPage extends Page {
 
     // finally, update the record in place
     short offset = getSlotOffset(rid.slotno);
-    System.arraycopy(record, 0, data, offset, length);
+    setByteArray(record, offset);
 
   } // public void updateRecord(RID rid, byte[] record)
 
@@ -282,7 +288,7 @@ class HFPage extends Page {
     short size = (short) (offset - usedPtr);
 
     // shift all bytes to the right
-    System.arraycopy(data, usedPtr, data, newSpot, size);
+    moveBytes(usedPtr, newSpot, size);
 
     // adjust offsets of all valid slots that refer
     // to the left of the record being removed
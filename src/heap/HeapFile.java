@@ -1,5 +1,7 @@
 package heap; 
 
+import bufmgr.PageHandle;
+import diskmgr.IOStats;
 import global.GlobalConst;
 import global.Minibase;
 import global.PageId;
@@ -16,7 +18,15 @@ import global.RID;
  * relational operators. A temporary heap file does not have an entry in the
  * file library and is deleted when there are no more references to it. <br>
  * A sequential scan of a heap file (via the HeapScan class)
- * is the most basic access method.
+ * is the most basic access method. <br>
+ * Selects and scans may run from many threads at once; inserts, updates, and
+ * deletes must still be serialized by the caller. <br>
+ * Pages are reserved from the disk manager in extents of contiguous pages,
+ * and new data and directory pages are handed out from the current extent,
+ * so a file that grows alongside others still keeps its pages together. The
+ * unused part of the current extent is recorded on the head directory page.
+ * <br>
+ * Each operation charges the I/O it causes to the file (see IOStats).
  */
 public class HeapFile implements GlobalConst {
 
@@ -26,6 +36,9 @@ public class HeapFile implements GlobalConst {
   /** HFPage type for data pages. */
   protected static final short DATA_PAGE = 11;
 
+  /** Number of contiguous pages reserved at a time, space permitting. */
+  protected static final int EXTENT_SIZE = 64;
+
   // --------------------------------------------------------------------------
 
   /** Is this a temporary heap file, meaning it has no entry in the library? */
@@ -54,31 +67,46 @@ public class HeapFile implements GlobalConst {
   public HeapFile(String name) {
 
 	  this.fileName=name;
+      IOStats.Context prev = IOStats.attribute(name);
+      try {
 	  
-	  //1. chack file name
-	  if(name!=null){
+        //1. chack file name
+        if(name!=null){
 		  
-		  //2. if the file has a name ==> it has (or will have) an entry in the library
-		  isTemp = false;
-		  headId = Minibase.DiskManager.get_file_entry(name);
+            //2. if the file has a name ==> it has (or will have) an entry in the library
+            isTemp = false;
+            headId = Minibase.DiskManager.get_file_entry(name);
 		  
-		  if(headId == null){
+            if(headId == null){
 			
-				 DirPage dirPage = new DirPage(); //DirPage extends HFPage
-				 headId = Minibase.BufferManager.newPage(dirPage, 1);
-				 dirPage.setCurPage(headId);
-				 Minibase.DiskManager.add_file_entry(name, headId);	
+                   //the head page is the first page of the file's first extent
+                   PageId extentId = new PageId();
+                   int extentSize = allocateExtent(extentId);
+                   PageHandle dirHandle;
+                   try {
+                       dirHandle = Minibase.BufferManager.pinNew(extentId, ROLE_DIRECTORY);
+                   } catch (RuntimeException exc) {
+                       Minibase.DiskManager.deallocate_page(extentId, extentSize);
+                       throw exc;
+                   }
+                   DirPage dirPage = new DirPage(dirHandle.getPage()); //view over the frame
+                   dirPage.initDefaults();
+                   headId = dirHandle.getPageId();
+                   dirPage.setCurPage(headId);
+                   dirPage.setExtent(new PageId(headId.pid + 1), (short) (extentSize - 1));
+                   Minibase.DiskManager.add_file_entry(name, headId); 
 				 
-				 Minibase.BufferManager.unpinPage(dirPage.getCurPage(), UNPIN_DIRTY); 
+                   dirHandle.release(UNPIN_DIRTY); 
 				  
-		  } 
-		  //the file do not have an entry in the library
-		  else {
-			  isTemp = true;
-			  }
-	  } else {
-		  throw new IllegalArgumentException("FILE NAME CANNOT BE NULL!");
-	  }
+            } 
+            //otherwise the file is already in the library; reopening it must
+            //not make it temporary, or finalize() would delete it
+        } else {
+            throw new IllegalArgumentException("FILE NAME CANNOT BE NULL!");
+        }
+      } finally {
+        IOStats.restore(prev);
+      }
 
 
 	  }// public HeapFile(String name)
@@ -101,35 +129,51 @@ public class HeapFile implements GlobalConst {
    */
   public void deleteFile() {
 
-	  //1. free all data pages and dir pages if any
-	  PageId dirId = new PageId(headId.pid);
-      DirPage dirPage = new DirPage();
-      PageId nextId;
+      IOStats.Context prev = IOStats.attribute(fileName);
+      try {
+
+        //0. give back the unused part of the current extent
+        PageHandle headHandle = Minibase.BufferManager.pin(headId, ROLE_DIRECTORY);
+        DirPage headPage = new DirPage(headHandle.getPage());
+        PageId extentNext = headPage.getExtentNext();
+        short extentLeft = headPage.getExtentLeft();
+        headHandle.release(UNPIN_CLEAN);
+        if (extentLeft > 0) {
+            Minibase.DiskManager.deallocate_page(extentNext, extentLeft);
+        }
+
+        //1. free all data pages and dir pages if any
+        PageId dirId = new PageId(headId.pid);
+        PageId nextId;
       
-      while(dirId.pid != INVALID_PAGEID) {
+        while(dirId.pid != INVALID_PAGEID) {
     	  
-          Minibase.BufferManager.pinPage(dirId, dirPage, PIN_DISKIO);
+            PageHandle dirHandle = Minibase.BufferManager.pin(dirId, ROLE_DIRECTORY);
+            DirPage dirPage = new DirPage(dirHandle.getPage());
           
-          //1. free data pages
-          int count = dirPage.getEntryCnt();
-          for(int i = 0; i < count; i++)
-          {
-        	  //Minibase.BufferManager.unpinPage(dirPage.getPageId(i), UNPIN_CLEAN);
-        	  Minibase.BufferManager.freePage(dirPage.getPageId(i));
-          }
-
-          //free dir pages
-          nextId = dirPage.getNextPage();
-          Minibase.BufferManager.unpinPage(dirId, UNPIN_CLEAN);
-          Minibase.BufferManager.freePage(dirId);
+            //1. free data pages
+            int count = dirPage.getEntryCnt();
+            for(int i = 0; i < count; i++)
+            {
+                //Minibase.BufferManager.unpinPage(dirPage.getPageId(i), UNPIN_CLEAN);
+                Minibase.BufferManager.freePage(dirPage.getPageId(i));
+            }
+
+            //free dir pages
+            nextId = dirPage.getNextPage();
+            dirHandle.release(UNPIN_CLEAN);
+            Minibase.BufferManager.freePage(dirId);
           
           
-          dirId = nextId;
+            dirId = nextId;
+        }
+
+        //2. delete the file from the library
+        if(!isTemp)
+            Minibase.DiskManager.delete_file_entry(fileName);
+      } finally {
+        IOStats.restore(prev);
       }
-
-      //2. delete the file from the library
-      if(!isTemp)
-          Minibase.DiskManager.delete_file_entry(fileName);
      
   } // public void deleteFile()
 
@@ -146,37 +190,48 @@ public class HeapFile implements GlobalConst {
    */
   public RID insertRecord(byte[] record) {
 
-	  
-	  if(record.length > MAX_TUPSIZE) {
-          throw new IllegalArgumentException("the record is too large to fit on one data page");
-      } else {
-    	  //HFPage.java: int spaceNeeded = recLength + SLOT_SIZE;
+      IOStats.Context prev = IOStats.attribute(fileName);
+      try {
+        if(record.length > HFPage.getMaxTupSize()) {
+            throw new IllegalArgumentException("the record is too large to fit on one data page");
+        } else {
+            //HFPage.java: int spaceNeeded = recLength + SLOT_SIZE;
     	  
-    	  //1. find a page that has a free space
-    	  PageId pageId = getAvailPage(record.length + HFPage.getSlotSize());
-          //System.out.println(pageId.pid);
-    	  DataPage dataPage = new DataPage();
+            //1. find a page that has a free space
+            PageId pageId = getAvailPage(record.length + HFPage.getSlotSize());
+            //System.out.println(pageId.pid);
     	  
-          //2. insert record to the "data page"
-          Minibase.BufferManager.pinPage(pageId, dataPage, PIN_DISKIO);
-          RID rid = dataPage.insertRecord(record); 
-          //dataPage.print();
+            //2. insert record to the "data page"
+            PageHandle dataHandle = Minibase.BufferManager.pin(pageId);
+            DataPage dataPage = new DataPage(dataHandle.getPage());
+            RID rid = dataPage.insertRecord(record); 
+            //dataPage.print();
           
-          //3. update file/page directory
-          short freeSpace = dataPage.getFreeSpace();
-          updateDirEntry(pageId, 1, freeSpace); //1 as we need to add a new record
+            //3. update file/page directory
+            short freeSpace = dataPage.getFreeSpace();
+            updateDirEntry(pageId, 1, freeSpace); //1 as we need to add a new record
           
-          //4. unpin the used pages "dir page" and "data page"
-          Minibase.BufferManager.unpinPage(pageId, UNPIN_DIRTY);
-          //Minibase.BufferManager.unpinPage(dataPage.getNextPage(), UNPIN_CLEAN);
-          //Minibase.BufferManager.unpinPage(dataPage.getPrevPage(), UNPIN_CLEAN);
-          // Minibase.BufferManager.unpinPage(rid.pageno,UNPIN_CLEAN);
-          return rid; 
+            //4. unpin the used "data page"
+            dataHandle.release(UNPIN_DIRTY);
+            return rid; 
           
+        }
+      } finally {
+        IOStats.restore(prev);
       }
 	
    } // public RID insertRecord(byte[] record)
 
+  /**
+   * Inserts a new record into the file and returns its packed RID (see
+   * RID.pack).
+   * 
+   * @throws IllegalArgumentException if the record is too large
+   */
+  public long insertRecordPacked(byte[] record) {
+    return insertRecord(record).pack();
+  }
+
   /**
    * Reads a record from the file, given its rid.
    * 
@@ -184,23 +239,30 @@ public class HeapFile implements GlobalConst {
    */
   public byte[] selectRecord(RID rid) {
 
-	  byte [] rec;
-	  DataPage page = new DataPage();
-	  
-      Minibase.BufferManager.pinPage(rid.pageno, page, PIN_DISKIO);
-      
+      IOStats.Context prev = IOStats.attribute(fileName);
       try {
-          rec = page.selectRecord(rid);
-      } catch(IllegalArgumentException exc) {
-          throw exc;
-      }
-      
+        PageHandle dataHandle = Minibase.BufferManager.pin(rid.pageno);
       
-      Minibase.BufferManager.unpinPage(rid.pageno, UNPIN_CLEAN);
-      return rec;
+        try {
+            return new DataPage(dataHandle.getPage()).selectRecord(rid);
+        } finally {
+            dataHandle.release(UNPIN_CLEAN);
+        }
+      } finally {
+        IOStats.restore(prev);
+      }
      
   } // public byte[] selectRecord(RID rid)
 
+  /**
+   * Reads a record from the file, given its packed RID.
+   * 
+   * @throws IllegalArgumentException if the rid is invalid
+   */
+  public byte[] selectRecord(long rid) {
+    return selectRecord(new RID(rid));
+  }
+
   /**
    * Updates the specified record in the heap file.
    * 
@@ -208,19 +270,32 @@ public class HeapFile implements GlobalConst {
    */
   public void updateRecord(RID rid, byte[] newRecord) {
 
-	  DataPage dataPage = new DataPage();
-      Minibase.BufferManager.pinPage(rid.pageno, dataPage, PIN_DISKIO);
-      
+      IOStats.Context prev = IOStats.attribute(fileName);
       try {
-    	  dataPage.updateRecord(rid, newRecord);
-          Minibase.BufferManager.unpinPage(rid.pageno, UNPIN_DIRTY);
-      } catch(IllegalArgumentException exc) {
-          Minibase.BufferManager.unpinPage(rid.pageno, UNPIN_CLEAN);
-          throw exc;
+        PageHandle dataHandle = Minibase.BufferManager.pin(rid.pageno);
+      
+        try {
+            new DataPage(dataHandle.getPage()).updateRecord(rid, newRecord);
+            dataHandle.release(UNPIN_DIRTY);
+        } catch(IllegalArgumentException exc) {
+            dataHandle.release(UNPIN_CLEAN);
+            throw exc;
+        }
+      } finally {
+        IOStats.restore(prev);
       }
       
   } // public void updateRecord(RID rid, byte[] newRecord)
 
+  /**
+   * Updates the specified record in the heap file, given its packed RID.
+   * 
+   * @throws IllegalArgumentException if the rid or new record is invalid
+   */
+  public void updateRecord(long rid, byte[] newRecord) {
+    updateRecord(new RID(rid), newRecord);
+  }
+
   /**
    * Deletes the specified record from the heap file.
    * Removes empty data and/or directory pages.
@@ -229,63 +304,78 @@ public class HeapFile implements GlobalConst {
    */
   public void deleteRecord(RID rid) {
 
-	  DataPage dataPage = new DataPage();
-	  
-      Minibase.BufferManager.pinPage(rid.pageno, dataPage, PIN_DISKIO);
-      
+      IOStats.Context prev = IOStats.attribute(fileName);
       try {
-    	  //1.delete from the dataPage
-    	  dataPage.deleteRecord(rid);
-    	  
-    	  //2. update the free space in directory page
-          short freeCount = dataPage.getFreeSpace(); 
-          updateDirEntry(rid.pageno, -1, freeCount);
-          
-          Minibase.BufferManager.unpinPage(rid.pageno, UNPIN_DIRTY);
-      } catch(IllegalArgumentException exc) {
-          Minibase.BufferManager.unpinPage(rid.pageno, UNPIN_CLEAN);
-          throw exc;
-      }
+        PageHandle dataHandle = Minibase.BufferManager.pin(rid.pageno);
+        DataPage dataPage = new DataPage(dataHandle.getPage());
+      
+        //1.delete from the dataPage
+        try {
+            dataPage.deleteRecord(rid);
+        } catch(IllegalArgumentException exc) {
+            dataHandle.release(UNPIN_CLEAN);
+            throw exc;
+        }
+        short freeCount = dataPage.getFreeSpace(); 
+        dataHandle.release(UNPIN_DIRTY);
       
-      //Minibase.BufferManager.unpinPage(rid.pageno, UNPIN_DIRTY);
+        //2. update the free space in directory page; the data page must be
+        //unpinned first, since an empty one is freed
+        updateDirEntry(rid.pageno, -1, freeCount);
+      } finally {
+        IOStats.restore(prev);
+      }
      
   } // public void deleteRecord(RID rid)
 
+  /**
+   * Deletes the specified record from the heap file, given its packed RID.
+   * 
+   * @throws IllegalArgumentException if the rid is invalid
+   */
+  public void deleteRecord(long rid) {
+    deleteRecord(new RID(rid));
+  }
+
   /**
    * Gets the number of records in the file.
    */
   public int getRecCnt() {
 
-	  int recCount = 0;
-      
-      PageId dirId = new PageId(headId.pid);
-      DirPage dirPage = new DirPage();
+      IOStats.Context prev = IOStats.attribute(fileName);
+      try {
+        int recCount = 0;
       
-      PageId nextId;
+        PageId dirId = new PageId(headId.pid);
+        PageId nextId;
       
-      while(dirId.pid != INVALID_PAGEID)
-      {
+        while(dirId.pid != INVALID_PAGEID)
+        {
           
-    	  Minibase.BufferManager.pinPage(dirId, dirPage, PIN_DISKIO);
+            PageHandle dirHandle = Minibase.BufferManager.pin(dirId, ROLE_DIRECTORY);
+            DirPage dirPage = new DirPage(dirHandle.getPage());
     	  
-    	  //count records in a single page
-    	  //to get number of "directory entries" on the page
-    	  int count = dirPage.getEntryCnt();
+            //count records in a single page
+            //to get number of "directory entries" on the page
+            int count = dirPage.getEntryCnt();
     	  
-          for(int i = 0 ; i < count; i++) {
-        	  //to getRecordsCount at a given index
-        	  //System.out.println(recCount);
-        	  recCount += dirPage.getRecCnt(i); 
-          }
+            for(int i = 0 ; i < count; i++) {
+                //to getRecordsCount at a given index
+                //System.out.println(recCount);
+                recCount += dirPage.getRecCnt(i); 
+            }
          
-          //go to next page
-          nextId = dirPage.getNextPage();
-          Minibase.BufferManager.unpinPage(dirId, UNPIN_CLEAN);
-          dirId = nextId;
-      }
+            //go to next page
+            nextId = dirPage.getNextPage();
+            dirHandle.release(UNPIN_CLEAN);
+            dirId = nextId;
+        }
 
      
-      return recCount;
+        return recCount;
+      } finally {
+        IOStats.restore(prev);
+      }
   
   } // public int getRecCnt()
 
@@ -314,12 +404,12 @@ public class HeapFile implements GlobalConst {
    
       PageId freeId = null;
       PageId dirId = new PageId(headId.pid);
-      DirPage dirPage = new DirPage();
       PageId nextId;
       
       while(freeId == null && dirId.pid != INVALID_PAGEID)
       {
-          Minibase.BufferManager.pinPage(dirId, dirPage, PIN_DISKIO);
+          PageHandle dirHandle = Minibase.BufferManager.pin(dirId, ROLE_DIRECTORY);
+          DirPage dirPage = new DirPage(dirHandle.getPage());
           
           int count = dirPage.getEntryCnt();
           for(int i = 0; i < count; i++)
@@ -333,7 +423,7 @@ public class HeapFile implements GlobalConst {
           }
 
           nextId = dirPage.getNextPage();
-          Minibase.BufferManager.unpinPage(dirId, UNPIN_CLEAN);
+          dirHandle.release(UNPIN_CLEAN);
           dirId = nextId;
       }
 
@@ -350,46 +440,31 @@ public class HeapFile implements GlobalConst {
    * page that is in the buffer pool.
    * 
    * @param pageno identifies the page for which to find an entry
-   * @param dirId output param to hold the directory page's id (pinned)
-   * @param dirPage output param to hold directory page contents
-   * @return index of the data page's entry on the directory page
+   * @return handle of the directory page holding the entry (pinned), or null
+   * if there is no entry for the page
    */
-  protected int findDirEntry(PageId pageno, PageId dirId, DirPage dirPage) {
+  protected PageHandle findDirEntry(PageId pageno) {
 
-	  //int entry = -1;
-	  PageId nextId;
-	
-	  //int loop_times = 0 ;
+	  PageId dirId = new PageId(headId.pid);
 	  
 	  //1. check one page directory at a time  
-	  for(dirId.pid = headId.pid ; dirId.pid != INVALID_PAGEID ; dirId.pid = nextId.pid){
-			
+	  while(dirId.pid != INVALID_PAGEID){
 		  
-		  		 //System.out.println(dirId.pid);
-			  Minibase.BufferManager.pinPage(dirId, dirPage, PIN_DISKIO);
-			   
-			  //2. get entry count in a dirPage
-	          int count = dirPage.getEntryCnt();
-	          
-	          //3. check if there is a pointer to a dataPage
-	          for(int i = 0; i < count ; i++){
-	              if(pageno.pid == dirPage.getPageId(i).pid) {
-	            	  //System.out.println(dirPage.getPageId(i).pid);
-	            	  //Minibase.BufferManager.unpinPage(dirId, UNPIN_CLEAN);
-	            	  return i;}
-	          }
-	          
-	         
-	          nextId = dirPage.getNextPage();
-	          Minibase.BufferManager.unpinPage(dirId, UNPIN_CLEAN);
-	         
-		  } 
-	  
+		  PageHandle dirHandle = Minibase.BufferManager.pin(dirId, ROLE_DIRECTORY);
+		  DirPage dirPage = new DirPage(dirHandle.getPage());
+		  
+		  //2. check if there is a pointer to a dataPage
+		  if(dirPage.findEntry(pageno) >= 0){
+			  return dirHandle;
+		  }
+		  
+		  dirId = dirPage.getNextPage();
+		  dirHandle.release(UNPIN_CLEAN);
+	  }
 	  
-       return -1;  
- 
+	  return null;
 	
-  } // protected int findEntry(PageId pageno, PageId dirId, DirPage dirPage)
+  } // protected PageHandle findDirEntry(PageId pageno)
 
   /**
    * Updates the directory entry for the given data page.
@@ -401,12 +476,9 @@ public class HeapFile implements GlobalConst {
    */
   protected void updateDirEntry(PageId pageno, int deltaRec, int freecnt) {
 	  
-	  PageId dirId = new PageId(); //output parameter 
-      DirPage dirPage = new DirPage();
-      
-      int index = findDirEntry(pageno, dirId, dirPage);
-      
-      //Minibase.BufferManager.pinPage(dirId, dirPage,PIN_DISKIO);
+	  PageHandle dirHandle = findDirEntry(pageno);
+      DirPage dirPage = new DirPage(dirHandle.getPage());
+      int index = dirPage.findEntry(pageno);
       
       //check if the page is empty 
       int recCount = dirPage.getRecCnt(index) + deltaRec;
@@ -414,13 +486,13 @@ public class HeapFile implements GlobalConst {
       {
     	  //Minibase.BufferManager.unpinPage(pageno, UNPIN_DIRTY);
     	  //delete the page if it is empty
-          deletePage(pageno, dirId, dirPage, index);
+          deletePage(pageno, dirHandle, dirPage, index);
       } else {
     	  //update page metadata in dirPage
           dirPage.setRecCnt(index, (short)recCount);
           dirPage.setFreeCnt(index, (short)freecnt);
           
-          Minibase.BufferManager.unpinPage(dirId, UNPIN_DIRTY);
+          dirHandle.release(UNPIN_DIRTY);
       }
 	  
   } // protected void updateEntry(PageId pageno, int deltaRec, int deltaFree)
@@ -437,18 +509,19 @@ public class HeapFile implements GlobalConst {
 	  //PART 1: to manage the dirPage
 	  int count = 0;
 	  
-	  DirPage dirPage = new DirPage();
+	  PageHandle dirHandle;
+	  DirPage dirPage;
       PageId dirId = new PageId(headId.pid);
       
       do
       {
-          Minibase.BufferManager.pinPage(dirId, dirPage, PIN_DISKIO);
+          dirHandle = Minibase.BufferManager.pin(dirId, ROLE_DIRECTORY);
+          dirPage = new DirPage(dirHandle.getPage());
           
           count = dirPage.getEntryCnt();
           
           //break if there is a free space in current page
-          //if(count < dirPage.getMaxEntries()) {
-          if(count < 125) {
+          if(count < DirPage.getMaxEntries()) {
         	  break;
           } else {
         	//new page
@@ -456,19 +529,21 @@ public class HeapFile implements GlobalConst {
               
               
               if(nextId.pid == INVALID_PAGEID) {
-                  DirPage newDirPage = new DirPage();
-                  PageId newDirId = Minibase.BufferManager.newPage(newDirPage, 1);
-                  //Minibase.BufferManager.unpinPage(newDirId, UNPIN_CLEAN);
+                  PageHandle newDirHandle = newFilePage(ROLE_DIRECTORY);
+                  DirPage newDirPage = new DirPage(newDirHandle.getPage());
+                  PageId newDirId = newDirHandle.getPageId();
                   
+                  newDirPage.initDefaults();
                   newDirPage.setCurPage(newDirId);
                   
                   //not sure about this step
                   dirPage.setNextPage(newDirId);
                   newDirPage.setPrevPage(dirId);
                   
-                  Minibase.BufferManager.unpinPage(dirId, UNPIN_DIRTY);
+                  dirHandle.release(UNPIN_DIRTY);
                   
                   dirId = newDirId;
+                  dirHandle = newDirHandle;
                   dirPage = newDirPage;
                   count = 0;
                   
@@ -477,7 +552,7 @@ public class HeapFile implements GlobalConst {
                   break;
               }
               
-              Minibase.BufferManager.unpinPage(dirId, UNPIN_CLEAN);
+              dirHandle.release(UNPIN_CLEAN);
               
               dirId = nextId;
              
@@ -490,9 +565,11 @@ public class HeapFile implements GlobalConst {
       
       
       //PART 2: manage the data page
-      DataPage dataPage = new DataPage();
-      PageId dataId = Minibase.BufferManager.newPage(dataPage, 1);
+      PageHandle dataHandle = newFilePage(ROLE_DATA);
+      DataPage dataPage = new DataPage(dataHandle.getPage());
+      PageId dataId = dataHandle.getPageId();
       
+      dataPage.initDefaults();
       dataPage.setCurPage(dataId);
       
       //PART3: update dir page
@@ -503,28 +580,96 @@ public class HeapFile implements GlobalConst {
       
       //Minibase.BufferManager.unpinPage(newDirPage., UNPIN_DIRTY);
       //Minibase.BufferManager.unpinPage(dirId, UNPIN_DIRTY);
-      Minibase.BufferManager.unpinPage(dataId, UNPIN_DIRTY);
-      Minibase.BufferManager.unpinPage(dirId, UNPIN_DIRTY);
+      dataHandle.release(UNPIN_DIRTY);
+      dirHandle.release(UNPIN_DIRTY);
       
       return dataId;
       
   } // protected PageId insertPage()
 
+  /**
+   * Pins the next page of the file's current extent, without reading it,
+   * reserving a new extent first if the current one is used up; the caller
+   * must initialize the page.
+   *
+   * @param role the page's role, which selects the buffer pool
+   * @return the handle of the new page (pinned)
+   */
+  protected PageHandle newFilePage(int role) {
+
+    PageHandle headHandle = Minibase.BufferManager.pin(headId, ROLE_DIRECTORY);
+    DirPage headPage = new DirPage(headHandle.getPage());
+    PageHandle handle;
+    try {
+
+      // take the next page of the extent, or start a new extent
+      PageId pageno = headPage.getExtentNext();
+      int left = headPage.getExtentLeft();
+      boolean reserved = (left < 1);
+      if (reserved) {
+        left = allocateExtent(pageno);
+      }
+
+      // pin the page, giving a new extent back if that fails
+      try {
+        handle = Minibase.BufferManager.pinNew(pageno, role);
+      } catch (RuntimeException exc) {
+        if (reserved) {
+          Minibase.DiskManager.deallocate_page(pageno, left);
+        }
+        throw exc;
+      }
+      headPage.setExtent(new PageId(pageno.pid + 1), (short) (left - 1));
+
+    } catch (RuntimeException exc) {
+      headHandle.release(UNPIN_CLEAN);
+      throw exc;
+    }
+    headHandle.release(UNPIN_DIRTY);
+    return handle;
+
+  } // protected PageHandle newFilePage(int role)
+
+  /**
+   * Reserves a new extent of up to EXTENT_SIZE contiguous pages, settling for
+   * shorter runs when the database has no room for a full one.
+   *
+   * @param firstid output parameter set to the first page of the extent
+   * @return the number of pages in the extent
+   * @throws IllegalStateException if the database is full
+   */
+  protected int allocateExtent(PageId firstid) {
+
+    int size = Math.min(EXTENT_SIZE, Minibase.DiskManager.getNumDBPages());
+    while (true) {
+      try {
+        firstid.pid = Minibase.DiskManager.allocate_page(size).pid;
+        return size;
+      } catch (IllegalStateException exc) {
+        if (size == 1) {
+          throw exc;
+        }
+        size /= 2;
+      }
+    }
+
+  } // protected int allocateExtent(PageId firstid)
+
   /**
    * Deletes the given data page and its directory entry from the heap file. If
    * appropriate, this also deletes the directory page.
    * 
    * @param pageno identifies the page to be deleted
-   * @param dirId input param id of the directory page holding the data page's entry
+   * @param dirHandle input param handle of the directory page holding the data page's entry (pinned)
    * @param dirPage input param to hold directory page contents
    * @param index input the data page's entry on the directory page
    */
-  protected void deletePage(PageId pageno, PageId dirId, DirPage dirPage,
-      int index) {
+  protected void deletePage(PageId pageno, PageHandle dirHandle,
+      DirPage dirPage, int index) {
 
-	  //1. free and unpin the page
+	  //1. free the (unpinned) page
 	  Minibase.BufferManager.freePage(pageno);
-	  Minibase.BufferManager.unpinPage(pageno, UNPIN_CLEAN);
+	  PageId dirId = dirPage.getCurPage();
 	  
 	  //2. compact dir page
       dirPage.compact(index);
@@ -536,36 +681,35 @@ public class HeapFile implements GlobalConst {
       //in case of not a head page; we can free the dir page and set previous and next dirPages
       if(dirId.pid != headId.pid && entryCount == 1)
       {
-          DirPage dPage = new DirPage();
           PageId prevId = dirPage.getPrevPage();
           PageId nextId = dirPage.getNextPage();
           
           //previous page
           if(prevId.pid != INVALID_PAGEID){
-              Minibase.BufferManager.pinPage(prevId, dPage, PIN_DISKIO);
-              dPage.setNextPage(nextId);
-              Minibase.BufferManager.unpinPage(prevId, UNPIN_DIRTY);
+              PageHandle prevHandle = Minibase.BufferManager.pin(prevId, ROLE_DIRECTORY);
+              new DirPage(prevHandle.getPage()).setNextPage(nextId);
+              prevHandle.release(UNPIN_DIRTY);
           }
           
           
           //next page
           if(nextId.pid != INVALID_PAGEID){
-              Minibase.BufferManager.pinPage(nextId, dPage, PIN_DISKIO);
-              dPage.setPrevPage(prevId);
-              Minibase.BufferManager.unpinPage(nextId, UNPIN_DIRTY);
+              PageHandle nextHandle = Minibase.BufferManager.pin(nextId, ROLE_DIRECTORY);
+              new DirPage(nextHandle.getPage()).setPrevPage(prevId);
+              nextHandle.release(UNPIN_DIRTY);
           }
           
           
-          Minibase.BufferManager.unpinPage(dirId, UNPIN_CLEAN);
+          dirHandle.release(UNPIN_CLEAN);
           Minibase.BufferManager.freePage(dirId);
       } 
       
       //do not delete the directory file if it is the head page
       else {
           dirPage.setEntryCnt(--entryCount);
-          Minibase.BufferManager.unpinPage(dirId, UNPIN_DIRTY);
+          dirHandle.release(UNPIN_DIRTY);
       }
       
-  } // protected void deletePage(PageId, PageId, DirPage, int)
+  } // protected void deletePage(PageId, PageHandle, DirPage, int)
 
 } // public class HeapFile implements GlobalConst
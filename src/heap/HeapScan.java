@@ -1,10 +1,14 @@
 package heap;
 
+import bufmgr.PageHandle;
+import diskmgr.IOStats;
 import global.GlobalConst;
 import global.Minibase;
 import global.PageId;
 import global.RID;
 
+import java.util.Arrays;
+
 /**
  * A HeapScan object is created only through the function openScan() in the
  * HeapFile class. It supports the getNext interface which will simply retrieve
@@ -12,6 +16,14 @@ import global.RID;
  */
 public class HeapScan implements GlobalConst {
 
+  /** Number of data pages read ahead at a time. */
+  protected static final int READ_AHEAD = 8;
+
+  // --------------------------------------------------------------------------
+
+  /** Handle of the currently pinned directory page. */
+  protected PageHandle dirHandle;
+
   /** Currently pinned directory page (outer loop). */
   protected DirPage dirPage;
 
@@ -21,12 +33,18 @@ public class HeapScan implements GlobalConst {
   /** Slot number of the current entry on the directory page. */
   protected int index;
 
+  /** Handle of the currently pinned data page. */
+  protected PageHandle dataHandle;
+
   /** Currently pinned data page (inner loop). */
   protected DataPage dataPage;
 
   /** RID of the current record on the data page. */
   protected RID curRid;
 
+  /** Name of the file being scanned, to which its I/O is charged. */
+  protected String fileName;
+
   // --------------------------------------------------------------------------
 
   /**
@@ -36,14 +54,21 @@ public class HeapScan implements GlobalConst {
   protected HeapScan(HeapFile hf) {
 
     // pin the head page and get the count
-    dirPage = new DirPage();
-    Minibase.BufferManager.pinPage(hf.headId, dirPage, PIN_DISKIO);
-    count = dirPage.getEntryCnt();
+    fileName = hf.fileName;
+    IOStats.Context prev = IOStats.attribute(fileName);
+    try {
+      dirHandle = Minibase.BufferManager.pin(hf.headId, ROLE_DIRECTORY);
+      dirPage = new DirPage(dirHandle.getPage());
+      count = dirPage.getEntryCnt();
 
-    // initialize other data fields
-    index = -1;
-    dataPage = null;
-    curRid = null;
+      // initialize other data fields
+      index = -1;
+      dataHandle = null;
+      dataPage = null;
+      curRid = null;
+    } finally {
+      IOStats.restore(prev);
+    }
 
   } // protected HeapScan(HeapFile hf)
 
@@ -67,11 +92,13 @@ public class HeapScan implements GlobalConst {
 
     // unpin the pages where applicable
     if (dataPage != null) {
-      Minibase.BufferManager.unpinPage(dataPage.getCurPage(), UNPIN_CLEAN);
+      dataHandle.release(UNPIN_CLEAN);
+      dataHandle = null;
       dataPage = null;
     }
     if (dirPage != null) {
-      Minibase.BufferManager.unpinPage(dirPage.getCurPage(), UNPIN_CLEAN);
+      dirHandle.release(UNPIN_CLEAN);
+      dirHandle = null;
       dirPage = null;
     }
 
@@ -110,21 +137,46 @@ public class HeapScan implements GlobalConst {
     // we just finished a data page within a dir page.  In the first case dataPage == null.
     //If dataPage !=null, we must unpin it only if we move on to another data page.
     
-    //Look for the next data page.
+    //Look for the next data page, charging its I/O to the file.
+    IOStats.Context prev = IOStats.attribute(fileName);
+    try {
+      return nextPage(rid);
+    } finally {
+      IOStats.restore(prev);
+    }
+
+  } // public byte[] getNext(RID rid)
+
+  /**
+   * Moves the scan on to the next data page, returning its first record, or
+   * null if there are no more data pages.
+   *
+   * @throws IllegalStateException if it encounters an empty data page
+   */
+  protected byte[] nextPage(RID rid) {
+
     // If there is another data entry in this dir page, process its data page
     if (index < count - 1) {
 
-      // minor optimization
-      if (dataPage == null) {//we just started the scan
-        dataPage = new DataPage();
-      } else {//we are moving on to a new data page, so unpin the old one
-        Minibase.BufferManager.unpinPage(dataPage.getCurPage(), UNPIN_CLEAN);
+      // we are moving on to a new data page, so unpin the old one
+      if (dataHandle != null) {
+        dataHandle.release(UNPIN_CLEAN);
       }
       
-      // pin the next data page
+      // pin the next data page, reading the next few ahead where they are
+      // adjacent on disk
       index++;
-      Minibase.BufferManager.pinPage(dirPage.getPageId(index), dataPage,
-          PIN_DISKIO);
+      if (index % READ_AHEAD == 0) {
+        readAhead();
+      }
+      dataHandle = Minibase.BufferManager.pin(dirPage.getPageId(index));
+
+      // minor optimization: the view is reused for every data page
+      if (dataPage == null) {//we just started the scan
+        dataPage = new DataPage(dataHandle.getPage());
+      } else {
+        dataPage.setPage(dataHandle.getPage());
+      }
 
       // reset the current record rid, get the first record and return it.
       //The scan is iterating within a data page.
@@ -150,20 +202,49 @@ public class HeapScan implements GlobalConst {
     if (nextId.pid != INVALID_PAGEID) {
 
       // unpin the current dir page, pin the next dir page
-      Minibase.BufferManager.unpinPage(dirPage.getCurPage(), UNPIN_CLEAN);
-      Minibase.BufferManager.pinPage(nextId, dirPage, PIN_DISKIO);
+      dirHandle.release(UNPIN_CLEAN);
+      dirHandle = Minibase.BufferManager.pin(nextId, ROLE_DIRECTORY);
+      dirPage.setPage(dirHandle.getPage());
 
       // reset the counters and try again
       count = dirPage.getEntryCnt();
       index = -1;
       curRid = null;
-      return getNext(rid);
+      return nextPage(rid);
 
     } // if more dir pages
 
     // otherwise, no more records
     return null;
 
-  } // public byte[] getNext(RID rid)
+  } // protected byte[] nextPage(RID rid)
+
+  /**
+   * Reads the data pages of the next READ_AHEAD directory entries into the
+   * buffer pool, in runs of adjacent page ids.
+   */
+  protected void readAhead() {
+
+    // sort the upcoming page ids
+    int num = Math.min(READ_AHEAD, count - index);
+    int[] pids = new int[num];
+    for (int i = 0; i < num; i++) {
+      pids[i] = dirPage.getPageId(index + i).pid;
+    }
+    Arrays.sort(pids);
+
+    // read each run of adjacent pages at once
+    int first = 0;
+    for (int i = 1; i <= num; i++) {
+      if ((i == num) || (pids[i] != pids[i - 1] + 1)) {
+        if (i - first > 1) {
+          Minibase.BufferManager.readAhead(new PageId(pids[first]), i - first,
+              ROLE_DATA);
+        }
+        first = i;
+      }
+    }
+
+  } // protected void readAhead()
 
 } // public class HeapScan implements GlobalConst
@@ -0,0 +1,635 @@
+package tests;
+
+import bufmgr.BufMgr;
+import bufmgr.PageHandle;
+import diskmgr.DiskMgr;
+import global.Convert;
+import global.Minibase;
+import global.Page;
+import global.PageId;
+import global.RID;
+import heap.HeapFile;
+import heap.HeapScan;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Test suite for the buffer manager layer; drives the pool from many threads
+ * through the heap file read paths.
+ */
+class BMTest extends TestDriver {
+
+  /** The display name of the test suite. */
+  private static final String TEST_NAME = "buffer manager tests";
+
+  /** Number of records in the shared heap file. */
+  private static final int FILE_SIZE = 6500;
+
+  /** Number of concurrent reader threads. */
+  private static final int NUM_THREADS = 8;
+
+  /** Number of random selects done by each reader. */
+  private static final int NUM_SELECTS = 20000;
+
+  /** Number of pages shared by the updaters of the eviction race test. */
+  private static final int NUM_RACE_PAGES = 128;
+
+  /** Number of updates done by each thread of the eviction race test. */
+  private static final int NUM_RACE_UPDATES = 20000;
+
+  /** Number of frames added before the memory pressure test. */
+  private static final int NUM_PRESSURE_FRAMES = 4096;
+
+  /** RIDs of the inserted records, indexed by record number. */
+  protected RID[] rids;
+
+  /** The shared heap file. */
+  protected HeapFile f;
+
+  /**
+   * Test application entry point; runs all tests.
+   */
+  public static void main(String argv[]) {
+
+    // create a clean Minibase instance, with a pool much smaller than the file
+    // (pass -mapped to compare the memory-mapped storage backend)
+    BMTest bmt = new BMTest();
+    bmt.BUF_SIZE = 32;
+    if ((argv.length > 0) && argv[0].equals("-mapped")) {
+      bmt.STORAGE = DiskMgr.STORE_MAPPED;
+    }
+    bmt.create_minibase();
+
+    // run all the test cases
+    System.out.println("\n" + "Running " + TEST_NAME + "...");
+    boolean status = PASS;
+    status &= bmt.test1();
+    status &= bmt.test2();
+    status &= bmt.test3();
+    status &= bmt.test4();
+    status &= bmt.test5();
+    status &= bmt.test6();
+    status &= bmt.test7();
+    status &= bmt.test8();
+    status &= bmt.test9();
+    status &= bmt.test10();
+
+    // display the final results
+    System.out.println();
+    if (status != PASS) {
+      System.out.println("Error(s) encountered during " + TEST_NAME + ".");
+    } else {
+      System.out.println("All " + TEST_NAME + " completed successfully!");
+    }
+
+  } // public static void main (String argv[])
+
+  /**
+   * Loads the heap file used by the other tests.
+   */
+  protected boolean test1() {
+
+    System.out.println("\n  Test 1: Load a heap file through a small pool\n");
+    boolean status = PASS;
+
+    f = new HeapFile("bm_file");
+    rids = new RID[FILE_SIZE];
+    for (int i = 0; i < FILE_SIZE; i++) {
+      rids[i] = f.insertRecord(makeRecord(i));
+    }
+
+    if (f.getRecCnt() != FILE_SIZE) {
+      System.err.println("*** File reports " + f.getRecCnt()
+          + " records, not " + FILE_SIZE + "\n");
+      status = FAIL;
+    }
+    status &= checkUnpinned("Loading");
+
+    if (status == PASS)
+      System.out.println("  Test 1 completed successfully.\n");
+    return status;
+
+  } // protected boolean test1()
+
+  /**
+   * Selects random records from many threads at once.
+   */
+  protected boolean test2() {
+
+    System.out.println("\n  Test 2: Concurrent random selects\n");
+    final AtomicInteger errors = new AtomicInteger(0);
+
+    long start = System.nanoTime();
+    runThreads(new Runnable() {
+      public void run() {
+        Random rand = new Random(Thread.currentThread().getId());
+        for (int n = 0; n < NUM_SELECTS; n++) {
+          int i = rand.nextInt(FILE_SIZE);
+          try {
+            byte[] record = f.selectRecord(rids[i]);
+            if (Convert.getIntValue(0, record) != i) {
+              errors.incrementAndGet();
+            }
+          } catch (RuntimeException exc) {
+            exc.printStackTrace();
+            errors.incrementAndGet();
+          }
+        }
+      }
+    });
+    long millis = (System.nanoTime() - start) / 1000000;
+    System.out.println("  - " + (NUM_THREADS * NUM_SELECTS) + " selects in "
+        + millis + " ms\n");
+
+    boolean status = (errors.get() == 0);
+    if (status != PASS) {
+      System.err.println("*** " + errors.get() + " selects failed\n");
+    }
+    status &= checkUnpinned("Selecting");
+
+    if (status == PASS)
+      System.out.println("  Test 2 completed successfully.\n");
+    return status;
+
+  } // protected boolean test2()
+
+  /**
+   * Scans the whole file from many threads at once.
+   */
+  protected boolean test3() {
+
+    System.out.println("\n  Test 3: Concurrent scans\n");
+    final AtomicInteger errors = new AtomicInteger(0);
+
+    runThreads(new Runnable() {
+      public void run() {
+        try {
+          RID rid = new RID();
+          HeapScan scan = f.openScan();
+          int i = 0;
+          for (byte[] record = scan.getNext(rid); record != null;
+              record = scan.getNext(rid), i++) {
+            if (Convert.getIntValue(0, record) != i) {
+              errors.incrementAndGet();
+            }
+          }
+          scan.close();
+          if (i != FILE_SIZE) {
+            errors.incrementAndGet();
+          }
+        } catch (RuntimeException exc) {
+          exc.printStackTrace();
+          errors.incrementAndGet();
+        }
+      }
+    });
+
+    boolean status = (errors.get() == 0);
+    if (status != PASS) {
+      System.err.println("*** " + errors.get() + " scan errors\n");
+    }
+    status &= checkUnpinned("Scanning");
+
+    if (status == PASS)
+      System.out.println("  Test 3 completed successfully.\n");
+    return status;
+
+  } // protected boolean test3()
+
+  /**
+   * Lets the background writer clean the pool after a burst of updates.
+   */
+  protected boolean test4() {
+
+    System.out.println("\n  Test 4: Background writer cleans dirty frames\n");
+    boolean status = PASS;
+
+    // dirty as much of the pool as the updates touch
+    Minibase.BufferManager.setDirtyRatio(0.0);
+    for (int i = 0; i < FILE_SIZE; i += 50) {
+      f.updateRecord(rids[i], makeRecord(i));
+    }
+
+    // the writer should catch up without anyone flushing
+    long deadline = System.currentTimeMillis() + 5000;
+    while ((Minibase.BufferManager.getNumDirty() > 0)
+        && (System.currentTimeMillis() < deadline)) {
+      try {
+        Thread.sleep(10);
+      } catch (InterruptedException exc) {
+        break;
+      }
+    }
+    if (Minibase.BufferManager.getNumDirty() > 0) {
+      System.err.println("*** " + Minibase.BufferManager.getNumDirty()
+          + " frames are still dirty\n");
+      status = FAIL;
+    }
+    status &= checkUnpinned("Writing");
+
+    if (status == PASS)
+      System.out.println("  Test 4 completed successfully.\n");
+    return status;
+
+  } // protected boolean test4()
+
+  /**
+   * Grows and shrinks the pool while other threads select records.
+   */
+  protected boolean test5() {
+
+    System.out.println("\n  Test 5: Resize the pool under load\n");
+    final AtomicInteger errors = new AtomicInteger(0);
+    final AtomicBoolean done = new AtomicBoolean(false);
+
+    // keep resizing the pool in the background
+    Thread resizer = new Thread() {
+      public void run() {
+        int[] sizes = { 256, 16, 64, 24, 128, 32 };
+        for (int n = 0; !done.get(); n++) {
+          int want = sizes[n % sizes.length];
+          if (Minibase.BufferManager.resize(want) < want) {
+            errors.incrementAndGet();
+          }
+        }
+      }
+    };
+    resizer.start();
+    runThreads(new Runnable() {
+      public void run() {
+        Random rand = new Random(Thread.currentThread().getId());
+        for (int n = 0; n < NUM_SELECTS / 4; n++) {
+          int i = rand.nextInt(FILE_SIZE);
+          try {
+            byte[] record = f.selectRecord(rids[i]);
+            if (Convert.getIntValue(0, record) != i) {
+              errors.incrementAndGet();
+            }
+          } catch (RuntimeException exc) {
+            exc.printStackTrace();
+            errors.incrementAndGet();
+          }
+        }
+      }
+    });
+    done.set(true);
+    try {
+      resizer.join();
+    } catch (InterruptedException exc) {
+      Thread.currentThread().interrupt();
+    }
+
+    // settle on the original size once the readers are gone
+    boolean status = (errors.get() == 0);
+    if (status != PASS) {
+      System.err.println("*** " + errors.get() + " errors while resizing\n");
+    }
+    if (Minibase.BufferManager.resize(BUF_SIZE) != BUF_SIZE) {
+      System.err.println("*** Pool could not shrink back to " + BUF_SIZE
+          + " frames\n");
+      status = FAIL;
+    }
+    status &= checkUnpinned("Resizing");
+
+    if (status == PASS)
+      System.out.println("  Test 5 completed successfully.\n");
+    return status;
+
+  } // protected boolean test5()
+
+  /**
+   * Keeps metadata pages in their own small pool while data pages churn.
+   */
+  protected boolean test6() {
+
+    System.out.println("\n  Test 6: Separate pool for metadata pages\n");
+    boolean status = PASS;
+
+    // route everything but data pages to a tiny pool
+    Minibase.BufferManager.createPool("meta", 8, BufMgr.POLICY_CLOCK,
+        ROLE_DIRECTORY, ROLE_SPACE_MAP, ROLE_HEADER);
+    if (Minibase.BufferManager.getPoolNames().length != 2) {
+      System.err.println("*** Pool was not created\n");
+      status = FAIL;
+    }
+
+    // inserts walk the directory over and over, while filling data pages
+    HeapFile g = new HeapFile("bm_meta");
+    for (int i = 0; i < FILE_SIZE / 2; i++) {
+      g.insertRecord(makeRecord(i));
+    }
+    g.deleteFile();
+
+    double meta = Minibase.BufferManager.getHitRatio("meta");
+    System.out.println("  - hit ratios: meta " + meta + ", data "
+        + Minibase.BufferManager.getHitRatio(BufMgr.DEFAULT_POOL) + "\n");
+    if (meta < 0.9) {
+      System.err.println("*** Metadata pages were evicted too often\n");
+      status = FAIL;
+    }
+    if (Minibase.BufferManager.getNumFrames("meta") != 8) {
+      System.err.println("*** Metadata pool has the wrong size\n");
+      status = FAIL;
+    }
+    status &= checkUnpinned("Inserting");
+
+    if (status == PASS)
+      System.out.println("  Test 6 completed successfully.\n");
+    return status;
+
+  } // protected boolean test6()
+
+  /**
+   * Restarts the database and checks that the hot pages are reloaded.
+   */
+  protected boolean test7() {
+
+    System.out.println("\n  Test 7: Warm restart from the hot-page list\n");
+    boolean status = PASS;
+
+    // make the first records hot, then restart with the pages saved
+    int hot = FILE_SIZE / 50;
+    for (int n = 0; n < 10; n++) {
+      for (int i = 0; i < hot; i++) {
+        f.selectRecord(rids[i]);
+      }
+    }
+    Minibase.WarmRestart = true;
+    Minibase.DiskManager.closeDB();
+    load_minibase();
+
+    // wait for the background loader to finish
+    long deadline = System.currentTimeMillis() + 5000;
+    while (Minibase.BufferManager.isWarmingUp()
+        && (System.currentTimeMillis() < deadline)) {
+      try {
+        Thread.sleep(10);
+      } catch (InterruptedException exc) {
+        break;
+      }
+    }
+    Minibase.WarmRestart = false;
+
+    // the hot records should now be read without touching the disk
+    long reads = Minibase.DiskManager.getReadCount();
+    for (int i = 0; i < hot; i++) {
+      if (Convert.getIntValue(0, f.selectRecord(rids[i])) != i) {
+        System.err.println("*** Record " + i + " is wrong after restart\n");
+        status = FAIL;
+        break;
+      }
+    }
+    reads = Minibase.DiskManager.getReadCount() - reads;
+    System.out.println("  - " + reads + " reads for " + hot
+        + " hot records after restart\n");
+    if (reads > 0) {
+      System.err.println("*** Hot pages were not reloaded\n");
+      status = FAIL;
+    }
+    status &= checkUnpinned("Restarting");
+
+    if (status == PASS)
+      System.out.println("  Test 7 completed successfully.\n");
+    return status;
+
+  } // protected boolean test7()
+
+  /**
+   * Deletes every record, so that all data and directory pages are freed.
+   */
+  protected boolean test8() {
+
+    System.out.println("\n  Test 8: Delete all records, freeing their pages\n");
+    boolean status = PASS;
+
+    int before = Minibase.DiskManager.getAllocCount();
+    for (int i = 0; i < FILE_SIZE; i++) {
+      f.deleteRecord(rids[i]);
+    }
+    if (f.getRecCnt() != 0) {
+      System.err.println("*** File still reports " + f.getRecCnt()
+          + " records\n");
+      status = FAIL;
+    }
+    if (Minibase.DiskManager.getAllocCount() >= before) {
+      System.err.println("*** Empty pages were not freed\n");
+      status = FAIL;
+    }
+    status &= checkUnpinned("Deleting");
+
+    if (status == PASS)
+      System.out.println("  Test 8 completed successfully.\n");
+    return status;
+
+  } // protected boolean test8()
+
+  /**
+   * Races dirty unpins against eviction, and checks that no update is lost.
+   */
+  protected boolean test9() {
+
+    System.out.println("\n  Test 9: Dirty unpins racing with eviction\n");
+
+    // allocate four times as many zeroed pages as the pool holds
+    final PageId[] pages = new PageId[NUM_RACE_PAGES];
+    for (int i = 0; i < NUM_RACE_PAGES; i++) {
+      PageHandle handle = Minibase.BufferManager.newPage(1);
+      handle.getPage().copyPage(new Page());
+      pages[i] = handle.getPageId();
+      handle.release(UNPIN_DIRTY);
+    }
+
+    // each thread bumps its own counter on random pages, so that frames are
+    // always being unpinned dirty while others are claimed for eviction
+    final int[][] counts = new int[NUM_THREADS][NUM_RACE_PAGES];
+    final AtomicInteger next = new AtomicInteger(0);
+    final AtomicInteger errors = new AtomicInteger(0);
+    runThreads(new Runnable() {
+      public void run() {
+        int t = next.getAndIncrement();
+        Random rand = new Random(t);
+        try {
+          for (int n = 0; n < NUM_RACE_UPDATES; n++) {
+            int i = rand.nextInt(NUM_RACE_PAGES);
+            PageHandle handle = Minibase.BufferManager.pin(pages[i]);
+            Page page = handle.getPage();
+            page.setIntValue(page.getIntValue(t * 4) + 1, t * 4);
+            counts[t][i]++;
+            handle.release(UNPIN_DIRTY);
+          }
+        } catch (RuntimeException exc) {
+          exc.printStackTrace();
+          errors.incrementAndGet();
+        }
+      }
+    });
+    boolean status = (errors.get() == 0);
+    if (status != PASS) {
+      System.err.println("*** " + errors.get() + " updaters failed\n");
+    }
+
+    // every counter on disk must match the updates made, and the running
+    // dirty count must have come back to zero
+    Minibase.BufferManager.flushAllFrames();
+    if (Minibase.BufferManager.getNumDirty() != 0) {
+      System.err.println("*** " + Minibase.BufferManager.getNumDirty()
+          + " frames still counted dirty after flushing\n");
+      status = FAIL;
+    }
+    Page page = new Page();
+    for (int i = 0; (i < NUM_RACE_PAGES) && (status == PASS); i++) {
+      Minibase.DiskManager.read_page(pages[i], page);
+      for (int t = 0; t < NUM_THREADS; t++) {
+        if (page.getIntValue(t * 4) != counts[t][i]) {
+          System.err.println("*** Page " + pages[i].pid + " lost "
+              + (counts[t][i] - page.getIntValue(t * 4)) + " updates\n");
+          status = FAIL;
+          break;
+        }
+      }
+    }
+    for (int i = 0; i < NUM_RACE_PAGES; i++) {
+      Minibase.BufferManager.freePage(pages[i]);
+    }
+    status &= checkUnpinned("Racing");
+
+    if (status == PASS)
+      System.out.println("  Test 9 completed successfully.\n");
+    return status;
+
+  } // protected boolean test9()
+
+  /**
+   * Shrinks a grown pool when its memory goes over budget, giving back just
+   * the excess, then down past its initial size.
+   */
+  protected boolean test10() {
+
+    System.out.println("\n  Test 10: Shrink the pool under memory pressure\n");
+    boolean status = PASS;
+
+    // grow the pool by a chunk of frames, and set a budget it no longer fits;
+    // other direct memory far over the budget must not count
+    long before = Minibase.BufferManager.getMemoryUsed();
+    Minibase.BufferManager.resize(BUF_SIZE + NUM_PRESSURE_FRAMES);
+    long grown = Minibase.BufferManager.getMemoryUsed();
+    long budget = before + (grown - before) / 2;
+    ByteBuffer other = ByteBuffer.allocateDirect((int) grown);
+    long direct = getDirectMemory();
+    Minibase.BufferManager.watchMemory(budget);
+
+    // the watcher should release the chunk, and then leave the pool alone
+    long deadline = System.currentTimeMillis() + 5000;
+    while ((Minibase.BufferManager.getMemoryUsed() > budget)
+        && (System.currentTimeMillis() < deadline)) {
+      try {
+        Thread.sleep(10);
+      } catch (InterruptedException exc) {
+        break;
+      }
+    }
+    try {
+      Thread.sleep(500);
+    } catch (InterruptedException exc) {
+      Thread.currentThread().interrupt();
+    }
+    Minibase.BufferManager.watchMemory(0);
+    System.out.println("  - pool memory: " + (before >> 10) + " KB, grown "
+        + (grown >> 10) + " KB, shrunk "
+        + (Minibase.BufferManager.getMemoryUsed() >> 10) + " KB in "
+        + Minibase.BufferManager.getNumFrames() + " frames\n");
+    if (Minibase.BufferManager.getMemoryUsed() > budget) {
+      System.err.println("*** Pool memory was not released\n");
+      status = FAIL;
+    }
+    if (getDirectMemory() > direct - (grown - before)) {
+      System.err.println("*** Chunk memory was not freed\n");
+      status = FAIL;
+    }
+    if (Minibase.BufferManager.getNumFrames() != BUF_SIZE) {
+      System.err.println("*** Pool shrank by more than the excess\n");
+      status = FAIL;
+    }
+    other = null;
+
+    // repeated pressure takes the pool down to its minimum
+    for (int n = 0; n < 8; n++) {
+      Minibase.BufferManager.onMemoryPressure();
+    }
+    if (Minibase.BufferManager.getNumFrames(BufMgr.DEFAULT_POOL)
+        != BufMgr.MIN_POOL_FRAMES) {
+      System.err.println("*** Pool did not shrink to its minimum\n");
+      status = FAIL;
+    }
+    Minibase.BufferManager.resize(BUF_SIZE);
+    status &= checkUnpinned("Shrinking");
+
+    if (status == PASS)
+      System.out.println("  Test 10 completed successfully.\n");
+    return status;
+
+  } // protected boolean test10()
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Runs the given task on NUM_THREADS threads and waits for all of them.
+   */
+  protected void runThreads(Runnable task) {
+    ArrayList<Thread> threads = new ArrayList<Thread>();
+    for (int i = 0; i < NUM_THREADS; i++) {
+      Thread t = new Thread(task);
+      threads.add(t);
+      t.start();
+    }
+    for (Thread t : threads) {
+      try {
+        t.join();
+      } catch (InterruptedException exc) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  } // protected void runThreads(Runnable task)
+
+  /**
+   * Verifies that no pages were left pinned by the given step.
+   */
+  protected boolean checkUnpinned(String step) {
+    if (Minibase.BufferManager.getNumUnpinned() != Minibase.BufferManager
+        .getNumFrames()) {
+      System.err.println("*** " + step + " left a page pinned\n");
+      return FAIL;
+    }
+    return PASS;
+  }
+
+  /**
+   * Gets the direct (off-heap) memory in use by the JVM, in bytes.
+   */
+  protected long getDirectMemory() {
+    for (BufferPoolMXBean pool : ManagementFactory
+        .getPlatformMXBeans(BufferPoolMXBean.class)) {
+      if (pool.getName().equals("direct")) {
+        return pool.getMemoryUsed();
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Creates a fixed-size record holding the given record number.
+   */
+  protected byte[] makeRecord(int i) {
+    byte[] data = new byte[32];
+    Convert.setIntValue(i, 0, data);
+    Convert.setStringValue("record" + i, 4, data);
+    return data;
+  }
+
+} // class BMTest extends TestDriver
@@ -0,0 +1,194 @@
+package tests;
+
+import diskmgr.DiskMgr;
+import global.Minibase;
+import global.RID;
+import heap.HeapFile;
+import heap.HeapScan;
+
+import java.util.HashSet;
+
+/**
+ * Large database stress test: fills heap files until the database passes
+ * the given size (17 GB by default, or -gb n), then reopens the database,
+ * times how long reading the first record takes, scans every record back and
+ * reads the last ones directly, so page offsets past the 32-bit range and
+ * space maps spanning many pages are exercised. The database is destroyed at
+ * the end, as it is too large to keep around.
+ */
+class LDTest extends TestDriver {
+
+  /** The display name of the test suite. */
+  private static final String TEST_NAME = "large database tests";
+
+  /** Default database size to reach (in gigabytes). */
+  private static final int DEFAULT_GB = 17;
+
+  /** Page size used, the largest supported to keep the page count down. */
+  private static final int LARGE_PAGE_SIZE = 16384;
+
+  /** Buffer pool size (in pages). */
+  private static final int LARGE_BUF_SIZE = 1024;
+
+  /** Length of each record, so a few fit on each page. */
+  private static final int REC_LEN = 4000;
+
+  /**
+   * Number of heap files filled in turn; a heap file searches its whole
+   * directory on each insert, so one huge file would take too long to fill.
+   */
+  private static final int NUM_FILES = 64;
+
+  /** Number of scanned RIDs whose hash codes are compared. */
+  private static final int HASH_SAMPLE = 1000000;
+
+  /** Database size to reach (in gigabytes). */
+  protected int gigabytes = DEFAULT_GB;
+
+  /**
+   * Test application entry point; runs all tests.
+   */
+  public static void main(String argv[]) {
+
+    // pass -gb n to change the size, and -mapped, -direct or -striped to use
+    // the other storage backends
+    System.out.println("\n" + "Running " + TEST_NAME + "...");
+    LDTest ldt = new LDTest();
+    for (int i = 0; i < argv.length; i++) {
+      if (argv[i].equals("-gb") && (i + 1 < argv.length)) {
+        ldt.gigabytes = Integer.parseInt(argv[++i]);
+      } else if (argv[i].equals("-mapped")) {
+        ldt.STORAGE = DiskMgr.STORE_MAPPED;
+      } else if (argv[i].equals("-direct")) {
+        ldt.STORAGE = DiskMgr.STORE_DIRECT;
+      } else if (argv[i].equals("-striped")) {
+        Minibase.DataFiles = 4;
+      }
+    }
+    boolean status = ldt.test1();
+    Minibase.PageSize = PAGE_SIZE;
+    Minibase.DataFiles = 1;
+
+    // display the final results
+    System.out.println();
+    if (status != PASS) {
+      System.out.println("Error(s) encountered during " + TEST_NAME + ".");
+    } else {
+      System.out.println("All " + TEST_NAME + " completed successfully!");
+    }
+
+  } // public static void main (String argv[])
+
+  /**
+   * Fills, reopens and scans a database of the configured size.
+   */
+  protected boolean test1() {
+
+    System.out.println("\n  Test 1: Fill and scan a " + gigabytes
+        + " GB database\n");
+    Minibase.PageSize = LARGE_PAGE_SIZE;
+    BUF_SIZE = LARGE_BUF_SIZE;
+    delete_minibase();
+    create_minibase();
+
+    // insert records round robin until one reaches past the target size,
+    // letting the database grow
+    long target = (long) gigabytes << 30;
+    long start = System.nanoTime();
+    HeapFile[] files = new HeapFile[NUM_FILES];
+    for (int i = 0; i < NUM_FILES; i++) {
+      files[i] = new HeapFile("large" + i);
+    }
+    RID[] last = new RID[NUM_FILES];
+    int[] counts = new int[NUM_FILES];
+    byte[] record = new byte[REC_LEN];
+    long numrecs = 0;
+    boolean past = false;
+    while (!past) {
+      for (int i = 0; i < NUM_FILES; i++) {
+        record[0] = (byte) counts[i];
+        record[REC_LEN - 1] = (byte) (counts[i] >>> 8);
+        last[i] = files[i].insertRecord(record);
+        past |= (long) last[i].pageno.pid * Minibase.PageSize >= target;
+        counts[i]++;
+        numrecs++;
+      }
+    }
+    Minibase.BufferManager.flushAllFrames();
+    long insert = System.nanoTime() - start;
+
+    // reopen the database, timing until the last record can be read
+    Minibase.DiskManager.closeDB();
+    start = System.nanoTime();
+    load_minibase();
+    new HeapFile("large" + (NUM_FILES - 1)).selectRecord(last[NUM_FILES - 1]);
+    long open = System.nanoTime() - start;
+
+    // scan each file's records back in order
+    start = System.nanoTime();
+    HashSet<Integer> hashes = new HashSet<Integer>();
+    RID rid = new RID();
+    byte[] data;
+    for (int i = 0; i < NUM_FILES; i++) {
+      files[i] = new HeapFile("large" + i);
+      HeapScan scan = files[i].openScan();
+      int count = 0;
+      while ((data = scan.getNext(rid)) != null) {
+        if ((data[0] != (byte) count)
+            || (data[REC_LEN - 1] != (byte) (count >>> 8))) {
+          System.err.println("*** Record " + count + " of file " + i
+              + " has the wrong contents");
+          scan.close();
+          return FAIL;
+        }
+        if (hashes.size() < HASH_SAMPLE) {
+          hashes.add(rid.hashCode());
+        }
+        count++;
+      }
+      scan.close();
+      if (count != counts[i]) {
+        System.err.println("*** Scanned " + count + " of " + counts[i]
+            + " records in file " + i);
+        return FAIL;
+      }
+    }
+    long scantime = System.nanoTime() - start;
+
+    // RIDs on pages past 65535 must not collide much
+    int sample = (int) Math.min(numrecs, HASH_SAMPLE);
+    if (hashes.size() < sample - sample / 100) {
+      System.err.println("*** RID hash codes collide: " + hashes.size()
+          + " distinct of " + sample);
+      return FAIL;
+    }
+
+    // read each file's last record directly
+    for (int i = 0; i < NUM_FILES; i++) {
+      data = files[i].selectRecord(last[i]);
+      int lastno = counts[i] - 1;
+      if ((data[0] != (byte) lastno)
+          || (data[REC_LEN - 1] != (byte) (lastno >>> 8))) {
+        System.err.println("*** Last record of file " + i
+            + " has the wrong contents");
+        return FAIL;
+      }
+    }
+
+    long bytes = (long) Minibase.DiskManager.getNumDBPages()
+        * Minibase.PageSize;
+    System.out.println("  - " + numrecs + " records in " + (bytes >> 20)
+        + " MB (" + Minibase.DiskManager.getNumDBPages() + " pages)");
+    System.out.println("  - Open to first record: " + (open / 1000000)
+        + " ms");
+    System.out.println("  - Insert: " + (insert / 1000000) + " ms ("
+        + ((bytes >> 20) * 1000000000L / Math.max(1, insert))
+        + " MB/s), scan: " + (scantime / 1000000) + " ms ("
+        + ((bytes >> 20) * 1000000000L / Math.max(1, scantime)) + " MB/s)");
+    Minibase.DiskManager.destroyDB();
+    System.out.print("\n  Test 1 completed successfully.\n");
+    return PASS;
+
+  } // protected boolean test1()
+
+} // class LDTest extends TestDriver
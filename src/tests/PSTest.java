@@ -0,0 +1,168 @@
+package tests;
+
+import diskmgr.DiskMgr;
+import diskmgr.IOStats;
+import global.Minibase;
+import global.RID;
+import heap.HeapFile;
+import heap.HeapScan;
+
+/**
+ * Page size benchmark: loads and scans the same heap file in databases of
+ * each supported page size, with the database and buffer pool holding the
+ * same number of bytes, and reports the I/O and time taken. The first scan
+ * starts with an empty buffer pool, and the second repeats it; with buffered
+ * storage both may be served from the OS page cache, while with -direct
+ * every page not in the pool comes from the device.
+ */
+class PSTest extends TestDriver {
+
+  /** The display name of the test suite. */
+  private static final String TEST_NAME = "page size tests";
+
+  /** The page sizes to compare. */
+  private static final int[] PAGE_SIZES = { 1024, 4096, 8192, 16384 };
+
+  /** Database size (in bytes). */
+  private static final int DB_BYTES = 32 * 1024 * 1024;
+
+  /** Buffer pool size (in bytes). */
+  private static final int BUF_BYTES = 256 * 1024;
+
+  /** Number of records to insert. */
+  private static final int NUM_RECS = 100000;
+
+  /** Length of each record. */
+  private static final int REC_LEN = 100;
+
+  /** Number of data files used with -striped. */
+  private static final int STRIPED_FILES = 4;
+
+  /** Smallest page size direct I/O takes, i.e. the usual device block. */
+  private static final int DIRECT_MIN_SIZE = 4096;
+
+  /**
+   * Test application entry point; runs all tests.
+   */
+  public static void main(String argv[]) {
+
+    // run the same test for each page size (pass -mapped or -direct to
+    // compare the other storage backends, and -striped to spread the pages
+    // across several data files)
+    System.out.println("\n" + "Running " + TEST_NAME + "...");
+    PSTest pst = new PSTest();
+    for (String arg : argv) {
+      if (arg.equals("-mapped")) {
+        pst.STORAGE = DiskMgr.STORE_MAPPED;
+      } else if (arg.equals("-direct")) {
+        pst.STORAGE = DiskMgr.STORE_DIRECT;
+      } else if (arg.equals("-striped")) {
+        Minibase.DataFiles = STRIPED_FILES;
+      }
+    }
+    boolean status = PASS;
+    for (int size : PAGE_SIZES) {
+      status &= pst.test1(size);
+    }
+    Minibase.PageSize = PAGE_SIZE;
+    Minibase.DataFiles = 1;
+
+    // display the final results
+    System.out.println();
+    if (status != PASS) {
+      System.out.println("Error(s) encountered during " + TEST_NAME + ".");
+    } else {
+      System.out.println("All " + TEST_NAME + " completed successfully!");
+    }
+
+  } // public static void main (String argv[])
+
+  /**
+   * Inserts and scans the records in a new database of the given page size.
+   */
+  protected boolean test1(int pagesize) {
+
+    System.out.println("\n  Test 1: Insert and scan with " + pagesize
+        + "-byte pages\n");
+    Minibase.PageSize = pagesize;
+    DB_SIZE = DB_BYTES / pagesize;
+    BUF_SIZE = BUF_BYTES / pagesize;
+    delete_minibase();
+    if ((STORAGE == DiskMgr.STORE_DIRECT) && (pagesize < DIRECT_MIN_SIZE)) {
+      System.out.println("  - Skipped: too small for direct I/O");
+      return PASS;
+    }
+    create_minibase();
+    initCounts();
+    saveCounts(null);
+
+    // insert the records
+    long start = System.nanoTime();
+    HeapFile file = new HeapFile("pagesize");
+    byte[] record = new byte[REC_LEN];
+    for (int i = 0; i < NUM_RECS; i++) {
+      record[0] = (byte) i;
+      file.insertRecord(record);
+    }
+    Minibase.BufferManager.flushAllFrames();
+    long insert = System.nanoTime() - start;
+
+    // reopen the database, so the first scan starts with an empty pool
+    Minibase.DiskManager.closeDB();
+    load_minibase();
+    initCounts();
+    saveCounts(null);
+    file = new HeapFile("pagesize");
+    long[] scantime = new long[2];
+    for (int pass = 0; pass < 2; pass++) {
+
+      // scan them back
+      start = System.nanoTime();
+      HeapScan scan = file.openScan();
+      RID rid = new RID();
+      int count = 0;
+      while (scan.getNext(rid) != null) {
+        count++;
+      }
+      scan.close();
+      scantime[pass] = System.nanoTime() - start;
+      if (count != NUM_RECS) {
+        System.err.println("*** Scanned " + count + " of " + NUM_RECS
+            + " records");
+        return FAIL;
+      }
+
+    } // for
+
+    System.out.println("  - Insert: " + (insert / 1000000) + " ms, cold scan: "
+        + (scantime[0] / 1000000) + " ms, warm scan: "
+        + (scantime[1] / 1000000) + " ms");
+    printCounters();
+
+    // the file's operations leave no attribution behind; show where their
+    // I/O went
+    System.out.println();
+    if (!IOStats.getFile().equals(IOStats.NO_FILE)) {
+      System.err.println("*** I/O still charged to " + IOStats.getFile());
+      return FAIL;
+    }
+    for (IOStats.Snapshot snap : Minibase.DiskManager.getIOStats()) {
+      System.out.println("  - " + snap);
+    }
+    file.deleteFile();
+
+    // give the freed pages back to the file system
+    int released = Minibase.DiskManager.trim();
+    System.out.println("\n  - Trim released " + released + " pages");
+    if (Minibase.DiskManager.getAllocCount()
+        != Minibase.DiskManager.getNumDBPages()) {
+      System.err.println("*** Free pages left after trim");
+      return FAIL;
+    }
+    Minibase.DiskManager.closeDB();
+    System.out.print("\n  Test 1 completed successfully.\n");
+    return PASS;
+
+  } // protected boolean test1(int pagesize)
+
+} // class PSTest extends TestDriver
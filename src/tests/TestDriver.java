@@ -1,5 +1,6 @@
 package tests;
 
+import diskmgr.DiskMgr;
 import global.GlobalConst;
 import global.Minibase;
 
@@ -30,6 +31,9 @@ class TestDriver implements GlobalConst {
   /** Default buffer pool size (in pages) */
   protected int BUF_SIZE = 100;
 
+  /** Default storage backend for the database file. */
+  protected int STORAGE = DiskMgr.STORE_FILE;
+
   // --------------------------------------------------------------------------
 
   /** Random generator; use the same seed to make tests deterministic. */
@@ -42,9 +46,9 @@ class TestDriver implements GlobalConst {
 
     public String desc;
 
-    public int reads;
+    public long reads;
 
-    public int writes;
+    public long writes;
 
     public int allocs;
 
@@ -72,7 +76,7 @@ class TestDriver implements GlobalConst {
    */
   protected void create_minibase() {
     System.out.println("Creating database...\n");
-    new Minibase(DB_PATH, DB_SIZE, BUF_SIZE, false);
+    new Minibase(DB_PATH, DB_SIZE, BUF_SIZE, false, STORAGE);
   }
 
   /**
@@ -80,7 +84,7 @@ class TestDriver implements GlobalConst {
    */
   protected void load_minibase() {
     System.out.println("Loading database...\n" );
-    new Minibase(DB_PATH, DB_SIZE, BUF_SIZE, true);
+    new Minibase(DB_PATH, DB_SIZE, BUF_SIZE, true, STORAGE);
   }
 
   // --------------------------------------------------------------------------
@@ -0,0 +1,391 @@
+package tests;
+
+import global.Convert;
+import global.Minibase;
+import global.RID;
+import heap.HeapFile;
+import heap.HeapScan;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import wal.LogMgr;
+
+/**
+ * Test suite for the write-ahead log and checkpoints. The crash test runs its
+ * updates in a child JVM that halts without closing the database, then checks
+ * that every committed change is there when the database is opened again.
+ */
+class WALTest extends TestDriver {
+
+  /** The display name of the test suite. */
+  private static final String TEST_NAME = "write-ahead log tests";
+
+  /** Buffer pool size for the checkpoint test (in pages). */
+  private static final int CHECKPOINT_BUF_SIZE = 1000;
+
+  /** Number of records inserted before the checkpoint test's checkpoint. */
+  private static final int NUM_CHECKPOINTED = 20000;
+
+  /** Time the checkpoint test's checkpoint is paced to take (in ms). */
+  private static final int CHECKPOINT_MILLIS = 500;
+
+  /** Number of records committed before the crash. */
+  private static final int NUM_COMMITTED = 5000;
+
+  /** Number of records inserted after the last commit. */
+  private static final int NUM_UNCOMMITTED = 500;
+
+  /** Length of each record. */
+  private static final int REC_LEN = 60;
+
+  /** Number of committing threads. */
+  private static final int NUM_THREADS = 8;
+
+  /** Number of commits made by each thread. */
+  private static final int NUM_COMMITS = 200;
+
+  /** Argument running the crashing child instead of the tests. */
+  private static final String CRASH_ARG = "-crash";
+
+  /**
+   * Test application entry point; runs all tests.
+   */
+  public static void main(String argv[]) {
+
+    // the child of test 1 makes its changes and halts
+    WALTest wt = new WALTest();
+    if ((argv.length > 0) && argv[0].equals(CRASH_ARG)) {
+      wt.crash();
+      return;
+    }
+
+    // run all the test cases
+    System.out.println("\n" + "Running " + TEST_NAME + "...");
+    boolean status = PASS;
+    status &= wt.test1();
+    status &= wt.test2();
+    status &= wt.test3();
+    Minibase.WriteAheadLog = false;
+
+    // display the final results
+    System.out.println();
+    if (status != PASS) {
+      System.out.println("Error(s) encountered during " + TEST_NAME + ".");
+    } else {
+      System.out.println("All " + TEST_NAME + " completed successfully!");
+    }
+
+  } // public static void main (String argv[])
+
+  /**
+   * Makes the crash test's changes in a new database, with a checkpoint after
+   * the inserts, committing all but the last inserts, then halts without
+   * closing the database.
+   */
+  protected void crash() {
+
+    // insert the records, then update every tenth and delete every seventh
+    Minibase.WriteAheadLog = true;
+    delete_minibase();
+    create_minibase();
+    HeapFile file = new HeapFile("wal");
+    RID[] rids = new RID[NUM_COMMITTED];
+    for (int i = 0; i < NUM_COMMITTED; i++) {
+      rids[i] = file.insertRecord(record(i, 0));
+    }
+    Minibase.BufferManager.checkpoint();
+    for (int i = 0; i < NUM_COMMITTED; i++) {
+      if (i % 7 == 0) {
+        file.deleteRecord(rids[i]);
+      } else if (i % 10 == 0) {
+        file.updateRecord(rids[i], record(i, 1));
+      }
+    }
+    Minibase.DiskManager.commit();
+
+    // these may or may not survive
+    for (int i = 0; i < NUM_UNCOMMITTED; i++) {
+      file.insertRecord(record(NUM_COMMITTED + i, 0));
+    }
+    Runtime.getRuntime().halt(0);
+
+  } // protected void crash()
+
+  /**
+   * Crashes after committing changes, and recovers them on reopening.
+   */
+  protected boolean test1() {
+
+    System.out.println("\n  Test 1: Recover committed changes after a crash\n");
+
+    // make the changes in a child JVM that crashes
+    System.out.println("  - Run the updates in a process that crashes\n");
+    try {
+      String java = System.getProperty("java.home") + File.separator + "bin"
+          + File.separator + "java";
+      Process child = new ProcessBuilder(java, "-cp",
+          System.getProperty("java.class.path"), WALTest.class.getName(),
+          CRASH_ARG).inheritIO().start();
+      if (child.waitFor() != 0) {
+        System.err.println("*** Crashing process failed");
+        return FAIL;
+      }
+
+      // leave a torn record at the end of the log, as a crash mid-write would
+      RandomAccessFile fp = new RandomAccessFile(DB_PATH + LogMgr.LOG_SUFFIX,
+          "rw");
+      try {
+        fp.seek(fp.length());
+        fp.writeInt(1);
+        fp.writeInt(0);
+        fp.writeInt(REC_LEN);
+      } finally {
+        fp.close();
+      }
+    } catch (IOException exc) {
+      exc.printStackTrace();
+      return FAIL;
+    } catch (InterruptedException exc) {
+      Thread.currentThread().interrupt();
+      return FAIL;
+    }
+
+    // reopen the database, replaying the log
+    Minibase.WriteAheadLog = true;
+    load_minibase();
+    System.out.println("  - Scan the recovered records\n");
+    boolean[] seen = new boolean[NUM_COMMITTED];
+    HeapFile file = new HeapFile("wal");
+    HeapScan scan = file.openScan();
+    RID rid = new RID();
+    RID last = null;
+    byte[] data;
+    while ((data = scan.getNext(rid)) != null) {
+      int i = Convert.getIntValue(0, data);
+      if (i >= NUM_COMMITTED) {
+        continue;
+      }
+      last = new RID(rid);
+      int version = (i % 10 == 0) ? 1 : 0;
+      if ((i % 7 == 0) || seen[i] || (data[REC_LEN - 1] != (byte) version)) {
+        System.err.println("*** Record " + i + " was not recovered properly");
+        scan.close();
+        return FAIL;
+      }
+      seen[i] = true;
+    }
+    scan.close();
+    for (int i = 0; i < NUM_COMMITTED; i++) {
+      if (!seen[i] && (i % 7 != 0)) {
+        System.err.println("*** Committed record " + i + " was lost");
+        return FAIL;
+      }
+    }
+
+    // an update logs the bytes it changed, not the whole page
+    System.out.println("  - Update a record and check what was logged\n");
+    LogMgr log = Minibase.DiskManager.getLog();
+    int key = Convert.getIntValue(0, file.selectRecord(last));
+    long before = log.getEndLSN();
+    file.updateRecord(last, record(key, 2));
+    if (log.getEndLSN() - before >= Minibase.PageSize / 2) {
+      System.err.println("*** Update logged " + (log.getEndLSN() - before)
+          + " bytes");
+      return FAIL;
+    }
+
+    // a clean close leaves nothing to replay
+    Minibase.DiskManager.closeDB();
+    if (new File(DB_PATH + LogMgr.LOG_SUFFIX).length() > 16) {
+      System.err.println("*** Log not emptied by closing");
+      return FAIL;
+    }
+    System.out.print("  Test 1 completed successfully.\n");
+    return PASS;
+
+  } // protected boolean test1()
+
+  /**
+   * Commits from many threads at once, with and without the log.
+   */
+  protected boolean test2() {
+
+    System.out.println("\n  Test 2: Concurrent commits\n");
+    boolean status = PASS;
+    for (int pass = 0; pass < 2; pass++) {
+
+      // each thread inserts into its own file, committing after each record
+      Minibase.WriteAheadLog = (pass == 1);
+      delete_minibase();
+      create_minibase();
+      final HeapFile[] files = new HeapFile[NUM_THREADS];
+      for (int i = 0; i < NUM_THREADS; i++) {
+        files[i] = new HeapFile("commit" + i);
+      }
+      final AtomicInteger next = new AtomicInteger(0);
+      final AtomicInteger errors = new AtomicInteger(0);
+      long start = System.nanoTime();
+      ArrayList<Thread> threads = new ArrayList<Thread>();
+      for (int t = 0; t < NUM_THREADS; t++) {
+        threads.add(new Thread() {
+          public void run() {
+            HeapFile file = files[next.getAndIncrement()];
+            try {
+              for (int i = 0; i < NUM_COMMITS; i++) {
+                file.insertRecord(record(i, 0));
+                Minibase.DiskManager.commit();
+              }
+            } catch (RuntimeException exc) {
+              exc.printStackTrace();
+              errors.incrementAndGet();
+            }
+          }
+        });
+      }
+      for (Thread t : threads) {
+        t.start();
+      }
+      for (Thread t : threads) {
+        try {
+          t.join();
+        } catch (InterruptedException exc) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      long millis = (System.nanoTime() - start) / 1000000;
+
+      // report the cost of a commit
+      String how = "flushing the pool";
+      LogMgr log = Minibase.DiskManager.getLog();
+      if (log != null) {
+        how = "the log (" + log.getForceCount() + " forces for "
+            + log.getCommitCount() + " commits)";
+      }
+      System.out.println("  - " + (NUM_THREADS * NUM_COMMITS)
+          + " commits in " + millis + " ms through " + how);
+      if (errors.get() > 0) {
+        System.err.println("*** " + errors.get() + " threads failed");
+        status = FAIL;
+      }
+      Minibase.DiskManager.closeDB();
+
+    } // for
+
+    if (status == PASS)
+      System.out.print("\n  Test 2 completed successfully.\n");
+    return status;
+
+  } // protected boolean test2()
+
+  /**
+   * Takes a paced checkpoint while another thread keeps inserting.
+   */
+  protected boolean test3() {
+
+    System.out.println("\n  Test 3: Checkpoint while inserting\n");
+    Minibase.WriteAheadLog = true;
+    BUF_SIZE = CHECKPOINT_BUF_SIZE;
+    delete_minibase();
+    create_minibase();
+
+    // fill the pool with dirty pages, keeping the writer out of the way
+    Minibase.BufferManager.setDirtyRatio(1.0);
+    HeapFile file = new HeapFile("checkpoint");
+    int count = 0;
+    for (; count < NUM_CHECKPOINTED; count++) {
+      file.insertRecord(record(count, 0));
+    }
+    int dirty = Minibase.BufferManager.getNumDirty();
+    long logged = new File(DB_PATH + LogMgr.LOG_SUFFIX).length();
+
+    // checkpoint on another thread, inserting meanwhile
+    Minibase.BufferManager.setCheckpointRate(dirty * 1000 / CHECKPOINT_MILLIS);
+    final AtomicInteger written = new AtomicInteger(-1);
+    Thread thread = new Thread() {
+      public void run() {
+        written.set(Minibase.BufferManager.checkpoint());
+      }
+    };
+    long start = System.nanoTime();
+    thread.start();
+    long slowest = 0;
+    int during = 0;
+    while (thread.isAlive()) {
+      long t = System.nanoTime();
+      file.insertRecord(record(count++, 0));
+      slowest = Math.max(slowest, System.nanoTime() - t);
+      during++;
+    }
+    try {
+      thread.join();
+    } catch (InterruptedException exc) {
+      Thread.currentThread().interrupt();
+    }
+    long millis = (System.nanoTime() - start) / 1000000;
+    Minibase.BufferManager.setCheckpointRate(0);
+    System.out.println("  - Checkpoint wrote " + written.get() + " of "
+        + dirty + " dirty pages in " + millis + " ms, while " + during
+        + " records were inserted (slowest " + (slowest / 1000) + " us)");
+
+    // the checkpoint is recorded, and the log holds only what came after it
+    boolean status = PASS;
+    if ((written.get() <= 0) || (during == 0)) {
+      System.err.println("*** Checkpoint did not overlap the inserts");
+      status = FAIL;
+    }
+    if (Minibase.DiskManager.getCheckpointTime() == 0) {
+      System.err.println("*** Checkpoint not recorded");
+      status = FAIL;
+    }
+    long kept = new File(DB_PATH + LogMgr.LOG_SUFFIX).length();
+    if (kept >= logged) {
+      System.err.println("*** Log not truncated: " + kept + " bytes of "
+          + logged);
+      status = FAIL;
+    }
+
+    // background checkpoints keep coming, then every record reads back
+    long last = Minibase.DiskManager.getCheckpointTime();
+    Minibase.BufferManager.setCheckpointInterval(10);
+    while (Minibase.DiskManager.getCheckpointTime() == last) {
+      file.insertRecord(record(count++, 0));
+    }
+    Minibase.BufferManager.setCheckpointInterval(0);
+    Minibase.DiskManager.closeDB();
+    load_minibase();
+    HeapScan scan = new HeapFile("checkpoint").openScan();
+    RID rid = new RID();
+    int scanned = 0;
+    while (scan.getNext(rid) != null) {
+      scanned++;
+    }
+    scan.close();
+    if (scanned != count) {
+      System.err.println("*** Scanned " + scanned + " of " + count
+          + " records");
+      status = FAIL;
+    }
+    Minibase.DiskManager.closeDB();
+    BUF_SIZE = 100;
+
+    if (status == PASS)
+      System.out.print("\n  Test 3 completed successfully.\n");
+    return status;
+
+  } // protected boolean test3()
+
+  /**
+   * Builds the record of the given number and version.
+   */
+  protected static byte[] record(int i, int version) {
+    byte[] data = new byte[REC_LEN];
+    Convert.setIntValue(i, 0, data);
+    data[REC_LEN - 1] = (byte) version;
+    return data;
+  }
+
+} // class WALTest extends TestDriver
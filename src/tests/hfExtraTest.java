@@ -7,6 +7,8 @@ import global.Convert;
 import global.Minibase;
 import global.PageId;
 import global.RID;
+import global.RIDMap;
+import global.RIDSet;
 import heap.HeapFile; 
 import heap.HeapScan;
 import tests.HFTest.DummyRecord;
@@ -44,6 +46,7 @@ class hfExtraTest extends TestDriver {
     //status &= hft.test2();
   //  status &= hft.test3();
     status &= hft.test6();
+    status &= hft.test7();
 
     // display the final results
     System.out.println();
@@ -212,6 +215,76 @@ class hfExtraTest extends TestDriver {
 
   } // protected boolean test4()
 
+  /**
+   * Inserts, selects and deletes records by packed RID, tracking them in
+   * primitive RID collections.
+   */
+  protected boolean test7() {
+
+    System.out.println("\n  Test 7: Packed RIDs and RID collections\n");
+    boolean status = PASS;
+    HeapFile f = new HeapFile("file_3");
+    RIDMap recnos = new RIDMap();
+    RIDSet live = new RIDSet();
+    long[] rids = new long[FILE_SIZE];
+
+    System.out.println("  - Add " + FILE_SIZE + " records by packed RID\n");
+    for (int i = 0; i < FILE_SIZE; i++) {
+      DummyRecord rec = new DummyRecord();
+      rec.ival = i;
+      rec.fval = (float) (i * 2.5);
+      rec.name = "record" + i;
+      rids[i] = f.insertRecordPacked(rec.toByteArray());
+      recnos.put(rids[i], i);
+      live.add(rids[i]);
+    }
+    if ((recnos.size() != FILE_SIZE) || (live.size() != FILE_SIZE)) {
+      System.err.println("*** Packed RIDs are not all distinct\n");
+      return FAIL;
+    }
+
+    System.out.println("  - Select them back and delete the even ones\n");
+    for (int i = 0; (i < FILE_SIZE) && (status == PASS); i++) {
+      DummyRecord rec = new DummyRecord(f.selectRecord(rids[i]));
+      if ((rec.ival != i) || (recnos.get(rids[i], -1) != i)
+          || (new RID(rids[i]).pack() != rids[i])) {
+        System.err.println("*** Record " + i + " differs from its RID\n");
+        status = FAIL;
+      }
+      if (i % 2 == 0) {
+        f.deleteRecord(rids[i]);
+        live.remove(rids[i]);
+      }
+    }
+
+    System.out.println("  - Scan the rest against the collections\n");
+    HeapScan scan = f.openScan();
+    int count = 0;
+    byte[] record;
+    while ((status == PASS) && ((record = scan.getNext(rid)) != null)) {
+      DummyRecord rec = new DummyRecord(record);
+      if (!live.contains(rid.pack())
+          || (recnos.get(rid.pack(), -1) != rec.ival)) {
+        System.err.println("*** Scanned record " + rec.ival
+            + " is not tracked\n");
+        status = FAIL;
+      }
+      count++;
+    }
+    scan.close();
+    if ((status == PASS) && (count != live.size())) {
+      System.err.println("*** Scanned " + count + " records, not "
+          + live.size() + "\n");
+      status = FAIL;
+    }
+    f.deleteFile();
+
+    if (status == PASS)
+      System.out.println("  Test 7 completed successfully.\n");
+    return status;
+
+  } // protected boolean test7()
+
   /**
    * Used in fixed-length record test cases.
    */
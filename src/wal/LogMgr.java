@@ -0,0 +1,528 @@
+package wal;
+
+import global.Minibase;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * <h3>Minibase Log Manager</h3>
+ * The log manager keeps a write-ahead log of page changes in a file of its
+ * own, next to the database. Each record holds a run of bytes of one page as
+ * it was after the change (a redo image), so replaying the records in order
+ * over the pages on disk brings every logged byte up to date. The buffer
+ * manager logs a frame's changes whenever it is unpinned dirty, and flushes
+ * the log up to a page's last record before writing the page.
+ * <p>
+ * Records are appended to a memory buffer and written at the end of the file.
+ * A commit makes every record appended so far durable, with group commit:
+ * one thread at a time writes everything buffered and forces the file, while
+ * the others wait; when it finishes, the next waiter writes everything that
+ * was appended in the meantime with a single force. So under load a commit
+ * costs one sequential write and force shared by all concurrent committers.
+ * <p>
+ * A log sequence number (LSN) is the position of a byte in the log as if it
+ * had never been truncated; the file starts with a header holding the LSN of
+ * its first record, so LSNs keep increasing when the log is reset.
+ * <p>
+ * A checkpoint bounds the log: once every page dirty when it began is on
+ * disk, the records before the LSN it began at are dropped (see truncate),
+ * and the LSN is kept on the database's first page so replay starts there.
+ */
+public class LogMgr {
+
+  /** Suffix added to the database name to name its log file. */
+  public static final String LOG_SUFFIX = ".wal";
+
+  /** Suffix added to the log file name while it is being replaced. */
+  protected static final String TEMP_SUFFIX = ".tmp";
+
+  /** Identifies a log file. */
+  protected static final int MAGIC = 0x4D42574C;
+
+  /** Size of the file header: magic, page size and first LSN. */
+  protected static final int HEADER_SIZE = 16;
+
+  /** Size of each record header: page id, offset, length and checksum. */
+  protected static final int RECORD_HEADER = 16;
+
+  /** Initial size of the append buffer (in bytes). */
+  protected static final int BUFFER_SIZE = 64 * 1024;
+
+  /** Buffered bytes past which appending writes them out (without force). */
+  protected static final int WRITE_THRESHOLD = 1024 * 1024;
+
+  // --------------------------------------------------------------------------
+
+  /** Name of the OS file. */
+  protected final String fname;
+
+  /** Reference to the OS file; replaced when the log is truncated. */
+  protected RandomAccessFile fp;
+
+  /** Channel of the OS file, used for all transfers. */
+  protected FileChannel channel;
+
+  /** LSN of the first record in the file. */
+  protected long base_lsn;
+
+  /** Records appended but not yet handed to a write. */
+  protected byte[] pending;
+
+  /** Number of bytes in the pending buffer. */
+  protected int pending_len;
+
+  /** LSN of the first pending byte. */
+  protected long pending_lsn;
+
+  /** Buffer given back by the last write, to take the place of pending. */
+  protected byte[] spare;
+
+  /** End of the records written to the file. */
+  protected long written_lsn;
+
+  /** End of the records forced to the device. */
+  protected long durable_lsn;
+
+  /** True while a thread is writing records to the file. */
+  protected boolean flushing;
+
+  /** Checksum of the record being appended. */
+  protected final CRC32 crc = new CRC32();
+
+  /** Number of commits requested. */
+  protected long commit_cnt;
+
+  /** Number of times the file was forced. */
+  protected long force_cnt;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Opens (or creates) the given log file. Records already in the file are
+   * kept for replay; they must be replayed before anything is appended, so
+   * appends go on after the last valid one.
+   *
+   * @throws IllegalStateException if the file was logged with another page
+   * size
+   */
+  public LogMgr(String fname) throws IOException {
+    this.fname = fname;
+    fp = new RandomAccessFile(fname, "rw");
+    channel = fp.getChannel();
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    if (channel.size() >= HEADER_SIZE) {
+      channel.read(header, 0);
+    }
+    if (header.getInt(0) == MAGIC) {
+      if (header.getInt(4) != Minibase.PageSize) {
+        fp.close();
+        throw new IllegalStateException("Page size of log " + fname + " is "
+            + header.getInt(4) + ", not " + Minibase.PageSize);
+      }
+      base_lsn = header.getLong(8);
+    } else {
+      base_lsn = 0;
+      writeHeader();
+    }
+    pending = new byte[BUFFER_SIZE];
+    spare = new byte[BUFFER_SIZE];
+    pending_len = 0;
+    pending_lsn = written_lsn = durable_lsn = base_lsn;
+  }
+
+  /**
+   * Closes the log file; records not yet written are lost.
+   */
+  public synchronized void close() {
+    try {
+      fp.close();
+    } catch (IOException exc) {
+      Minibase.haltSystem(exc);
+    }
+  }
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Appends a redo record for a run of bytes of a page.
+   *
+   * @param pid id of the page
+   * @param offset where the run starts in the page
+   * @param bytes the bytes of the run, from the start of the array
+   * @param length number of bytes in the run
+   * @return the LSN just past the record, to flush up to
+   */
+  public long append(int pid, int offset, byte[] bytes, int length) {
+    long lsn;
+    boolean full;
+    synchronized (this) {
+
+      // make room, keeping the buffer for a later write of the same size
+      int reclen = RECORD_HEADER + length;
+      if (pending_len + reclen > pending.length) {
+        byte[] grown = new byte[Math.max(pending.length * 2,
+            pending_len + reclen)];
+        System.arraycopy(pending, 0, grown, 0, pending_len);
+        pending = grown;
+      }
+
+      // the checksum covers the rest of the header and the bytes
+      ByteBuffer rec = ByteBuffer.wrap(pending, pending_len, reclen);
+      rec.putInt(pid).putInt(offset).putInt(length);
+      crc.reset();
+      crc.update(pending, pending_len, 12);
+      crc.update(bytes, 0, length);
+      rec.putInt((int) crc.getValue());
+      rec.put(bytes, 0, length);
+      pending_len += reclen;
+      lsn = pending_lsn + pending_len;
+      full = (pending_len >= WRITE_THRESHOLD);
+
+    } // synchronized
+
+    // keep the buffer bounded when nothing commits for a while
+    if (full) {
+      sync(lsn, false);
+    }
+    return lsn;
+
+  } // public long append(int pid, int offset, byte[] bytes, int length)
+
+  /**
+   * Makes every record appended so far durable.
+   *
+   * @return the LSN up to which the log is durable
+   */
+  public long commit() {
+    long lsn;
+    synchronized (this) {
+      commit_cnt++;
+      lsn = pending_lsn + pending_len;
+    }
+    flush(lsn);
+    return lsn;
+  }
+
+  /**
+   * Makes the records up to the given LSN durable, unless they already are;
+   * called before a page is written with that LSN.
+   */
+  public void flush(long lsn) {
+    sync(lsn, true);
+  }
+
+  /**
+   * Gets the LSN just past the last record appended.
+   */
+  public synchronized long getEndLSN() {
+    return pending_lsn + pending_len;
+  }
+
+  /**
+   * Gets the number of commits requested.
+   */
+  public synchronized long getCommitCount() {
+    return commit_cnt;
+  }
+
+  /**
+   * Gets the number of times the log was forced to the device.
+   */
+  public synchronized long getForceCount() {
+    return force_cnt;
+  }
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Writes the records up to the given LSN (and any appended after them) to
+   * the file, as the one thread doing so; callers arriving meanwhile wait,
+   * and the first of them to find its records still unwritten goes next.
+   *
+   * @param force true to force the file to the device as well
+   */
+  protected void sync(long lsn, boolean force) {
+
+    // wait for the write in progress, unless it covers the LSN
+    byte[] buf;
+    int len;
+    long start;
+    boolean interrupted = false;
+    synchronized (this) {
+      while (flushing && ((force ? durable_lsn : written_lsn) < lsn)) {
+        try {
+          wait();
+        } catch (InterruptedException exc) {
+          interrupted = true;
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+      if ((force ? durable_lsn : written_lsn) >= lsn) {
+        return;
+      }
+
+      // take everything buffered, so appends go on into the spare buffer
+      flushing = true;
+      buf = pending;
+      len = pending_len;
+      start = pending_lsn;
+      pending = spare;
+      pending_len = 0;
+      pending_lsn = start + len;
+    }
+
+    // write and force without holding the lock
+    try {
+      ByteBuffer src = ByteBuffer.wrap(buf, 0, len);
+      long pos = HEADER_SIZE + (start - base_lsn);
+      while (src.hasRemaining()) {
+        pos += channel.write(src, pos);
+      }
+      if (force) {
+        channel.force(false);
+      }
+    } catch (IOException exc) {
+      Minibase.haltSystem(exc);
+    }
+
+    // let the waiters see what is now written
+    synchronized (this) {
+      written_lsn = start + len;
+      if (force) {
+        durable_lsn = written_lsn;
+        force_cnt++;
+      }
+      spare = buf;
+      flushing = false;
+      notifyAll();
+    }
+
+  } // protected void sync(long lsn, boolean force)
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Receives the records of the log as it is replayed.
+   */
+  public interface Redo {
+
+    /**
+     * Applies a record: the given bytes replace the run of the page starting
+     * at the given offset.
+     */
+    void apply(int pid, int offset, byte[] data);
+
+  } // public interface Redo
+
+  /**
+   * Replays the records in the file in order, from the given LSN up to the
+   * first one that is incomplete or fails its checksum (i.e. the part of a
+   * write cut short by a crash). Records before the LSN only describe pages
+   * a checkpoint has since written, so they are skipped.
+   *
+   * @param from the LSN of the last checkpoint, or 0 if there was none
+   * @return the number of records replayed
+   */
+  public synchronized int replay(long from, Redo redo) {
+
+    // read the records sequentially, stopping at the first bad one
+    int count = 0;
+    long end = base_lsn;
+    try {
+      DataInputStream in = new DataInputStream(new BufferedInputStream(
+          Channels.newInputStream(channel.position(HEADER_SIZE))));
+      while (true) {
+
+        // read the header, checking the run lies within a page
+        int pid, offset, length, sum;
+        try {
+          pid = in.readInt();
+          offset = in.readInt();
+          length = in.readInt();
+          sum = in.readInt();
+        } catch (EOFException exc) {
+          break;
+        }
+        if ((pid < 0) || (offset < 0) || (length < 0)
+            || (length > Minibase.PageSize - offset)) {
+          break;
+        }
+
+        // read and check the bytes
+        byte[] data = new byte[length];
+        try {
+          in.readFully(data);
+        } catch (EOFException exc) {
+          break;
+        }
+        crc.reset();
+        crc.update(ByteBuffer.allocate(12).putInt(pid).putInt(offset)
+            .putInt(length).array());
+        crc.update(data);
+        if ((int) crc.getValue() != sum) {
+          break;
+        }
+        if (end >= from) {
+          redo.apply(pid, offset, data);
+          count++;
+        }
+        end += RECORD_HEADER + length;
+
+      } // while
+    } catch (IOException exc) {
+      Minibase.haltSystem(exc);
+    }
+
+    // append after the last valid record, over anything cut short (and
+    // never below the checkpoint, should the log have been lost)
+    pending_len = 0;
+    pending_lsn = written_lsn = durable_lsn = Math.max(end, from);
+    return count;
+
+  } // public synchronized int replay(Redo redo)
+
+  /**
+   * Empties the log, once every page it covers has been written and forced
+   * to the database; LSNs carry on from the end of the old records.
+   */
+  public synchronized void reset() {
+    boolean interrupted = false;
+    while (flushing) {
+      try {
+        wait();
+      } catch (InterruptedException exc) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+    base_lsn = pending_lsn + pending_len;
+    pending_len = 0;
+    pending_lsn = written_lsn = durable_lsn = base_lsn;
+    try {
+      channel.truncate(HEADER_SIZE);
+      writeHeader();
+    } catch (IOException exc) {
+      Minibase.haltSystem(exc);
+    }
+  } // public synchronized void reset()
+
+  /**
+   * Drops the records before the given LSN, once every page they cover has
+   * been written and forced (i.e. by a checkpoint). The records kept are
+   * copied to a new file, which then replaces the log, so a crash meanwhile
+   * leaves one whole log or the other; writes to the log wait until then.
+   */
+  public void truncate(long lsn) {
+
+    // take the writing thread's place, so the file stays as it is
+    long end;
+    boolean interrupted = false;
+    synchronized (this) {
+      while (flushing) {
+        try {
+          wait();
+        } catch (InterruptedException exc) {
+          interrupted = true;
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+      end = written_lsn;
+      lsn = Math.min(lsn, end);
+      if (lsn <= base_lsn) {
+        return;
+      }
+      flushing = true;
+    }
+
+    // copy the rest of the records after a new header, then swap the files
+    Path path = Paths.get(fname);
+    Path temp = Paths.get(fname + TEMP_SUFFIX);
+    try {
+      FileChannel copy = FileChannel.open(temp, StandardOpenOption.CREATE,
+          StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+      try {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(Minibase.PageSize).putLong(lsn);
+        header.flip();
+        while (header.hasRemaining()) {
+          copy.write(header);
+        }
+        long pos = HEADER_SIZE + (lsn - base_lsn);
+        long stop = HEADER_SIZE + (end - base_lsn);
+        while (pos < stop) {
+          pos += channel.transferTo(pos, stop - pos, copy);
+        }
+        copy.force(true);
+      } finally {
+        copy.close();
+      }
+      Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+      syncDirectory(path);
+      fp.close();
+      fp = new RandomAccessFile(fname, "rw");
+      channel = fp.getChannel();
+    } catch (IOException exc) {
+      Minibase.haltSystem(exc);
+    }
+
+    // let writes go on into the new file
+    synchronized (this) {
+      base_lsn = lsn;
+      flushing = false;
+      notifyAll();
+    }
+
+  } // public void truncate(long lsn)
+
+  /**
+   * Forces the directory holding the given file, so a rename into it is
+   * durable; not every platform allows it, in which case this does nothing.
+   */
+  protected static void syncDirectory(Path path) {
+    Path dir = path.toAbsolutePath().getParent();
+    try {
+      FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ);
+      try {
+        channel.force(true);
+      } finally {
+        channel.close();
+      }
+    } catch (IOException exc) {
+      // directories cannot be opened here
+    }
+  }
+
+  /**
+   * Writes and forces the file header.
+   */
+  protected void writeHeader() throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    header.putInt(MAGIC).putInt(Minibase.PageSize).putLong(base_lsn);
+    header.flip();
+    while (header.hasRemaining()) {
+      channel.write(header, HEADER_SIZE - header.remaining());
+    }
+    channel.force(true);
+  }
+
+} // public class LogMgr